@@ -41,6 +41,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 public class BackupManager {
@@ -86,17 +87,27 @@ public class BackupManager {
 
 
     public static boolean performBackupInBackground(String path, @NonNull Time time) {
-        return performBackupInBackground(path, BACKUP_INTERVAL, false, time);
+        return performBackupInBackground(path, BACKUP_INTERVAL, false, time, null);
     }
 
 
     public static boolean performBackupInBackground(String path, boolean force, @NonNull Time time) {
-        return performBackupInBackground(path, BACKUP_INTERVAL, force, time);
+        return performBackupInBackground(path, BACKUP_INTERVAL, force, time, null);
     }
 
 
+    /** Backs up the open collection, once the decks and note types which changed are written to its col table */
+    public static boolean performBackupInBackground(@NonNull Collection col) {
+        return performBackupInBackground(col.getPath(), BACKUP_INTERVAL, false, col.getTime(), col);
+    }
+
+
+    /**
+     * @param col The collection of the path, if it is open. Its registry changes are folded into the col table before
+     *            the file is copied.
+     */
     @SuppressWarnings("PMD.NPathComplexity")
-    private static boolean performBackupInBackground(final String colPath, int interval, boolean force, @NonNull Time time) {
+    private static boolean performBackupInBackground(final String colPath, int interval, boolean force, @NonNull Time time, @Nullable Collection col) {
         SharedPreferences prefs = AnkiDroidApp.getSharedPrefs(AnkiDroidApp.getInstance().getBaseContext());
         if (prefs.getInt("backupMax", 8) == 0 && !force) {
             Timber.w("backups are disabled");
@@ -164,6 +175,10 @@ public class BackupManager {
         if (CollectionHelper.getInstance().colIsOpen()) {
             Timber.w("Collection is already open during backup... we probably shouldn't be doing this");
         }
+        if (col != null) {
+            // the copy is read without the changes table
+            col.foldRegistryChanges();
+        }
         Timber.i("Launching new thread to backup %s to %s", colPath, backupFile.getPath());
 
         // Backup collection as Anki package in new thread
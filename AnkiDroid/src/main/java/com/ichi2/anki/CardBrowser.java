@@ -24,6 +24,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
@@ -78,19 +79,23 @@ import com.ichi2.libanki.Consts;
 import com.ichi2.libanki.Decks;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.Deck;
+import com.ichi2.libanki.Model;
 import com.ichi2.themes.Themes;
 import com.ichi2.upgrade.Upgrade;
 import com.ichi2.utils.BooleanGetter;
 import com.ichi2.utils.FunctionalInterfaces;
 import com.ichi2.utils.LanguageUtil;
+import com.ichi2.utils.LongArrayList;
 import com.ichi2.utils.PairWithBoolean;
 import com.ichi2.utils.PairWithCard;
 import com.ichi2.utils.Permissions;
 import com.ichi2.widget.WidgetStatus;
 
+import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -211,7 +216,8 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private TextView mActionBarTitle;
     private boolean mReloadRequired = false;
     private boolean mInMultiSelectMode = false;
-    private final Set<CardCache> mCheckedCards = Collections.synchronizedSet(new LinkedHashSet<>());
+    /** Ids of the selected cards, so that selecting cards doesn't create their rows */
+    private final Set<Long> mCheckedCardIds = Collections.synchronizedSet(new LinkedHashSet<>());
     private int mLastSelectedPosition;
     @Nullable
     private Menu mActionBarMenu;
@@ -421,11 +427,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
     private List<Long> getSelectedCardIds() {
-        List<Long> ids = new ArrayList<>(mCheckedCards.size());
-        for (CardCache cardPosition : mCheckedCards) {
-            ids.add(cardPosition.getId());
+        synchronized (mCheckedCardIds) {
+            return new ArrayList<>(mCheckedCardIds);
         }
-        return ids;
     }
 
     private boolean canPerformCardInfo() {
@@ -1000,9 +1004,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
             return;
         }
 
-        if (!mCheckedCards.isEmpty()) {
+        if (!mCheckedCardIds.isEmpty()) {
             TaskManager.cancelAllTasks(CollectionTask.CheckCardSelection.class);
-            TaskManager.launchCollectionTask(new CollectionTask.CheckCardSelection(getCards()),
+            TaskManager.launchCollectionTask(new CollectionTask.CheckCardSelection(getSelectedCardIds()),
                     mCheckSelectedCardsHandler);
         }
 
@@ -1015,7 +1019,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
 
     private boolean hasSelectedCards() {
-        return !mCheckedCards.isEmpty();
+        return !mCheckedCardIds.isEmpty();
     }
 
     private boolean hasSelectedAllCards() {
@@ -1206,7 +1210,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         TaskManager.launchCollectionTask(new CollectionTask.DeleteNoteMulti(getSelectedCardIds()),
                                             mDeleteNoteHandler);
 
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         endMultiSelectMode();
         mCardsAdapter.notifyDataSetChanged();
     }
@@ -1263,7 +1267,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             return getPreviewIntent(index, Utils.toPrimitive(getSelectedCardIds()));
         } else {
             // Preview all cards, starting from the one that is currently selected
-            int startIndex = mCheckedCards.isEmpty() ? 0 : mCheckedCards.iterator().next().getPosition();
+            int startIndex = mCheckedCardIds.isEmpty() ? 0 : getPositionOfCardId(getSelectedCardIds().get(0));
             return getPreviewIntent(startIndex, getAllCardIds());
         }
     }
@@ -1481,7 +1485,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         TaskManager.cancelAllTasks(CollectionTask.RenderBrowserQA.class);
         TaskManager.cancelAllTasks(CollectionTask.CheckCardSelection.class);
         mCards.clear();
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
     }
 
     /** Currently unused - to be used in #7676 */
@@ -1547,7 +1551,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private static Map<Long, Integer> getPositionMap(CardCollection<CardCache> list) {
         Map<Long, Integer> positions = new HashMap<>(list.size());
         for (int i = 0; i < list.size(); i++) {
-            positions.put(list.get(i).getId(), i);
+            positions.put(list.getId(i), i);
         }
         return positions;
     }
@@ -1804,14 +1808,24 @@ public class CardBrowser extends NavigationDrawerActivity implements
             }
         }
 
-        List<CardCache> newMCards = new ArrayList<>(oldMCards.size());
-        int pos = 0;
-        for (CardCache card: oldMCards) {
-            if (!idToRemove.contains(card.getId())) {
-                newMCards.add(new CardCache(card, pos++));
+        // Keep the rows which were already created, other rows are still created when needed
+        LongArrayList newIds = new LongArrayList(oldMCards.size());
+        Map<Long, CardCache> createdRows = new HashMap<>();
+        for (int i = 0; i < oldMCards.size(); i++) {
+            long id = oldMCards.getId(i);
+            if (!idToRemove.contains(id)) {
+                newIds.add(id);
+                CardCache card = oldMCards.getIfCreated(i);
+                if (card != null) {
+                    createdRows.put(id, card);
+                }
             }
         }
-        mCards.replaceWith(newMCards);
+        Collection col = getCol();
+        mCards.replaceWith(newIds, (id, position) -> {
+            CardCache card = createdRows.remove(id);
+            return card != null ? new CardCache(card, position) : new CardCache(id, col, position);
+        });
 
         if (reorderCards) {
             //Suboptimal from a UX perspective, we should reorder
@@ -1930,23 +1944,21 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
 
     private final SearchCardsHandler mSearchCardsHandler = new SearchCardsHandler(this);
-    private class SearchCardsHandler extends ListenerWithProgressBar<List<CardCache>, List<CardCache>> {
+    private class SearchCardsHandler extends ListenerWithProgressBar<CardCollection<CardCache>, CardCollection<CardCache>> {
         public SearchCardsHandler(CardBrowser browser) {
             super(browser);
         }
 
 
         @Override
-        public void actualOnProgressUpdate(@NonNull CardBrowser browser, List<CardCache> cards) {
-            // Need to copy the list into a new list, because the original list is modified, and
-            // ListAdapter crash
-            mCards.replaceWith(new ArrayList<>(cards));
+        public void actualOnProgressUpdate(@NonNull CardBrowser browser, CardCollection<CardCache> cards) {
+            mCards.replaceWith(cards);
             updateList();
         }
 
 
         @Override
-        public void actualOnPostExecute(@NonNull CardBrowser browser, List<CardCache> result) {
+        public void actualOnPostExecute(@NonNull CardBrowser browser, CardCollection<CardCache> result) {
             if (result != null) {
                 mCards.replaceWith(result);
                 updateList();
@@ -2024,9 +2036,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
         if (mCards.size() == 0) {
             return CARD_NOT_AVAILABLE;
         }
-        for (CardCache card : mCards) {
-            if (card.getId() == mOldCardId) {
-                return card.mPosition;
+        for (int i = 0; i < mCards.size(); i++) {
+            if (mCards.getId(i) == mOldCardId) {
+                return i;
             }
         }
         return CARD_NOT_AVAILABLE;
@@ -2293,7 +2305,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             // if in multi-select mode, be sure to show the checkboxes
             if(mInMultiSelectMode) {
                 checkBox.setVisibility(View.VISIBLE);
-                checkBox.setChecked(mCheckedCards.contains(card));
+                checkBox.setChecked(mCheckedCardIds.contains(card.getId()));
                 // this prevents checkboxes from showing an animation from selected -> unselected when
                 // checkbox was selected, then selection mode was ended and now restarted
                 checkBox.jumpDrawablesToCurrentState();
@@ -2355,34 +2367,39 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     private void onCheck(int position, View cell) {
         CheckBox checkBox = cell.findViewById(R.id.card_checkbox);
-        CardCache card = getCards().get(position);
+        long cardId = getCards().getId(position);
 
         if (checkBox.isChecked()) {
-            mCheckedCards.add(card);
+            mCheckedCardIds.add(cardId);
         } else {
-            mCheckedCards.remove(card);
+            mCheckedCardIds.remove(cardId);
         }
 
        onSelectionChanged();
     }
 
     private void onSelectAll() {
-        mCheckedCards.addAll(mCards.unsafeGetWrapped());
+        CardCollection<CardCache> cards = getCards();
+        synchronized (mCheckedCardIds) {
+            for (int position = 0; position < cards.size(); position++) {
+                mCheckedCardIds.add(cards.getId(position));
+            }
+        }
         onSelectionChanged();
     }
 
     private void onSelectNone() {
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         onSelectionChanged();
     }
 
     private void onSelectionChanged() {
         Timber.d("onSelectionChanged()");
         try {
-            if (!mInMultiSelectMode && !mCheckedCards.isEmpty()) {
+            if (!mInMultiSelectMode && !mCheckedCardIds.isEmpty()) {
                 //If we have selected cards, load multiselect
                 loadMultiSelectMode();
-            } else if (mInMultiSelectMode && mCheckedCards.isEmpty()) {
+            } else if (mInMultiSelectMode && mCheckedCardIds.isEmpty()) {
                 //If we don't have cards, unload multiselect
                 endMultiSelectMode();
             }
@@ -2418,9 +2435,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
             cardIds.add(c.getId());
         }
 
-        for (CardCache props : mCards) {
-            if (cardIds.contains(props.getId())) {
-                props.reload();
+        for (int i = 0; i < mCards.size(); i++) {
+            if (cardIds.contains(mCards.getId(i))) {
+                mCards.get(i).reload();
             }
         }
         mCardsAdapter.notifyDataSetChanged();
@@ -2431,67 +2448,205 @@ public class CardBrowser extends NavigationDrawerActivity implements
         return mCards;
     }
 
+    /** @return The position of the card, 0 if it is not displayed anymore */
+    private int getPositionOfCardId(long cardId) {
+        CardCollection<CardCache> cards = getCards();
+        for (int position = 0; position < cards.size(); position++) {
+            if (cards.getId(position) == cardId) {
+                return position;
+            }
+        }
+        return 0;
+    }
+
     private long[] getAllCardIds() {
         long[] l = new long[mCards.size()];
         for (int i = 0; i < mCards.size(); i++) {
-            l[i] = mCards.get(i).getId();
+            l[i] = mCards.getId(i);
         }
         return l;
     }
 
     // This could be better: use a wrapper class PositionAware<T> to store the position so it's
     // no longer a responsibility of CardCache and we can guarantee it's consistent just by using this collection
-    /** A position-aware collection to ensure consistency between the position of items and the collection */
+    /**
+     * A position-aware collection to ensure consistency between the position of items and the collection.
+     * <p>
+     * The cards displayed by the browser. The result of a search is kept as an array of card ids, and the row of a
+     * card is only created when it is first accessed, usually when the list scrolls to it. So a search finding the
+     * whole collection doesn't create a row for each card.
+     */
     public static class CardCollection<T extends PositionAware> implements Iterable<T> {
-        private List<T> mWrapped = new ArrayList<>(0);
+        /** Rows are stored in pages of this size, allocated on first access */
+        private static final int PAGE_SIZE = 256;
+
+        /** Ids of the cards, in the order of the search. Null if the rows were given rather than created. */
+        @Nullable
+        private LongArrayList mIds = new LongArrayList(0);
+        @Nullable
+        private RowFactory<T> mFactory;
+        private int mSize;
+        /** Whether the position of the card at index i is mSize - 1 - i */
+        private boolean mReversed;
+        private Object[][] mRows = new Object[0][];
 
-        public int size() {
-            return mWrapped.size();
+        public synchronized int size() {
+            return mSize;
         }
 
-        public T get(int index) {
-            return mWrapped.get(index);
+        @SuppressWarnings("unchecked")
+        public synchronized T get(int position) {
+            int index = toIndex(position);
+            Object[] page = mRows[index / PAGE_SIZE];
+            if (page == null) {
+                page = new Object[PAGE_SIZE];
+                mRows[index / PAGE_SIZE] = page;
+            }
+            T row = (T) page[index % PAGE_SIZE];
+            if (row == null) {
+                row = mFactory.create(mIds.get(index), position);
+                page[index % PAGE_SIZE] = row;
+            }
+            return row;
+        }
+
+
+        /**
+         * @return The row at this position, or null if it was not created yet
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        public synchronized T getIfCreated(int position) {
+            int index = toIndex(position);
+            Object[] page = mRows[index / PAGE_SIZE];
+            return page == null ? null : (T) page[index % PAGE_SIZE];
+        }
+
+
+        /**
+         * @return The id of the card at this position, without creating its row
+         * @throws IllegalStateException if the rows were given instead of the ids
+         */
+        public synchronized long getId(int position) {
+            if (mIds == null) {
+                throw new IllegalStateException("Collection was not created from ids");
+            }
+            return mIds.get(toIndex(position));
+        }
+
+
+        private int toIndex(int position) {
+            if (position < 0 || position >= mSize) {
+                throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + mSize);
+            }
+            return mReversed ? mSize - 1 - position : position;
         }
 
 
         public void reset() {
-            mWrapped = new ArrayList<>(0);
+            replaceWith(new LongArrayList(0), null);
+        }
+
+
+        public synchronized void replaceWith(List<T> value) {
+            setSize(value.size());
+            mIds = null;
+            mFactory = null;
+            for (int i = 0; i < mSize; i++) {
+                if (i % PAGE_SIZE == 0) {
+                    mRows[i / PAGE_SIZE] = new Object[PAGE_SIZE];
+                }
+                mRows[i / PAGE_SIZE][i % PAGE_SIZE] = value.get(i);
+            }
+        }
+
+
+        /**
+         * @param ids The cards to display. Must not be modified afterwards.
+         * @param factory Creates the row of a card when it is first accessed
+         */
+        public synchronized void replaceWith(@NonNull LongArrayList ids, RowFactory<T> factory) {
+            setSize(ids.size());
+            mIds = ids;
+            mFactory = factory;
         }
 
 
-        public void replaceWith(List<T> value) {
-            mWrapped = value;
+        /** Takes the content of another collection, which must not be used afterwards */
+        public synchronized void replaceWith(@NonNull CardCollection<T> other) {
+            synchronized (other) {
+                mIds = other.mIds;
+                mFactory = other.mFactory;
+                mSize = other.mSize;
+                mReversed = other.mReversed;
+                mRows = other.mRows;
+            }
         }
 
-        public void reverse() {
-            Collections.reverse(mWrapped);
-            int position = 0;
-            for (int i = 0; i < mWrapped.size(); i++) {
-                mWrapped.get(i).setPosition(position++);
+
+        private void setSize(int size) {
+            mSize = size;
+            mReversed = false;
+            mRows = new Object[(size + PAGE_SIZE - 1) / PAGE_SIZE][];
+        }
+
+
+        /** Reverses the order of the cards. Only the rows which were created need to be updated. */
+        @SuppressWarnings("unchecked")
+        public synchronized void reverse() {
+            mReversed = !mReversed;
+            for (int index = 0; index < mSize; index++) {
+                Object[] page = mRows[index / PAGE_SIZE];
+                if (page == null) {
+                    index += PAGE_SIZE - 1;
+                    continue;
+                }
+                T row = (T) page[index % PAGE_SIZE];
+                if (row != null) {
+                    row.setPosition(mReversed ? mSize - 1 - index : index);
+                }
             }
         }
 
 
+        /** Iterates over all the cards, creating their row if needed */
         @NonNull
         @Override
         public Iterator<T> iterator() {
-            return mWrapped.iterator();
+            return unsafeGetWrapped().iterator();
         }
 
-        public java.util.Collection<T> unsafeGetWrapped() {
-            return mWrapped;
+        /** A view of all the cards. Creates the rows of the cards it accesses. */
+        public List<T> unsafeGetWrapped() {
+            return new AbstractList<T>() {
+                @Override
+                public T get(int index) {
+                    return CardCollection.this.get(index);
+                }
+
+
+                @Override
+                public int size() {
+                    return CardCollection.this.size();
+                }
+            };
         }
 
 
         public void ensureValidValue() {
-            if (mWrapped == null) {
+            if (mRows == null) {
                 reset();
             }
         }
 
 
         public void clear() {
-            mWrapped.clear();
+            reset();
+        }
+
+
+        public interface RowFactory<T> {
+            T create(long id, int position);
         }
     }
 
@@ -2502,9 +2657,18 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
     public static class CardCache extends Card.Cache implements PositionAware {
+        /** Columns read for each card of a page by {@link #loadPage}: the card, then the note columns displayed */
+        private static final String PAGE_COLUMNS = Card.COLUMNS + ", n.mid, n.mod, n.tags, n.sfld";
+
         private boolean mLoaded = false;
         private Pair<String, String> mQa = null;
         private int mPosition;
+        /**
+         * The note columns the browser displays, when read with the card by {@link #loadPage}. Otherwise null, and
+         * they are read from the note.
+         */
+        @Nullable
+        private NoteColumns mNoteColumns;
 
         public CardCache(long id, Collection col, int position) {
             super(col, id);
@@ -2515,6 +2679,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             super(cache);
             mLoaded = cache.mLoaded;
             mQa = cache.mQa;
+            mNoteColumns = cache.mNoteColumns;
             mPosition = position;
         }
 
@@ -2534,6 +2699,79 @@ public class CardBrowser extends NavigationDrawerActivity implements
             super.reload();
             mLoaded = false;
             mQa = null;
+            mNoteColumns = null;
+        }
+
+
+        /**
+         * Loads the cards of a page of the browser in a single query, with the columns of their notes which are
+         * displayed, so that neither the cards nor the notes are queried one at a time. Only the question and answer
+         * need the note, and they are only rendered if they are displayed.
+         *
+         * @return The ids of the cards which are not in the collection anymore
+         */
+        public static List<Long> loadPage(@NonNull Collection col, @NonNull List<CardCache> cards, int column1Index, int column2Index) {
+            Map<Long, CardCache> byId = new HashMap<>(cards.size());
+            long[] ids = new long[cards.size()];
+            for (int i = 0; i < cards.size(); i++) {
+                CardCache card = cards.get(i);
+                byId.put(card.getId(), card);
+                ids[i] = card.getId();
+            }
+            boolean renderQa = isQaDisplayed(column1Index, column2Index);
+            List<CardCache> loaded = new ArrayList<>(cards.size());
+            try (Cursor cur = col.getDb().query("select " + PAGE_COLUMNS + " from cards c, notes n where c.nid = n.id and c.id in " + Utils.ids2str(ids))) {
+                while (cur.moveToNext()) {
+                    CardCache card = byId.remove(cur.getLong(0));
+                    if (card == null) {
+                        continue;
+                    }
+                    card.setCard(new Card(col, cur));
+                    card.mNoteColumns = new NoteColumns(cur.getLong(18), cur.getLong(19), col.getTags().split(cur.getString(20)), cur.getString(21));
+                    loaded.add(card);
+                }
+            }
+            if (renderQa) {
+                // the page is rendered on several threads
+                List<Card> toRender = new ArrayList<>(loaded.size());
+                for (CardCache card : loaded) {
+                    if (card.mQa == null) {
+                        toRender.add(card.getCard());
+                    }
+                }
+                Card.loadQA(col, toRender, true);
+                for (CardCache card : loaded) {
+                    card.updateSearchItemQA(false);
+                }
+            }
+            for (CardCache card : loaded) {
+                card.mLoaded = true;
+            }
+            return new ArrayList<>(byId.keySet());
+        }
+
+
+        private static boolean isQaDisplayed(int column1Index, int column2Index) {
+            // First column can not be the answer. If it were to change, this code should also be changed.
+            return COLUMN1_KEYS[column1Index] == QUESTION ||
+                    COLUMN2_KEYS[column2Index] == QUESTION ||
+                    COLUMN2_KEYS[column2Index] == ANSWER;
+        }
+
+
+        private Model model() {
+            if (mNoteColumns != null) {
+                return getCol().getModels().get(mNoteColumns.mMid);
+            }
+            return getCard().model();
+        }
+
+
+        private boolean isMarked() {
+            if (mNoteColumns != null) {
+                return getCol().getTags().inList("marked", mNoteColumns.mTags);
+            }
+            return getCard().note().hasTag("marked");
         }
 
         /**
@@ -2552,7 +2790,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                 case 4:
                     return R.attr.flagBlue;
                 default:
-                    if (getCard().note().hasTag("marked")) {
+                    if (isMarked()) {
                         return R.attr.markedColor;
                     } else {
                         if (getCard().getQueue() == Consts.QUEUE_TYPE_SUSPENDED) {
@@ -2571,15 +2809,21 @@ public class CardBrowser extends NavigationDrawerActivity implements
             case SUSPENDED:
                 return getCard().getQueue() == Consts.QUEUE_TYPE_SUSPENDED ? "True": "False";
             case MARKED:
-                return getCard().note().hasTag("marked") ? "marked" : null;
+                return isMarked() ? "marked" : null;
             case SFLD:
-                return getCard().note().getSFld();
+                return mNoteColumns != null ? mNoteColumns.mSfld : getCard().note().getSFld();
             case DECK:
                 return getCol().getDecks().name(getCard().getDid());
             case TAGS:
+                if (mNoteColumns != null) {
+                    return getCol().getTags().join(getCol().getTags().canonify(mNoteColumns.mTags));
+                }
                 return getCard().note().stringTags();
-            case CARD:
-                return getCard().template().optString("name");
+            case CARD: {
+                Model model = model();
+                JSONArray templates = model.getJSONArray("tmpls");
+                return templates.getJSONObject(model.isStd() ? getCard().getOrd() : 0).optString("name");
+            }
             case DUE:
                 return getCard().getDueString();
             case EASE:
@@ -2591,9 +2835,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
             case CHANGED:
                 return LanguageUtil.getShortDateFormatFromS(getCard().getMod());
             case CREATED:
-                return LanguageUtil.getShortDateFormatFromMs(getCard().note().getId());
+                return LanguageUtil.getShortDateFormatFromMs(getCard().getNid());
             case EDITED:
-                return LanguageUtil.getShortDateFormatFromS(getCard().note().getMod());
+                return LanguageUtil.getShortDateFormatFromS(mNoteColumns != null ? mNoteColumns.mMod : getCard().note().getMod());
             case INTERVAL:
                 switch (getCard().getType()) {
                 case Consts.CARD_TYPE_NEW:
@@ -2606,7 +2850,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             case LAPSES:
                 return Integer.toString(getCard().getLapses());
             case NOTE_TYPE:
-                return getCard().model().optString("name");
+                return model().optString("name");
             case REVIEWS:
                 return Integer.toString(getCard().getReps());
             case QUESTION:
@@ -2627,13 +2871,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                 reload();
             }
             getCard().note();
-            if (
-                COLUMN1_KEYS[column1Index] == QUESTION ||
-                COLUMN2_KEYS[column2Index] == QUESTION ||
-                COLUMN2_KEYS[column2Index] == ANSWER
-                // First column can not be the answer. If it were to
-                // change, this code should also be changed.
-                ) {
+            if (isQaDisplayed(column1Index, column2Index)) {
                 updateSearchItemQA();
             }
             mLoaded = true;
@@ -2649,11 +2887,19 @@ public class CardBrowser extends NavigationDrawerActivity implements
            question.
         */
         public void updateSearchItemQA() {
+            updateSearchItemQA(true);
+        }
+
+
+        /**
+         * @param reload Whether to render the card, false if it was just rendered for the browser
+         */
+        private void updateSearchItemQA(boolean reload) {
             if (mQa != null) {
                 return;
             }
             // render question and answer
-            Map<String, String> qa = getCard()._getQA(true, true);
+            Map<String, String> qa = getCard()._getQA(reload, true);
             // Render full question / answer if the bafmt (i.e. "browser appearance") setting forced blank result
             if ("".equals(qa.get("q")) || "".equals(qa.get("a"))) {
                 HashMap<String, String> qaFull = getCard()._getQA(true, false);
@@ -2694,6 +2940,22 @@ public class CardBrowser extends NavigationDrawerActivity implements
         public int hashCode() {
             return Long.valueOf(getId()).hashCode();
         }
+
+
+        private static class NoteColumns {
+            private final long mMid;
+            private final long mMod;
+            private final List<String> mTags;
+            private final String mSfld;
+
+
+            private NoteColumns(long mid, long mod, List<String> tags, String sfld) {
+                mMid = mid;
+                mMod = mod;
+                mTags = tags;
+                mSfld = sfld;
+            }
+        }
     }
 
     /**
@@ -2754,7 +3016,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
      */
     private void endMultiSelectMode() {
         Timber.d("endMultiSelectMode()");
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         mInMultiSelectMode = false;
         // If view which was originally selected when entering multi-select is visible then maintain its position
         View view = mCardsListView.getChildAt(mLastSelectedPosition - mCardsListView.getFirstVisiblePosition());
@@ -2771,7 +3033,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting
     public int checkedCardCount() {
-        return mCheckedCards.size();
+        return mCheckedCardIds.size();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
@@ -2808,12 +3070,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     long[] getCardIds() {
-        CardCache[] cardsCopy = mCards.unsafeGetWrapped().toArray(new CardCache[0]);
-        long[] ret = new long[cardsCopy.length];
-        for (int i = 0; i < cardsCopy.length; i++) {
-            ret[i] = cardsCopy[i].getId();
-        }
-        return ret;
+        return getAllCardIds();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
@@ -2824,14 +3081,20 @@ public class CardBrowser extends NavigationDrawerActivity implements
                         String.format(Locale.US, "Attempted to check card at index %d. %d cards available",
                                 position, mCards.size()));
             }
-            mCheckedCards.add(getCards().get(position));
+            mCheckedCardIds.add(getCards().getId(position));
         }
         onSelectionChanged();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     boolean hasCheckedCardAtPosition(int i) {
-        return mCheckedCards.contains(getCards().get(i));
+        return mCheckedCardIds.contains(getCards().getId(i));
+    }
+
+
+    @VisibleForTesting(otherwise = VisibleForTesting.NONE)
+    boolean hasCreatedRowAtPosition(int i) {
+        return getCards().getIfCreated(i) != null;
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
@@ -2849,12 +3112,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     public List<Long> getCheckedCardIds() {
-        List<Long> cardIds = new ArrayList<>(mCheckedCards.size());
-        for (CardCache card : mCheckedCards) {
-            long id = card.getId();
-            cardIds.add(id);
-        }
-        return cardIds;
+        return getSelectedCardIds();
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE) //should only be called from changeDeck()
@@ -2868,10 +3126,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     public CardCache getPropertiesForCardId(long cardId) {
-        for (CardCache props : mCards) {
-            long id = props.getId();
-            if (id == cardId) {
-                return props;
+        for (int i = 0; i < mCards.size(); i++) {
+            if (mCards.getId(i) == cardId) {
+                return mCards.get(i);
             }
         }
         throw new IllegalStateException(String.format(Locale.US, "Card '%d' not found", cardId));
@@ -2891,7 +3148,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
     @VisibleForTesting
     void replaceSelectionWith(int[] positions) {
-        mCheckedCards.clear();
+        mCheckedCardIds.clear();
         checkCardsAtPositions(positions);
     }
 
@@ -1119,7 +1119,7 @@ public class DeckPicker extends NavigationDrawerActivity implements
      */
     private void onFinishedStartup() {
         // create backup in background if needed
-        BackupManager.performBackupInBackground(getCol().getPath(), getCol().getTime());
+        BackupManager.performBackupInBackground(getCol());
 
         // Force a full sync if flag was set in upgrade path, asking the user to confirm if necessary
         if (mRecommendFullSync) {
@@ -38,7 +38,6 @@ import com.ichi2.libanki.Media;
 import com.ichi2.libanki.Model;
 import com.ichi2.libanki.Models;
 import com.ichi2.libanki.UndoAction;
-import com.ichi2.libanki.WrongId;
 import com.ichi2.libanki.sched.AbstractSched;
 import com.ichi2.libanki.AnkiPackageExporter;
 import com.ichi2.libanki.Card;
@@ -48,6 +47,8 @@ import com.ichi2.libanki.DB;
 import com.ichi2.libanki.Decks;
 import com.ichi2.libanki.Note;
 import com.ichi2.libanki.Storage;
+import com.ichi2.libanki.TextCardExporter;
+import com.ichi2.libanki.TextNoteExporter;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.DeckConfig;
 import com.ichi2.libanki.Deck;
@@ -61,6 +62,7 @@ import com.ichi2.utils.BooleanGetter;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
+import com.ichi2.utils.LongArrayList;
 import com.ichi2.utils.PairWithBoolean;
 import com.ichi2.utils.PairWithCard;
 import com.ichi2.utils.SyncStatus;
@@ -1069,15 +1071,13 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
     /**
      * A class allowing to send partial search result to the browser to display while the search ends
      */
-    public static class PartialSearch implements ProgressSenderAndCancelListener<List<Long>> {
-        private final List<CardBrowser.CardCache> mCards;
+    public static class PartialSearch implements ProgressSenderAndCancelListener<LongArrayList> {
         private final int mColumn1Index, mColumn2Index;
         private final int mNumCardsToRender;
-        private final ProgressSenderAndCancelListener<List<CardBrowser.CardCache>> mCollectionTask;
+        private final ProgressSenderAndCancelListener<CardBrowser.CardCollection<CardBrowser.CardCache>> mCollectionTask;
         private final Collection mCol;
 
-        public PartialSearch(List<CardBrowser.CardCache> cards, int columnIndex1, int columnIndex2, int numCardsToRender, ProgressSenderAndCancelListener<List<CardBrowser.CardCache>> collectionTask, Collection col) {
-            mCards = cards;
+        public PartialSearch(int columnIndex1, int columnIndex2, int numCardsToRender, ProgressSenderAndCancelListener<CardBrowser.CardCollection<CardBrowser.CardCache>> collectionTask, Collection col) {
             mColumn1Index = columnIndex1;
             mColumn2Index = columnIndex2;
             mNumCardsToRender = numCardsToRender;
@@ -1092,27 +1092,17 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
 
 
         /**
-         * @param cards Card ids to display in the browser. It is assumed that it is as least as long as mCards, and that
-         *             mCards[i].cid = cards[i].  It add the cards in cards after `mPosition` to mCards
+         * @param cardIds Card ids found so far. They are copied, as the search goes on.
          */
-        public void add(@NonNull List<Long> cards) {
-            while (mCards.size() < cards.size()) {
-                mCards.add(new CardBrowser.CardCache(cards.get(mCards.size()), mCol, mCards.size()));
-            }
-        }
-
-
         @Override
-        public void doProgress(@NonNull List<Long> value) {
-            add(value);
-            for (CardBrowser.CardCache card : mCards) {
-                if (isCancelled()) {
-                    Timber.d("doInBackgroundSearchCards was cancelled so return");
-                    return;
-                }
-                card.load(false, mColumn1Index, mColumn2Index);
+        public void doProgress(@NonNull LongArrayList cardIds) {
+            CardBrowser.CardCollection<CardBrowser.CardCache> cards = SearchCards.toCardCollection(cardIds.copyOf(cardIds.size()), mCol);
+            if (isCancelled()) {
+                Timber.d("doInBackgroundSearchCards was cancelled so return");
+                return;
             }
-            mCollectionTask.doProgress(mCards);
+            CardBrowser.CardCache.loadPage(mCol, cards.unsafeGetWrapped(), mColumn1Index, mColumn2Index);
+            mCollectionTask.doProgress(cards);
         }
 
         public int getNumCardsToRender() {
@@ -1121,7 +1111,11 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
     }
 
 
-    public static class SearchCards extends Task<List<CardBrowser.CardCache>, List<CardBrowser.CardCache>> {
+    /**
+     * Finds the cards of the browser. Only the ids of the cards are kept, the rows of the browser are created when
+     * they are first displayed.
+     */
+    public static class SearchCards extends Task<CardBrowser.CardCollection<CardBrowser.CardCache>, CardBrowser.CardCollection<CardBrowser.CardCache>> {
         private final String mQuery;
         private final boolean mOrder;
         private final int mNumCardsToRender;
@@ -1138,28 +1132,22 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
         }
 
 
-        protected List<CardBrowser.CardCache> task(@NonNull Collection col, @NonNull ProgressSenderAndCancelListener<List<CardBrowser.CardCache>> collectionTask) {
+        protected CardBrowser.CardCollection<CardBrowser.CardCache> task(@NonNull Collection col, @NonNull ProgressSenderAndCancelListener<CardBrowser.CardCollection<CardBrowser.CardCache>> collectionTask) {
             Timber.d("doInBackgroundSearchCards");
             if (collectionTask.isCancelled()) {
                 Timber.d("doInBackgroundSearchCards was cancelled so return null");
                 return null;
             }
-            List<CardBrowser.CardCache> searchResult = new ArrayList<>();
-            List<Long> searchResult_ = col.findCards(mQuery, mOrder, new PartialSearch(searchResult, mColumn1Index, mColumn2Index, mNumCardsToRender, collectionTask, col));
-            Timber.d("The search found %d cards", searchResult_.size());
-            int position = 0;
-            for (Long cid : searchResult_) {
-                CardBrowser.CardCache card = new CardBrowser.CardCache(cid, col, position++);
-                searchResult.add(card);
-            }
+            LongArrayList cardIds = col.findCardIds(mQuery, mOrder, new PartialSearch(mColumn1Index, mColumn2Index, mNumCardsToRender, collectionTask, col));
+            Timber.d("The search found %d cards", cardIds.size());
+            CardBrowser.CardCollection<CardBrowser.CardCache> searchResult = toCardCollection(cardIds, col);
             // Render the first few items
-            for (int i = 0; i < Math.min(mNumCardsToRender, searchResult.size()); i++) {
-                if (collectionTask.isCancelled()) {
-                    Timber.d("doInBackgroundSearchCards was cancelled so return null");
-                    return null;
-                }
-                searchResult.get(i).load(false, mColumn1Index, mColumn2Index);
+            if (collectionTask.isCancelled()) {
+                Timber.d("doInBackgroundSearchCards was cancelled so return null");
+                return null;
             }
+            int numCardsToRender = Math.min(mNumCardsToRender, searchResult.size());
+            CardBrowser.CardCache.loadPage(col, searchResult.unsafeGetWrapped().subList(0, numCardsToRender), mColumn1Index, mColumn2Index);
             // Finish off the task
             if (collectionTask.isCancelled()) {
                 Timber.d("doInBackgroundSearchCards was cancelled so return null");
@@ -1168,10 +1156,20 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
                 return searchResult;
             }
         }
+
+
+        private static CardBrowser.CardCollection<CardBrowser.CardCache> toCardCollection(LongArrayList cardIds, Collection col) {
+            CardBrowser.CardCollection<CardBrowser.CardCache> cards = new CardBrowser.CardCollection<>();
+            cards.replaceWith(cardIds, (id, position) -> new CardBrowser.CardCache(id, col, position));
+            return cards;
+        }
     }
 
 
     public static class RenderBrowserQA extends Task<Integer, Pair<CardBrowser.CardCollection<CardBrowser.CardCache>, List<Long>>> {
+        /** Number of cards loaded by a single query */
+        private static final int PAGE_SIZE = 50;
+
         private final CardBrowser.CardCollection<CardBrowser.CardCache> mCards;
         private final Integer mStartPos;
         private final Integer mN;
@@ -1192,6 +1190,8 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
             Timber.d("doInBackgroundRenderBrowserQA");
 
             List<Long> invalidCardIds = new ArrayList<>();
+            // the cards to load, which are loaded together
+            List<CardBrowser.CardCache> page = new ArrayList<>(PAGE_SIZE);
             // for each specified card in the browser list
             for (int i = mStartPos; i < mStartPos + mN; i++) {
                 // Stop if cancelled
@@ -1216,26 +1216,33 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
                     //We've already rendered the answer, we don't need to do it again.
                     continue;
                 }
-                // Extract card item
-                try {
-                    // Ensure that card still exists.
-                    card.getCard();
-                } catch (WrongId e) {
-                    //#5891 - card can be inconsistent between the deck browser screen and the collection.
-                    //Realistically, we can skip any exception as it's a rendering task which should not kill the
-                    //process
-                    long cardId = card.getId();
-                    Timber.e(e, "Could not process card '%d' - skipping and removing from sight", cardId);
-                    invalidCardIds.add(cardId);
-                    continue;
+                page.add(card);
+                if (page.size() == PAGE_SIZE) {
+                    loadPage(col, page, invalidCardIds);
+                    float progress = (float) (i - mStartPos) / mN * 100;
+                    collectionTask.doProgress((int) progress);
                 }
-                // Update item
-                card.load(false, mColumn1Index, mColumn2Index);
-                float progress = (float) i / mN * 100;
-                collectionTask.doProgress((int) progress);
+            }
+            if (!page.isEmpty()) {
+                loadPage(col, page, invalidCardIds);
             }
             return new Pair<>(mCards, invalidCardIds);
         }
+
+
+        /**
+         * Loads the cards of the page, and empties it.
+         * The cards which don't exist anymore are added to invalidCardIds: #5891 - card can be inconsistent between
+         * the deck browser screen and the collection.
+         */
+        private void loadPage(@NonNull Collection col, @NonNull List<CardBrowser.CardCache> page, @NonNull List<Long> invalidCardIds) {
+            List<Long> missing = CardBrowser.CardCache.loadPage(col, page, mColumn1Index, mColumn2Index);
+            for (long cardId : missing) {
+                Timber.e("Could not process card '%d' - skipping and removing from sight", cardId);
+            }
+            invalidCardIds.addAll(missing);
+            page.clear();
+        }
     }
 
     public static class CheckDatabase extends Task<String, Pair<Boolean, Collection.CheckDatabaseResult>> {
@@ -1545,6 +1552,76 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
     }
 
 
+    /** Exports the notes of a deck, or of the collection, as text. The progress is the number of notes written. */
+    public static class ExportNotesAsText extends Task<Integer, Pair<Boolean, String>> {
+        private final String mPath;
+        private final @Nullable Long mDid;
+        private final boolean mIncludeID;
+        private final boolean mIncludeTags;
+        private final boolean mIncludeHTML;
+
+
+        public ExportNotesAsText(String path, @Nullable Long did, boolean includeID, boolean includeTags, boolean includeHTML) {
+            this.mPath = path;
+            this.mDid = did;
+            this.mIncludeID = includeID;
+            this.mIncludeTags = includeTags;
+            this.mIncludeHTML = includeHTML;
+        }
+
+
+        protected Pair<Boolean, String> task(@NonNull Collection col, @NonNull ProgressSenderAndCancelListener<Integer> collectionTask) {
+            Timber.d("doInBackgroundExportNotesAsText");
+            TextNoteExporter exporter = mDid == null ?
+                    new TextNoteExporter(col, mIncludeID, mIncludeTags, mIncludeHTML) :
+                    new TextNoteExporter(col, mDid, mIncludeID, mIncludeTags, mIncludeHTML);
+            try {
+                exporter.doExport(mPath, collectionTask);
+            } catch (IOException e) {
+                Timber.e(e, "IOException in doInBackgroundExportNotesAsText");
+                return new Pair<>(false, null);
+            } catch (CancellationException e) {
+                Timber.i("doInBackgroundExportNotesAsText cancelled");
+                return new Pair<>(false, null);
+            }
+            return new Pair<>(false, mPath);
+        }
+    }
+
+
+    /** Exports the cards of a deck, or of the collection, as text. The progress is the number of cards written. */
+    public static class ExportCardsAsText extends Task<Integer, Pair<Boolean, String>> {
+        private final String mPath;
+        private final @Nullable Long mDid;
+        private final boolean mIncludeHTML;
+
+
+        public ExportCardsAsText(String path, @Nullable Long did, boolean includeHTML) {
+            this.mPath = path;
+            this.mDid = did;
+            this.mIncludeHTML = includeHTML;
+        }
+
+
+        protected Pair<Boolean, String> task(@NonNull Collection col, @NonNull ProgressSenderAndCancelListener<Integer> collectionTask) {
+            Timber.d("doInBackgroundExportCardsAsText");
+            TextCardExporter exporter = mDid == null ?
+                    new TextCardExporter(col, mIncludeHTML) :
+                    new TextCardExporter(col, mDid, mIncludeHTML);
+            try {
+                exporter.doExport(mPath, collectionTask);
+            } catch (IOException e) {
+                Timber.e(e, "IOException in doInBackgroundExportCardsAsText");
+                return new Pair<>(false, null);
+            } catch (CancellationException e) {
+                Timber.i("doInBackgroundExportCardsAsText cancelled");
+                return new Pair<>(false, null);
+            }
+            return new Pair<>(false, mPath);
+        }
+    }
+
+
     public static class Reorder extends Task<Void, Boolean> {
         private final DeckConfig mConf;
 
@@ -1972,23 +2049,23 @@ public class CollectionTask<ProgressListener, ProgressBackground extends Progres
      * @return If there are unselected cards, if there are unmarked cards
      */
     public static class CheckCardSelection extends Task<Void, Pair<Boolean, Boolean>> {
-        private final CardBrowser.CardCollection<CardBrowser.CardCache> mCheckedCards;
+        private final List<Long> mCheckedCardIds;
 
 
-        public CheckCardSelection(CardBrowser.CardCollection<CardBrowser.CardCache> checkedCards) {
-            this.mCheckedCards = checkedCards;
+        public CheckCardSelection(List<Long> checkedCardIds) {
+            this.mCheckedCardIds = checkedCardIds;
         }
 
 
         protected @Nullable Pair<Boolean, Boolean> task(@NonNull Collection col, @NonNull ProgressSenderAndCancelListener<Void> collectionTask) {
             boolean hasUnsuspended = false;
             boolean hasUnmarked = false;
-            for (CardBrowser.CardCache c: mCheckedCards) {
+            for (long cardId : mCheckedCardIds) {
                 if (collectionTask.isCancelled()) {
                     Timber.v("doInBackgroundCheckCardSelection: cancelled.");
                     return null;
                 }
-                Card card = c.getCard();
+                Card card = col.getCard(cardId);
                 hasUnsuspended = hasUnsuspended || card.getQueue() != Consts.QUEUE_TYPE_SUSPENDED;
                 hasUnmarked = hasUnmarked || !card.note().hasTag("marked");
                 if (hasUnsuspended && hasUnmarked)
@@ -564,6 +564,11 @@ public class Connection extends BaseAsyncTask<Connection.Payload, Object, Connec
         super.publishProgress(id, up, down);
     }
 
+
+    public void publishProgress(String message, long up, long down) {
+        super.publishProgress(message, up, down);
+    }
+
     @SuppressWarnings("deprecation")
     public static boolean isOnline() {
         if (sAllowSyncOnNoConnection) {
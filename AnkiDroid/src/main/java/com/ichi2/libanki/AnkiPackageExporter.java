@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import com.ichi2.anki.CollectionHelper;
 import com.ichi2.anki.R;
 import com.ichi2.anki.exception.ImportExportException;
+import com.ichi2.async.ProgressSenderAndCancelListener;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
@@ -30,6 +31,7 @@ import com.ichi2.utils.StringUtil;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -37,20 +39,50 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 import static com.ichi2.utils.CollectionUtils.addAll;
 
 class Exporter {
+    /** Size of the buffers of the text exports */
+    private static final int BUFFER_SIZE = 65536;
+    /** Number of notes exported as text between progress updates */
+    protected static final int PROGRESS_INTERVAL = 1000;
+
+    private static final Pattern LINE_BREAK_PATTERN = Pattern.compile("(?i)<(br ?/?|div|p)>");
+    private static final Pattern SOUND_PATTERN = Pattern.compile("\\[sound:[^]]+\\]");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[ \\n\\t]+");
+    private static final Pattern STYLE_PATTERN = Pattern.compile("(?i)<style>.*?</style>");
+    private static final Pattern TYPE_PATTERN = Pattern.compile("\\[\\[type:[^]]+\\]\\]");
+
     @NonNull
     protected final Collection mCol;
     /**
@@ -101,6 +133,58 @@ class Exporter {
     }
 
 
+    /**
+     * @return The condition on the cards c to export, "1" if all cards are exported
+     */
+    @NonNull
+    protected String cardLimit() {
+        if (mDid == null) {
+            return "1";
+        }
+        java.util.Collection<Long> children = mCol.getDecks().children(mDid).values();
+        List<Long> dids = new ArrayList<>(children.size() + 1);
+        dids.add(mDid);
+        dids.addAll(children);
+        return "c.did in " + Utils.ids2str(dids);
+    }
+
+
+    /**
+     * A writer to path through a buffered channel, so that large exports are written while they are produced
+     * instead of being built in memory.
+     */
+    @NonNull
+    protected static Writer openTextWriter(@NonNull String path) throws FileNotFoundException {
+        FileChannel channel = new FileOutputStream(path).getChannel();
+        return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+
+    /**
+     * Sends the number of notes or cards exported as text so far, after a batch of them was written.
+     *
+     * @return Whether the export was cancelled. It must then close its writer, and throw
+     *         {@link #cancelledExport(String)}.
+     */
+    protected static boolean onBatchExported(@Nullable ProgressSenderAndCancelListener<Integer> task, int done) {
+        if (task == null) {
+            return false;
+        }
+        task.doProgress(done);
+        return task.isCancelled();
+    }
+
+
+    /** Deletes the partial file of a cancelled text export, whose writer is closed. */
+    @NonNull
+    protected static CancellationException cancelledExport(@NonNull String path) {
+        if (!new File(path).delete()) {
+            Timber.w("Failed to delete the cancelled export %s", path);
+        }
+        return new CancellationException("Text export cancelled");
+    }
+
+
     @NonNull
     protected String processText(@NonNull String text) {
         if (!mIncludeHTML) {
@@ -118,15 +202,22 @@ class Exporter {
      */
     @NonNull
     protected String escapeText(@NonNull String text) {
-        //pylib:fixme: we should probably quote fields with newlines instead of converting them to spaces
-        text = text.replace("\\n", " ");
-        text = text.replace("\\r", "");
-
-        //pylib: text = text.replace("\t", " " * 8)
-        text = text.replace("\\t", "        "/*8 spaced*/);
+        // Most fields contain none of the escaped sequences, so they are only searched when present
+        if (text.indexOf('\\') >= 0) {
+            //pylib:fixme: we should probably quote fields with newlines instead of converting them to spaces
+            text = text.replace("\\n", " ");
+            text = text.replace("\\r", "");
+
+            //pylib: text = text.replace("\t", " " * 8)
+            text = text.replace("\\t", "        "/*8 spaced*/);
+        }
 
-        text = text.replaceAll("(?i)<style>.*?</style>", "");
-        text = text.replaceAll("\\[\\[type:[^]]+\\]\\]", "");
+        if (text.indexOf('<') >= 0) {
+            text = STYLE_PATTERN.matcher(text).replaceAll("");
+        }
+        if (text.contains("[[type:")) {
+            text = TYPE_PATTERN.matcher(text).replaceAll("");
+        }
 
         if (text.contains("\"")) {
             text = '"' + text.replace("\"", "\"\"") + "\"";
@@ -141,14 +232,47 @@ class Exporter {
      */
     @NonNull
     protected String stripHTML(@NonNull String text) {
+        if (isStrippedText(text)) {
+            return text;
+        }
         String s = text;
-        s = s.replaceAll("(?i)<(br ?/?|div|p)>", " ");
-        s = s.replaceAll("\\[sound:[^]]+\\]", "");
-        s = Utils.stripHTML(s);
-        s = s.replaceAll("[ \\n\\t]+", " ");
+        if (s.indexOf('<') >= 0) {
+            s = LINE_BREAK_PATTERN.matcher(s).replaceAll(" ");
+        }
+        if (s.indexOf('[') >= 0) {
+            s = SOUND_PATTERN.matcher(s).replaceAll("");
+        }
+        if (s.indexOf('<') >= 0 || s.indexOf('&') >= 0) {
+            s = Utils.stripHTML(s);
+        }
+        s = WHITESPACE_PATTERN.matcher(s).replaceAll(" ");
         s = StringUtil.strip(s);
         return s;
     }
+
+
+    /**
+     * @return Whether stripHTML would return text unchanged: no tag, entity or sound, no whitespace to collapse and
+     * nothing to strip. Checked without allocating, as it is the case of most fields.
+     */
+    private static boolean isStrippedText(@NonNull String text) {
+        int length = text.length();
+        if (length == 0) {
+            return true;
+        }
+        if (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(length - 1))) {
+            return false;
+        }
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '&' || c == '[' || c == '\n' || c == '\t' || (c == ' ' && previous == ' ')) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
 }
 
 
@@ -442,6 +566,7 @@ public final class AnkiPackageExporter extends AnkiExporter {
             media = exportFiltered(z, path, context);
         }
         // media map
+        z.finishMedia();
         z.writeStr("media", Utils.jsonToString(media));
         z.close();
     }
@@ -486,13 +611,12 @@ public final class AnkiPackageExporter extends AnkiExporter {
         int c = 0;
         JSONObject media = new JSONObject();
         for (File file : files) {
-            // todo: deflate SVG files, as in dae/anki@a5b0852360b132c0d04094f5ca8f1933f64d7c7e
             if (validateFiles == ValidateFiles.VALIDATE && !file.exists()) {
                 // Anki 2.1.30 does the same
                 Timber.d("Skipping missing file %s", file);
                 continue;
             }
-            z.write(file.getPath(), Integer.toString(c));
+            z.writeMedia(file, Integer.toString(c));
             try {
                 media.put(Integer.toString(c), file.getName());
                 c++;
@@ -565,16 +689,36 @@ public final class AnkiPackageExporter extends AnkiExporter {
 
 /**
  * Wrapper around standard Python zip class used in this module for exporting to APKG
- * 
+ * <p>
+ * Media files whose format is already compressed are stored as they are. Other media files are deflated in parallel,
+ * each thread into its own temporary file next to the archive, and copied into the archive by {@link #finishMedia()}.
+ *
  * @author Tim
  */
 class ZipFile {
-    private static final int BUFFER_SIZE = 1024;
-    private ZipArchiveOutputStream mZos;
+    private static final int BUFFER_SIZE = 65536;
+    /** Extensions of formats which don't get smaller when deflated */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "ogg", "oga", "opus", "m4a", "aac", "flac",
+            "mp4", "m4v", "webm", "mkv", "mov", "avi", "3gp",
+            "zip", "gz", "7z", "pdf"));
+
+    private final ZipArchiveOutputStream mZos;
+    private final File mDir;
+    @Nullable
+    private ExecutorService mExecutor;
+    @Nullable
+    private ParallelScatterZipCreator mScatter;
+    /** Temporary files of the media being deflated, with their store. Removed by {@link #close()}. */
+    private final Map<File, FileBasedScatterGatherBackingStore> mScatterStores = new HashMap<>();
 
 
-    public ZipFile(String path) throws FileNotFoundException {
-        mZos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+    public ZipFile(String path) throws IOException {
+        File file = new File(path);
+        // seekable, so that stored entries can be written without knowing their size and CRC in advance
+        mZos = new ZipArchiveOutputStream(file);
+        mDir = file.getAbsoluteFile().getParentFile();
     }
 
 
@@ -594,6 +738,75 @@ class ZipFile {
     }
 
 
+    /**
+     * Adds a media file. Compressed formats are written immediately, other files are only written by
+     * {@link #finishMedia()}.
+     */
+    public void writeMedia(File file, String entry) throws IOException {
+        ZipArchiveEntry ze = new ZipArchiveEntry(entry);
+        if (isCompressed(file.getName())) {
+            ze.setMethod(ZipEntry.STORED);
+            writeEntry(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), ze);
+            return;
+        }
+        ze.setMethod(ZipEntry.DEFLATED);
+        getScatter().addArchiveEntry(ze, () -> {
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+
+    /** Waits for the media files being deflated, and writes them to the archive */
+    public void finishMedia() throws IOException {
+        if (mScatter == null) {
+            return;
+        }
+        try {
+            // also shuts the executor down
+            mScatter.writeTo(mZos);
+            closeScatterStores();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException && e.getCause().getCause() instanceof IOException) {
+                throw (IOException) e.getCause().getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            mScatter = null;
+        }
+    }
+
+
+    @VisibleForTesting
+    static boolean isCompressed(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+
+    private ParallelScatterZipCreator getScatter() {
+        if (mScatter == null) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            // on the same storage as the archive, rather than in the cache folder
+            mScatter = new ParallelScatterZipCreator(mExecutor, () -> {
+                File tmp = File.createTempFile("parallelscatter", ".tmp", mDir);
+                FileBasedScatterGatherBackingStore store = new FileBasedScatterGatherBackingStore(tmp);
+                synchronized (mScatterStores) {
+                    mScatterStores.put(tmp, store);
+                }
+                return store;
+            });
+        }
+        return mScatter;
+    }
+
+
     private void writeEntry(BufferedInputStream bis, ZipArchiveEntry ze) throws IOException {
         byte[] buf = new byte[BUFFER_SIZE];
         mZos.putArchiveEntry(ze);
@@ -606,11 +819,44 @@ class ZipFile {
     }
 
 
+    /** Closes each temporary file of the deflated media and deletes it, even if closing another one failed */
+    private void closeScatterStores() {
+        synchronized (mScatterStores) {
+            for (Map.Entry<File, FileBasedScatterGatherBackingStore> entry : mScatterStores.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    Timber.w(e, "Failed to close %s", entry.getKey());
+                } finally {
+                    if (entry.getKey().exists() && !entry.getKey().delete()) {
+                        Timber.w("Failed to delete %s", entry.getKey());
+                    }
+                }
+            }
+            mScatterStores.clear();
+        }
+    }
+
+
     public void close() {
         try {
-            mZos.close();
-        } catch (IOException e) {
-            Timber.w(e);
+            if (mExecutor != null) {
+                // the export failed before the media were written
+                mExecutor.shutdownNow();
+                // the workers must stop writing to the temporary files before they are deleted
+                if (!mExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    Timber.w("Media compression did not stop");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeScatterStores();
+            try {
+                mZos.close();
+            } catch (IOException e) {
+                Timber.w(e);
+            }
         }
     }
 }
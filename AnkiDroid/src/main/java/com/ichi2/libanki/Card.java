@@ -80,6 +80,10 @@ public class Card implements Cloneable {
 
     public static final int TYPE_REV = 2;
 
+    /** The columns of the cards table aliased as c, in the order of the table */
+    public static final String COLUMNS = "c.id, c.nid, c.did, c.ord, c.mod, c.usn, c.type, c.queue, c.due, c.ivl, " +
+            "c.factor, c.reps, c.lapses, c.left, c.odue, c.odid, c.flags, c.data";
+
     private Collection mCol;
     // When timer was started, in MS
     private long mTimerStarted;
@@ -152,30 +156,45 @@ public class Card implements Cloneable {
     }
 
 
+    /**
+     * A card from a query whose first columns are {@link #COLUMNS}. Not in libAnki.
+     */
+    public Card(@NonNull Collection col, @NonNull Cursor cursor) {
+        mCol = col;
+        mTimerStarted = 0L;
+        load(cursor);
+    }
+
+
     public void load() {
         try (Cursor cursor = mCol.getDb().query("SELECT * FROM cards WHERE id = ?", mId)) {
             if (!cursor.moveToFirst()) {
                 throw new WrongId(mId, "card");
             }
-            mId = cursor.getLong(0);
-            mNid = cursor.getLong(1);
-            mDid = cursor.getLong(2);
-            mOrd = cursor.getInt(3);
-            mMod = cursor.getLong(4);
-            mUsn = cursor.getInt(5);
-            mType = cursor.getInt(6);
-            mQueue = cursor.getInt(7);
-            mDue = cursor.getInt(8);
-            mIvl = cursor.getInt(9);
-            mFactor = cursor.getInt(10);
-            mReps = cursor.getInt(11);
-            mLapses = cursor.getInt(12);
-            mLeft = cursor.getInt(13);
-            mODue = cursor.getLong(14);
-            mODid = cursor.getLong(15);
-            mFlags = cursor.getInt(16);
-            mData = cursor.getString(17);
+            load(cursor);
         }
+    }
+
+
+    private void load(@NonNull Cursor cursor) {
+        mId = cursor.getLong(0);
+        mNid = cursor.getLong(1);
+        mDid = cursor.getLong(2);
+        mOrd = cursor.getInt(3);
+        mMod = cursor.getLong(4);
+        mUsn = cursor.getInt(5);
+        mType = cursor.getInt(6);
+        mQueue = cursor.getInt(7);
+        mDue = cursor.getInt(8);
+        mIvl = cursor.getInt(9);
+        mFactor = cursor.getInt(10);
+        mReps = cursor.getInt(11);
+        mLapses = cursor.getInt(12);
+        mLeft = cursor.getInt(13);
+        mODue = cursor.getLong(14);
+        mODid = cursor.getLong(15);
+        mFlags = cursor.getInt(16);
+        mData = cursor.getString(17);
         mQA = null;
         mNote = null;
     }
@@ -288,22 +307,46 @@ public class Card implements Cloneable {
 
     public HashMap<String, String> _getQA(boolean reload, boolean browser) {
         if (mQA == null || reload) {
-            Note f = note(reload);
-            Model m = model();
-            JSONObject t = template();
-            long did = isInDynamicDeck() ? mODid : mDid;
-            if (browser) {
-                String bqfmt = t.getString("bqfmt");
-                String bafmt = t.getString("bafmt");
-                mQA = mCol._renderQA(mId, m, did, mOrd, f.stringTags(), f.getFields(), mFlags, browser, bqfmt, bafmt);
-            } else {
-                mQA = mCol._renderQA(mId, m, did, mOrd, f.stringTags(), f.getFields(), mFlags);
-            }
+            mQA = mCol._renderQA(_renderRequest(reload, browser));
         }
         return mQA;
     }
 
 
+    /**
+     * @return What the collection renders this card from, as {@link #_getQA(boolean, boolean)} does
+     */
+    public Collection.RenderRequest _renderRequest(boolean reload, boolean browser) {
+        Note f = note(reload);
+        Model m = model();
+        JSONObject t = template();
+        long did = isInDynamicDeck() ? mODid : mDid;
+        if (browser) {
+            String bqfmt = t.getString("bqfmt");
+            String bafmt = t.getString("bafmt");
+            return new Collection.RenderRequest(mId, m, did, mOrd, f.stringTags(), f.getFields(), mFlags, browser, bqfmt, bafmt);
+        } else {
+            return new Collection.RenderRequest(mId, m, did, mOrd, f.stringTags(), f.getFields(), mFlags);
+        }
+    }
+
+
+    /**
+     * Renders the cards together, on several threads, as {@link #_getQA(boolean, boolean)} with reload would.
+     * Their question and answer are then read without rendering them again.
+     */
+    public static void loadQA(@NonNull Collection col, @NonNull List<Card> cards, boolean browser) {
+        List<Collection.RenderRequest> requests = new ArrayList<>(cards.size());
+        for (Card card : cards) {
+            requests.add(card._renderRequest(true, browser));
+        }
+        List<HashMap<String, String>> rendered = col.renderQA(requests);
+        for (int i = 0; i < cards.size(); i++) {
+            cards.get(i).mQA = rendered.get(i);
+        }
+    }
+
+
     public Note note() {
         return note(false);
     }
@@ -801,6 +844,11 @@ public class Card implements Cloneable {
             return mCard;
         }
 
+        /** Sets the card, when it was loaded with others. Not in libAnki. */
+        protected synchronized void setCard(@NonNull Card card) {
+            mCard = card;
+        }
+
         /** Next access to card will reload the card from the database. */
         public synchronized void reload() {
             mCard = null;
@@ -54,6 +54,7 @@ import com.ichi2.utils.VersionUtils;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONException;
 import com.ichi2.utils.JSONObject;
+import com.ichi2.utils.LongArrayList;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -72,7 +73,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -106,6 +113,12 @@ public class Collection implements CollectionGetter {
     private final Decks mDecks;
     private Models mModels;
     private final Tags mTags;
+    private final NoteSearchIndex mSearchIndex;
+    private final SearchQueryCache mSearchQueryCache = new SearchQueryCache();
+    private final RegistryChanges mRegistryChanges = new RegistryChanges(this);
+    /** Threads rendering batches of cards, created when first needed and shut down when the collection is closed */
+    @Nullable
+    private ThreadPoolExecutor mRenderPool;
 
     private AbstractSched mSched;
 
@@ -153,6 +166,14 @@ public class Collection implements CollectionGetter {
 
     private static final int UNDO_SIZE_MAX = 20;
 
+    /** Number of notes whose missing cards are inserted in one transaction by genCards */
+    private static final int GEN_CARDS_BATCH_SIZE = 1000;
+
+    /** Threads rendering batches of cards: as many as cores, but a few at most */
+    private static final int RENDER_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+    /** How long a render thread is kept when idle */
+    private static final long RENDER_THREAD_KEEP_ALIVE_S = 30;
+
     @VisibleForTesting
     public Collection(Context context, DB db, String path, boolean server, boolean log, @NonNull Time time, @NonNull DroidBackend droidBackend) {
         mContext = context;
@@ -169,7 +190,11 @@ public class Collection implements CollectionGetter {
         mMedia = new Media(this, server);
         mDecks = new Decks(this);
         mTags = new Tags(this);
+        mSearchIndex = new NoteSearchIndex(this);
         load();
+        if (!server) {
+            mSearchIndex.open();
+        }
         if (mCrt == 0) {
             mCrt = UIUtils.getDayStart(getTime()) / 1000;
         }
@@ -393,13 +418,59 @@ public class Collection implements CollectionGetter {
 
 
     public synchronized void save(String name, long mod) {
+        save(name, mod, mRegistryChanges.isDue());
+    }
+
+
+    /**
+     * Saves the collection, with the decks, deck options and note types which changed written to the col table rather
+     * than to {@link RegistryChanges}, so that a copy of the collection file is complete. Done on close and before a
+     * backup.
+     */
+    public synchronized void foldRegistryChanges() {
+        save(null, 0, !mRegistryChanges.isEmpty());
+        // may be left empty by a save of the whole registries
+        mRegistryChanges.drop();
+    }
+
+
+    /**
+     * Folds the registry changes which were written to the database into the col table, without saving the changes
+     * which were only made in memory. Done when the collection is closed without saving.
+     */
+    private void foldWrittenRegistryChanges() {
+        if (!mRegistryChanges.isEmpty()) {
+            // reloaded from the database, so that what was not saved is left out
+            mModels = null;
+            getModels().foldChanges();
+            getModels().flush();
+            mDecks.load(loadColumn("decks"), loadColumn("dconf"));
+            mDecks.foldChanges();
+            mDecks.flush();
+        }
+        mRegistryChanges.drop();
+    }
+
+
+    /**
+     * @param fold Whether to fold the registry changes into the col table, see {@link RegistryChanges}
+     */
+    private void save(String name, long mod, boolean fold) {
+        if (fold) {
+            getModels().foldChanges();
+            mDecks.foldChanges();
+        }
         // let the managers conditionally flush
         getModels().flush();
         mDecks.flush();
         mTags.flush();
+        if (fold) {
+            mRegistryChanges.drop();
+        }
         // and flush deck + bump mod if db has been changed
         if (mDb.getMod()) {
             flush(mod);
+            mSearchIndex.onSave(mMod);
             mDb.commit();
             mDb.setMod(false);
         }
@@ -421,9 +492,12 @@ public class Collection implements CollectionGetter {
             try {
                 SupportSQLiteDatabase db = mDb.getDatabase();
                 if (save) {
-                    mDb.executeInTransaction(this::save);
+                    // other clients only read the JSON of the col table
+                    mDb.executeInTransaction(this::foldRegistryChanges);
                 } else {
                     DB.safeEndInTransaction(db);
+                    // the changes which were already written must still reach the col table
+                    foldWrittenRegistryChanges();
                 }
             } catch (RuntimeException e) {
                 Timber.w(e);
@@ -436,16 +510,27 @@ public class Collection implements CollectionGetter {
             mDb = null;
             mMedia.close();
             _closeLog();
+            shutdownRenderPool();
             Timber.i("Collection closed");
         }
     }
 
 
+    /** Lets the render threads finish their cards and stop; a pool is created again if the collection is reopened */
+    private synchronized void shutdownRenderPool() {
+        if (mRenderPool != null) {
+            mRenderPool.shutdown();
+            mRenderPool = null;
+        }
+    }
+
+
     public void reopen() {
         Timber.i("Reopening Database");
         if (mDb == null) {
             mDb = mDroidBackend.openCollectionDatabase(mPath);
             mMedia.connect();
+            mSearchIndex.open();
             _openLog();
         }
     }
@@ -509,6 +594,8 @@ public class Collection implements CollectionGetter {
         mDecks.beforeUpload();
         modSchemaNoCheck();
         mLs = mScm;
+        // so that the space of the changes table is reclaimed
+        foldRegistryChanges();
         Timber.i("Compacting database before full upload");
         // ensure db is compacted before upload
         mDb.execute("vacuum");
@@ -676,6 +763,7 @@ public class Collection implements CollectionGetter {
         // more card templates
         _logRem(ids, Consts.REM_NOTE);
         mDb.execute("DELETE FROM notes WHERE id IN " + strids);
+        mSearchIndex.removeNotes(strids);
     }
 
 
@@ -767,125 +855,144 @@ public class Collection implements CollectionGetter {
     }
 
     /**
+     * Notes are read along with their cards, so that the notes and cards of a large note type are never all in memory.
+     * The missing cards are inserted through one statement, in a transaction for each {@link #GEN_CARDS_BATCH_SIZE}
+     * notes. Cards inserted before a cancellation are kept, they are cards the notes should have.
+     *
      * @param snids All ids of nodes of a note type, separated by comma
      * @param model
-     * @param task Task to check for cancellation and update number of card processed
+     * @param task Task to check for cancellation and to which is sent the number of existing cards processed
      * @return Cards that should be removed because they should not be generated
      * @param <T>
      */
     public <T extends ProgressSender<Integer> & CancelListener> ArrayList<Long> genCards(String snids, @NonNull Model model, @Nullable T task) {
-        int nbCount = noteCount();
-        // For each note, indicates ords of cards it contains
-        HashMap<Long, HashMap<Integer, Long>> have = new HashMap<>(nbCount);
-        // For each note, the deck containing all of its cards, or 0 if siblings in multiple deck
-        HashMap<Long, Long> dids = new HashMap<>(nbCount);
-        // For each note, an arbitrary due of one of its due card processed, if any exists
-        HashMap<Long, Long> dues = new HashMap<>(nbCount);
+        // what is known of the note type is computed once, instead of once by note
+        boolean isCloze = model.isCloze();
         List<ParsedNode> nodes = null;
-        if (model.getInt("type") != Consts.MODEL_CLOZE) {
+        List<String> fieldNames = null;
+        List<Integer> clozeFieldOrds = null;
+        if (isCloze) {
+            clozeFieldOrds = Models.clozeFieldOrds(model);
+        } else {
             nodes = model.parsedNodes();
+            fieldNames = model.getFieldsNames();
         }
-        try (Cursor cur = mDb.query("select id, nid, ord, (CASE WHEN odid != 0 THEN odid ELSE did END), (CASE WHEN odid != 0 THEN odue ELSE due END), type from cards where nid in " + snids)) {
-            while (cur.moveToNext()) {
-                if (isCancelled(task)) {
-                    Timber.v("Empty card cancelled");
-                    return null;
-                }
-                @NonNull Long id = cur.getLong(0);
-                @NonNull Long nid = cur.getLong(1);
-                @NonNull Integer ord = cur.getInt(2);
-                @NonNull Long did = cur.getLong(3);
-                @NonNull Long due = cur.getLong(4);
-                @Consts.CARD_TYPE int type = cur.getInt(5);
-
-                // existing cards
-                if (!have.containsKey(nid)) {
-                    have.put(nid, new HashMap<>());
-                }
-                have.get(nid).put(ord, id);
-                // and their dids
-                if (dids.containsKey(nid)) {
-                    if (dids.get(nid) != 0 && !Utils.equals(dids.get(nid), did)) {
-                        // cards are in two or more different decks; revert to model default
-                        dids.put(nid, 0L);
-                    }
-                } else {
-                    // first card or multiple cards in same deck
-                    dids.put(nid, did);
-                }
-                if (!dues.containsKey(nid) && type == Consts.CARD_TYPE_NEW) {
-                    dues.put(nid, due);
-                }
-            }
+        // Deck override of each template. Cards of a cloze note type are generated from the first template.
+        JSONArray tmpls = model.getJSONArray("tmpls");
+        long[] tmplDids = new long[tmpls.length()];
+        for (int i = 0; i < tmplDids.length; i++) {
+            tmplDids[i] = tmpls.getJSONObject(i).optLong("did", 0);
         }
-        // build cards for each note
-        ArrayList<Object[]> data = new ArrayList<>();
+        long modelDid = model.getLong("did");
+
+        ArrayList<Long> rem = new ArrayList<>();
         long ts = getTime().maxID(mDb);
         long now = getTime().intTime();
-        ArrayList<Long> rem = new ArrayList<>(mDb.queryScalar("SELECT count() FROM notes where id in " + snids));
         int usn = usn();
-        try (Cursor cur = mDb.query("SELECT id, flds FROM notes WHERE id IN " + snids)) {
-            while (cur.moveToNext()) {
-                if (isCancelled(task)) {
-                    Timber.v("Empty card cancelled");
-                    return null;
-                }
-                @NonNull Long nid = cur.getLong(0);
-                String flds = cur.getString(1);
-                ArrayList<Integer> avail = Models.availOrds(model, Utils.splitFields(flds), nodes, Models.AllowEmpty.TRUE);
-                if (task != null) {
-                    task.doProgress(avail.size());
-                }
-                Long did = dids.get(nid);
-                // use sibling due if there is one, else use a new id
-                @NonNull Long due;
-                if (dues.containsKey(nid)) {
-                    due = dues.get(nid);
-                } else {
-                    due = (long) nextID("pos");
-                }
-                if (did == null || did == 0L) {
-                    did = model.getLong("did");
-                }
-                // add any missing cards
-                ArrayList<JSONObject> tmpls = _tmplsFromOrds(model, avail);
-                for (JSONObject t : tmpls) {
-                    int tord = t.getInt("ord");
-                    boolean doHave = have.containsKey(nid) && have.get(nid).containsKey(tord);
-                    if (!doHave) {
-                        // check deck is not a cram deck
-                        long ndid;
-                        try {
-                            ndid = t.getLong("did");
+        SupportSQLiteDatabase db = mDb.getDatabase();
+        try (Cursor notes = mDb.query("SELECT id, flds FROM notes WHERE id IN " + snids + " ORDER BY id");
+             Cursor cards = mDb.query("select nid, id, ord, (CASE WHEN odid != 0 THEN odid ELSE did END), (CASE WHEN odid != 0 THEN odue ELSE due END), type from cards where nid in " + snids + " order by nid");
+             SupportSQLiteStatement insert = db.compileStatement("INSERT INTO cards VALUES (?,?,?,?,?,?,0,0,?,0,0,0,0,0,0,0,0,\"\")")) {
+            boolean moreNotes = notes.moveToNext();
+            boolean moreCards = cards.moveToNext();
+            boolean cancelled = false;
+            // For the current note, ords of cards it contains
+            HashMap<Integer, Long> have = new HashMap<>();
+            while (moreNotes && !cancelled) {
+                int processedCards = 0;
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < GEN_CARDS_BATCH_SIZE && moreNotes; i++) {
+                        if (isCancelled(task)) {
+                            Timber.v("Empty card cancelled");
+                            cancelled = true;
+                            break;
+                        }
+                        long nid = notes.getLong(0);
+                        // existing cards, skipping those whose note is missing
+                        have.clear();
+                        // the deck containing all of the note's cards, or 0 if siblings in multiple deck
+                        long did = -1;
+                        // an arbitrary due of one of its new cards, if any exists
+                        Long due = null;
+                        while (moreCards && cards.getLong(0) < nid) {
+                            moreCards = cards.moveToNext();
+                        }
+                        while (moreCards && cards.getLong(0) == nid) {
+                            have.put(cards.getInt(2), cards.getLong(1));
+                            long cardDid = cards.getLong(3);
+                            if (did == -1) {
+                                // first card
+                                did = cardDid;
+                            } else if (did != 0 && did != cardDid) {
+                                // cards are in two or more different decks; revert to model default
+                                did = 0;
+                            }
+                            if (due == null && cards.getInt(5) == Consts.CARD_TYPE_NEW) {
+                                due = cards.getLong(4);
+                            }
+                            processedCards++;
+                            moreCards = cards.moveToNext();
+                        }
+
+                        String[] flds = Utils.splitFields(notes.getString(1));
+                        ArrayList<Integer> avail = isCloze ?
+                                Models._availClozeOrds(clozeFieldOrds, flds, true) :
+                                Models._availStandardOrds(Model.nonEmptyFields(fieldNames, flds), nodes, true);
+                        // use sibling due if there is one, else use a new id
+                        if (due == null) {
+                            due = (long) nextID("pos");
+                        }
+                        if (did <= 0) {
+                            did = modelDid;
+                        }
+                        // add any missing cards
+                        for (int tord : avail) {
+                            if (have.containsKey(tord)) {
+                                continue;
+                            }
+                            // check deck is not a cram deck
+                            long ndid = tmplDids[isCloze ? 0 : tord];
                             if (ndid != 0) {
                                 did = ndid;
                             }
-                        } catch (JSONException e) {
-                            Timber.w(e);
-                            // do nothing
+                            if (getDecks().isDyn(did)) {
+                                did = 1L;
+                            }
+                            // if the deck doesn't exist, use default instead
+                            did = mDecks.get(did).getLong("id");
+                            // give it a new id instead
+                            insert.bindLong(1, ts);
+                            insert.bindLong(2, nid);
+                            insert.bindLong(3, did);
+                            insert.bindLong(4, tord);
+                            insert.bindLong(5, now);
+                            insert.bindLong(6, usn);
+                            insert.bindLong(7, due);
+                            insert.executeInsert();
+                            ts += 1;
                         }
-                        if (getDecks().isDyn(did)) {
-                            did = 1L;
+                        // note any cards that need removing
+                        for (Map.Entry<Integer, Long> n : have.entrySet()) {
+                            if (!avail.contains(n.getKey())) {
+                                rem.add(n.getValue());
+                            }
                         }
-                        // if the deck doesn't exist, use default instead
-                        did = mDecks.get(did).getLong("id");
-                        // give it a new id instead
-                        data.add(new Object[] { ts, nid, did, tord, now, usn, due});
-                        ts += 1;
+                        moreNotes = notes.moveToNext();
                     }
+                    db.setTransactionSuccessful();
+                } finally {
+                    DB.safeEndInTransaction(db);
                 }
-                // note any cards that need removing
-                if (have.containsKey(nid)) {
-                    for (Map.Entry<Integer, Long> n : have.get(nid).entrySet()) {
-                        if (!avail.contains(n.getKey())) {
-                            rem.add(n.getValue());
-                        }
-                    }
+                mDb.markModified();
+                if (task != null && processedCards > 0) {
+                    task.doProgress(processedCards);
                 }
             }
+            if (cancelled) {
+                return null;
+            }
         }
-        // bulk update
-        mDb.executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,0,0,?,0,0,0,0,0,0,0,0,\"\")", data);
         return rem;
     }
 
@@ -1084,6 +1191,8 @@ public class Collection implements CollectionGetter {
         }
         // apply, relying on calling code to bump usn+mod
         mDb.executeMany("UPDATE notes SET sfld=?, csum=? WHERE id=?", r);
+        // every bulk change of fields ends here: find&replace, sync, imports, note type changes
+        mSearchIndex.updateNotes(snids);
     }
 
 
@@ -1100,6 +1209,79 @@ public class Collection implements CollectionGetter {
 
 
     public HashMap<String, String> _renderQA(long cid, Model model, long did, int ord, String tags, String[] flist, int flags, boolean browser, String qfmt, String afmt) {
+        return _renderQA(new RenderRequest(cid, model, did, ord, tags, flist, flags, browser, qfmt, afmt));
+    }
+
+
+    public HashMap<String, String> _renderQA(@NonNull RenderRequest request) {
+        return _renderPreparedQA(_prepareQA(request), ChessFilter.isEnabled(mContext));
+    }
+
+
+    /**
+     * Renders the cards on several threads. Reading the collection and the preferences is done first, on the calling
+     * thread; rendering the templates with the fields of the cards only depends on them. Not in libanki.
+     *
+     * @return hash of id, question, answer of each card, in the order of the requests
+     */
+    public @NonNull List<HashMap<String, String>> renderQA(@NonNull List<RenderRequest> requests) {
+        List<PreparedQA> prepared = new ArrayList<>(requests.size());
+        for (RenderRequest request : requests) {
+            prepared.add(_prepareQA(request));
+        }
+        boolean convertFen = ChessFilter.isEnabled(mContext);
+        List<HashMap<String, String>> rendered = new ArrayList<>(requests.size());
+        if (prepared.size() < 2 || RENDER_THREADS < 2) {
+            for (PreparedQA qa : prepared) {
+                rendered.add(_renderPreparedQA(qa, convertFen));
+            }
+            return rendered;
+        }
+        ThreadPoolExecutor pool = getRenderPool();
+        List<Future<HashMap<String, String>>> futures = new ArrayList<>(prepared.size());
+        try {
+            for (PreparedQA qa : prepared) {
+                futures.add(pool.submit(() -> _renderPreparedQA(qa, convertFen)));
+            }
+            for (Future<HashMap<String, String>> future : futures) {
+                rendered.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // nothing left to do if everything was rendered
+            for (Future<HashMap<String, String>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return rendered;
+    }
+
+
+    private synchronized ThreadPoolExecutor getRenderPool() {
+        if (mRenderPool == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            mRenderPool = new ThreadPoolExecutor(RENDER_THREADS, RENDER_THREADS, RENDER_THREAD_KEEP_ALIVE_S,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "CardRenderer-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            // no thread is kept while nothing is rendered
+            mRenderPool.allowCoreThreadTimeOut(true);
+        }
+        return mRenderPool;
+    }
+
+
+    /** What rendering the card reads from the collection */
+    private PreparedQA _prepareQA(@NonNull RenderRequest request) {
+        Model model = request.mModel;
+        String[] flist = request.mFlist;
+        int ord = request.mOrd;
         // data is [cid, nid, mid, did, ord, tags, flds, cardFlags]
         // unpack fields and create dict
         Map<String, Pair<Integer, JSONObject>> fmap = Models.fieldMap(model);
@@ -1109,12 +1291,12 @@ public class Collection implements CollectionGetter {
             fields.put(entry.getKey(), flist[entry.getValue().first]);
         }
         int cardNum = ord + 1;
-        fields.put("Tags", tags.trim());
+        fields.put("Tags", request.mTags.trim());
         fields.put("Type", model.getString("name"));
-        fields.put("Deck", mDecks.name(did));
+        fields.put("Deck", mDecks.name(request.mDid));
         String baseName = Decks.basename(fields.get("Deck"));
         fields.put("Subdeck", baseName);
-        fields.put("CardFlag", _flagNameFromCardFlags(flags));
+        fields.put("CardFlag", _flagNameFromCardFlags(request.mFlags));
         JSONObject template;
         if (model.isStd()) {
             template = model.getJSONArray("tmpls").getJSONObject(ord);
@@ -1123,20 +1305,38 @@ public class Collection implements CollectionGetter {
         }
         fields.put("Card", template.getString("name"));
         fields.put(String.format(Locale.US, "c%d", cardNum), "1");
+        String qfmt = TextUtils.isEmpty(request.mQfmt) ? template.getString("qfmt") : request.mQfmt;
+        String afmt = TextUtils.isEmpty(request.mAfmt) ? template.getString("afmt") : request.mAfmt;
+        qfmt = fClozePatternQ.matcher(qfmt).replaceAll(String.format(Locale.US, "{{$1cq-%d:", cardNum));
+        qfmt = fClozeTagStart.matcher(qfmt).replaceAll(String.format(Locale.US, "<%%cq:%d:", cardNum));
+        afmt = fClozePatternA.matcher(afmt).replaceAll(String.format(Locale.US, "{{$1ca-%d:", cardNum));
+        afmt = fClozeTagStart.matcher(afmt).replaceAll(String.format(Locale.US, "<%%ca:%d:", cardNum));
+        // empty cloze?
+        String emptyClozeWarning = null;
+        if (model.isCloze() && Models._availClozeOrds(model, flist, false).size() == 0) {
+            String link = String.format("<a href=%s#cloze>%s</a>", Consts.HELP_SITE, "help");
+            emptyClozeWarning = mContext.getString(R.string.empty_cloze_warning, link);
+        }
+        return new PreparedQA(request, fields, qfmt, afmt, emptyClozeWarning);
+    }
+
+
+    /**
+     * Renders the card without reading the collection, so that cards can be rendered concurrently. Only reads the
+     * resources of the context, which is thread safe, and the media folder for LaTeX images.
+     *
+     * @param convertFen Whether FEN text is converted to a chessboard, see {@link ChessFilter#isEnabled(Context)}
+     */
+    private HashMap<String, String> _renderPreparedQA(@NonNull PreparedQA qa, boolean convertFen) {
+        Map<String, String> fields = qa.mFields;
+        Model model = qa.mRequest.mModel;
         // render q & a
         HashMap<String, String> d = new HashMap<>(2);
-        d.put("id", Long.toString(cid));
-        qfmt = TextUtils.isEmpty(qfmt) ? template.getString("qfmt") : qfmt;
-        afmt = TextUtils.isEmpty(afmt) ? template.getString("afmt") : afmt;
-        for (Pair<String, String> p : new Pair[]{new Pair<>("q", qfmt), new Pair<>("a", afmt)}) {
+        d.put("id", Long.toString(qa.mRequest.mCid));
+        for (Pair<String, String> p : new Pair[]{new Pair<>("q", qa.mQfmt), new Pair<>("a", qa.mAfmt)}) {
             String type = p.first;
             String format = p.second;
-            if ("q".equals(type)) {
-                format = fClozePatternQ.matcher(format).replaceAll(String.format(Locale.US, "{{$1cq-%d:", cardNum));
-                format = fClozeTagStart.matcher(format).replaceAll(String.format(Locale.US, "<%%cq:%d:", cardNum));
-            } else {
-                format = fClozePatternA.matcher(format).replaceAll(String.format(Locale.US, "{{$1ca-%d:", cardNum));
-                format = fClozeTagStart.matcher(format).replaceAll(String.format(Locale.US, "<%%ca:%d:", cardNum));
+            if ("a".equals(type)) {
                 // the following line differs from libanki // TODO: why?
                 fields.put("FrontSide", d.get("q")); // fields.put("FrontSide", mMedia.stripAudio(d.get("q")));
             }
@@ -1147,24 +1347,82 @@ public class Collection implements CollectionGetter {
                 Timber.w(er);
                 html = er.message(getContext());
             }
-            html = ChessFilter.fenToChessboard(html, getContext());
-            if (!browser) {
+            html = ChessFilter.fenToChessboard(html, convertFen);
+            if (!qa.mRequest.mBrowser) {
                 // browser don't show image. So compiling LaTeX actually remove information.
                 html = LaTeX.mungeQA(html, this, model);
             }
             d.put(type, html);
-            // empty cloze?
-            if ("q".equals(type) && model.isCloze()) {
-                if (Models._availClozeOrds(model, flist, false).size() == 0) {
-                    String link = String.format("<a href=%s#cloze>%s</a>", Consts.HELP_SITE, "help");
-                    d.put("q", mContext.getString(R.string.empty_cloze_warning, link));
-                }
+            if ("q".equals(type) && qa.mEmptyClozeWarning != null) {
+                d.put("q", qa.mEmptyClozeWarning);
             }
         }
         return d;
     }
 
 
+    /** A card to render: the fields and tags of its note, and the template of the card. Not in libanki. */
+    public static class RenderRequest {
+        private final long mCid;
+        private final Model mModel;
+        private final long mDid;
+        private final int mOrd;
+        private final String mTags;
+        private final String[] mFlist;
+        private final int mFlags;
+        private final boolean mBrowser;
+        @Nullable
+        private final String mQfmt;
+        @Nullable
+        private final String mAfmt;
+
+
+        public RenderRequest(long cid, Model model, long did, int ord, String tags, String[] flist, int flags) {
+            this(cid, model, did, ord, tags, flist, flags, false, null, null);
+        }
+
+
+        /**
+         * @param browser Whether the card is rendered for the browser, which doesn't compile LaTeX
+         * @param qfmt Question format to use instead of the template's, if not empty
+         * @param afmt Answer format to use instead of the template's, if not empty
+         */
+        public RenderRequest(long cid, Model model, long did, int ord, String tags, String[] flist, int flags, boolean browser, @Nullable String qfmt, @Nullable String afmt) {
+            mCid = cid;
+            mModel = model;
+            mDid = did;
+            mOrd = ord;
+            mTags = tags;
+            mFlist = flist;
+            mFlags = flags;
+            mBrowser = browser;
+            mQfmt = qfmt;
+            mAfmt = afmt;
+        }
+    }
+
+
+    /** A card with the fields and formats it is rendered with */
+    private static class PreparedQA {
+        private final RenderRequest mRequest;
+        private final Map<String, String> mFields;
+        private final String mQfmt;
+        private final String mAfmt;
+        /** Shown as the question of a cloze without any cloze for the card, null otherwise */
+        @Nullable
+        private final String mEmptyClozeWarning;
+
+
+        private PreparedQA(RenderRequest request, Map<String, String> fields, String qfmt, String afmt, @Nullable String emptyClozeWarning) {
+            mRequest = request;
+            mFields = fields;
+            mQfmt = qfmt;
+            mAfmt = afmt;
+            mEmptyClozeWarning = emptyClozeWarning;
+        }
+    }
+
+
     /**
      * Return [cid, nid, mid, did, ord, tags, flds, flags] db query
      */
@@ -1211,11 +1469,12 @@ public class Collection implements CollectionGetter {
     }
 
     public List<Long> findCards(String search, boolean order) {
-        return findCards(search, order, null);
+        return new Finder(this).findCards(search, order);
     }
 
-    public List<Long> findCards(String search, boolean order, CollectionTask.PartialSearch task) {
-        return new Finder(this).findCards(search, order, task);
+    /** Card ids, unboxed, as the browser may find a lot of them. Not in LibAnki. */
+    public LongArrayList findCardIds(String search, boolean order, CollectionTask.PartialSearch task) {
+        return new Finder(this).findCardIds(search, order, task);
     }
 
 
@@ -1490,6 +1749,8 @@ public class Collection implements CollectionGetter {
             Timber.e(e, "optimize");
             AnkiDroidApp.sendExceptionReport(e, "fixIntegrity - optimize");
         }
+        // the search index may be stale, or missing notes fixed above (unable to be done inside transaction).
+        mSearchIndex.rebuild();
         file = new File(mPath);
         long newSize = file.length();
         result.setNewSize(newSize);
@@ -2037,6 +2298,21 @@ public class Collection implements CollectionGetter {
     }
 
 
+    public NoteSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
+
+    public SearchQueryCache getSearchQueryCache() {
+        return mSearchQueryCache;
+    }
+
+
+    public RegistryChanges getRegistryChanges() {
+        return mRegistryChanges;
+    }
+
+
     /**
      * On first call, load the model if it was not loaded.
      *
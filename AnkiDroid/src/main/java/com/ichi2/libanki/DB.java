@@ -62,7 +62,7 @@ public class DB {
     /**
      * The collection, which is actually an SQLite database.
      */
-    private final SupportSQLiteDatabase mDatabase;
+    private final DatabaseChangeDecorator mDatabase;
     private boolean mMod = false;
 
     public DB(String ankiFilename) {
@@ -178,6 +178,21 @@ public class DB {
         return mMod;
     }
 
+
+    /**
+     * @return A number which changes each time a statement modifying the database is executed, either through this
+     * object or directly on {@link #getDatabase()}. Contrary to {@link #getMod()}, it is not reset when the collection
+     * is saved.
+     */
+    public long getModificationCount() {
+        return mDatabase.getModificationCount();
+    }
+
+
+    void markModified() {
+        mMod = true;
+    }
+
     // Allows to avoid using new Object[]
     public Cursor query(String query, Object... selectionArgs) {
         return mDatabase.query(query, selectionArgs);
@@ -272,7 +287,7 @@ public class DB {
         // mark modified?
         for (String mo : MOD_SQLS) {
             if (s.startsWith(mo)) {
-                mMod = true;
+                markModified();
                 break;
             }
         }
@@ -290,7 +305,7 @@ public class DB {
      * not contain any non-statement-terminating semicolons.
      */
     public void executeScript(String sql) {
-        mMod = true;
+        markModified();
         String[] queries = sql.split(";");
         for(String query : queries) {
             mDatabase.execSQL(query);
@@ -306,19 +321,19 @@ public class DB {
 
     /** update must always be called via DB in order to mark the db as changed */
     public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
-        mMod = true;
+        markModified();
         return getDatabase().update(table, SQLiteDatabase.CONFLICT_NONE, values, whereClause, whereArgs);
     }
 
 
     /** insert must always be called via DB in order to mark the db as changed */
     public long insert(String table, ContentValues values) {
-        mMod = true;
+        markModified();
         return getDatabase().insert(table, SQLiteDatabase.CONFLICT_NONE, values);
     }
 
     public void executeMany(String sql, List<Object[]> list) {
-        mMod = true;
+        markModified();
         if (BuildConfig.DEBUG) {
             if (list.size() <= 1) {
                 Timber.w("Query %s called with a list of at most one element. Usually that's not expected.", sql);
@@ -329,7 +344,7 @@ public class DB {
 
     /** Use this executeMany version with external transaction management */
     public void executeManyNoTransaction(String sql, List<Object[]> list) {
-        mMod = true;
+        markModified();
         for (Object[] o : list) {
             mDatabase.execSQL(sql, o);
         }
@@ -42,6 +42,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -149,8 +150,12 @@ public class Decks {
 
 
     private final Collection mCol;
-    private HashMap<Long, Deck> mDecks;
+    private LazyJsonMap<Deck> mDecks;
     private HashMap<Long, DeckConfig> mDconf;
+    /** Ids of the deck configurations changed since the last flush */
+    private final HashSet<Long> mChangedConf = new HashSet<>();
+    /** JSON of each deck configuration when it was loaded or last written, to find those modified in place */
+    private final HashMap<Long, String> mConfSources = new HashMap<>();
     // Never access mNameMap directly. Uses byName
     private NameMap mNameMap;
     private boolean mChanged;
@@ -160,16 +165,20 @@ public class Decks {
     /**
      * A tool to quickly access decks from name. Ensure that names get properly normalized so that difference in
      * name unicode normalization or upper/lower case, is ignored during deck search.
+     * <p>
+     * Maps names to ids, so that it can be built from the names of the decks without parsing them.
      */
     private static class NameMap {
-        private final HashMap<String, Deck> mNameMap;
+        private final HashMap<String, Long> mNameMap;
+        private final LazyJsonMap<Deck> mDecks;
 
 
         /**
-         * @param size The expected number of deck to keep
+         * @param decks The decks we want to get access quickly
          */
-        private NameMap(int size) {
-            mNameMap = new HashMap<>(size);
+        private NameMap(LazyJsonMap<Deck> decks) {
+            mNameMap = new HashMap<>(2 * decks.size());
+            mDecks = decks;
         }
 
 
@@ -177,10 +186,10 @@ public class Decks {
          * @param decks The collection of decks we want to get access quickly
          * @return A name map, allowing to get decks from name
          */
-        public static NameMap constructor(java.util.Collection<Deck> decks) {
-            NameMap map = new NameMap(2 * decks.size());
-            for (Deck deck: decks) {
-                map.add(deck);
+        public static NameMap constructor(LazyJsonMap<Deck> decks) {
+            NameMap map = new NameMap(decks);
+            for (long id : decks.keySet()) {
+                map.add(decks.getString(id, "name"), id);
             }
             return map;
         }
@@ -192,7 +201,11 @@ public class Decks {
          */
         public synchronized Deck get(String name) {
             String normalized = normalizeName(name);
-            Deck deck = mNameMap.get(normalized);
+            Long id = mNameMap.get(normalized);
+            if (id == null) {
+                return null;
+            }
+            Deck deck = mDecks.get(id);
             if (deck == null) {
                 return null;
             }
@@ -208,11 +221,15 @@ public class Decks {
          * @param g Add a deck. Allow from its name to get quick access to the deck.
          */
         public synchronized void add(Deck g) {
-            String name = g.getString("name");
-            mNameMap.put(name, g);
+            add(g.getString("name"), g.getLong("id"));
+        }
+
+
+        private void add(String name, long id) {
+            mNameMap.put(name, id);
             // Normalized name is also added because it's required to use it in by name.
             // Non normalized is kept for Parent
-            mNameMap.put(normalizeName(name), g);
+            mNameMap.put(normalizeName(name), id);
         }
 
 
@@ -230,8 +247,8 @@ public class Decks {
         public synchronized void remove(String name, JSONObject expectedDeck) {
             String[] names = new String[] {name, normalizeName(name)};
             for (String name_: names) {
-                JSONObject currentDeck = mNameMap.get(name_);
-                if (currentDeck != null && currentDeck.getLong("id") == expectedDeck.getLong("id")) {
+                Long currentId = mNameMap.get(name_);
+                if (currentId != null && currentId == expectedDeck.getLong("id")) {
                     /* Remove name from mapping only if it still maps to
                      * expectedDeck. I.e. no other deck had been given this
                      * name yet. */
@@ -253,27 +270,39 @@ public class Decks {
 
 
     public void load(String decks, String dconf) {
-        JSONObject decksarray = new JSONObject(decks);
-        JSONArray ids = decksarray.names();
-        mDecks = new HashMap<>(decksarray.length());
-        for (String id: ids.stringIterable()) {
-            Deck o = new Deck(decksarray.getJSONObject(id));
-            long longId = Long.parseLong(id);
-            mDecks.put(longId, o);
-        }
-        mNameMap = NameMap.constructor(mDecks.values());
+        // decks are only parsed when used
+        mDecks = new LazyJsonMap<>(decks, Deck::new);
         JSONObject confarray = new JSONObject(dconf);
-        ids = confarray.names();
+        JSONArray ids = confarray.names();
         mDconf = new HashMap<>(confarray.length());
         if (ids != null) {
             for (String id : ids.stringIterable()) {
                 mDconf.put(Long.parseLong(id), new DeckConfig(confarray.getJSONObject(id)));
             }
         }
+        // changes which were not yet folded into the col table
+        RegistryChanges changes = mCol.getRegistryChanges();
+        mDecks.apply(changes.read(RegistryChanges.DECKS));
+        for (Map.Entry<Long, String> conf : changes.read(RegistryChanges.DCONF).entrySet()) {
+            if (conf.getValue() == null) {
+                mDconf.remove(conf.getKey());
+            } else {
+                mDconf.put(conf.getKey(), new DeckConfig(conf.getValue()));
+            }
+        }
+        mNameMap = NameMap.constructor(mDecks);
+        mDecks.clearChanged();
+        mChangedConf.clear();
         mChanged = false;
+        mConfSources.clear();
+        updateConfSources(mDconf.keySet());
     }
 
 
+    /**
+     * Marks the whole registry as changed, to be written to the col table on the next flush. As the changes to the
+     * decks are not known, callers which know the deck they changed should use {@link #save(JSONObject)}.
+     */
     public void save() {
         save(null);
     }
@@ -286,27 +315,94 @@ public class Decks {
         if (g != null) {
             g.put("mod", mCol.getTime().intTime());
             g.put("usn", mCol.usn());
+            long id = g.getLong("id");
+            if (g instanceof Deck || (!(g instanceof DeckConfig) && mDecks.get(id) == g)) {
+                mDecks.markChanged(id);
+            } else if (g instanceof DeckConfig || mDconf.get(id) == g) {
+                mChangedConf.add(id);
+            } else {
+                // a copy, we don't know what it is
+                mChanged = true;
+            }
+        } else {
+            mChanged = true;
         }
-        mChanged = true;
+        onChange();
+    }
+
+
+    /** Called when decks or configurations were added, removed or changed, and recorded as such */
+    private void onChange() {
+        // searches refer to the names and ids of decks
+        mCol.getSearchQueryCache().invalidate();
     }
 
 
+    /**
+     * Writes the changes. When the whole registry changed, the decks and configurations are written to the col
+     * table. Otherwise only the objects which changed are written, see {@link RegistryChanges}.
+     * <p>
+     * Callers often modify an object in place and save another one. So when anything was saved, the objects whose
+     * JSON differs from the one last written are written too.
+     */
     public void flush() {
-        ContentValues values = new ContentValues();
-        if (mChanged) {
-            JSONObject decksarray = new JSONObject();
-            for (Map.Entry<Long, Deck> d : mDecks.entrySet()) {
-                decksarray.put(Long.toString(d.getKey()), d.getValue());
+        RegistryChanges changes = mCol.getRegistryChanges();
+        if (!mChanged && (!mDecks.getChanged().isEmpty() || !mChangedConf.isEmpty())) {
+            mDecks.markModified();
+            for (Map.Entry<Long, DeckConfig> conf : mDconf.entrySet()) {
+                if (!Utils.jsonToString(conf.getValue()).equals(mConfSources.get(conf.getKey()))) {
+                    mChangedConf.add(conf.getKey());
+                }
             }
-            values.put("decks", Utils.jsonToString(decksarray));
+        }
+        if (mChanged) {
+            ContentValues values = new ContentValues();
+            values.put("decks", mDecks.toJson());
             JSONObject confarray = new JSONObject();
             for (Map.Entry<Long, DeckConfig> d : mDconf.entrySet()) {
                 confarray.put(Long.toString(d.getKey()), d.getValue());
             }
             values.put("dconf", Utils.jsonToString(confarray));
             mCol.getDb().update("col", values);
-            mChanged = false;
+            changes.clear(RegistryChanges.DECKS);
+            changes.clear(RegistryChanges.DCONF);
+        } else {
+            for (long did : mDecks.getChanged()) {
+                changes.write(RegistryChanges.DECKS, did, mDecks.toJson(did));
+            }
+            for (long confId : mChangedConf) {
+                DeckConfig conf = mDconf.get(confId);
+                changes.write(RegistryChanges.DCONF, confId, conf == null ? null : Utils.jsonToString(conf));
+            }
+        }
+        if (mChanged) {
+            mConfSources.clear();
+            updateConfSources(mDconf.keySet());
+        } else {
+            updateConfSources(mChangedConf);
         }
+        mDecks.clearChanged();
+        mChangedConf.clear();
+        mChanged = false;
+    }
+
+
+    /** Records the JSON of these configurations as written */
+    private void updateConfSources(@NonNull Set<Long> confIds) {
+        for (long confId : confIds) {
+            DeckConfig conf = mDconf.get(confId);
+            if (conf == null) {
+                mConfSources.remove(confId);
+            } else {
+                mConfSources.put(confId, Utils.jsonToString(conf));
+            }
+        }
+    }
+
+
+    /** Ensures that the next flush writes the decks and configurations to the col table */
+    public void foldChanges() {
+        mChanged = true;
     }
 
 
@@ -456,7 +552,7 @@ public class Decks {
         if (active().contains(did)) {
             select(mDecks.keySet().iterator().next());
         }
-        save();
+        onChange();
     }
 
 
@@ -469,16 +565,11 @@ public class Decks {
      * An unsorted list of all deck names.
      */
     public List<String> allNames(boolean dyn) {
+        // read from the JSON of the decks, without parsing them
         List<String> list = new ArrayList<>(mDecks.size());
-        if (dyn) {
-            for (Deck x : mDecks.values()) {
-                list.add(x.getString("name"));
-            }
-        } else {
-            for (Deck x : mDecks.values()) {
-                if (x.isStd()) {
-                    list.add(x.getString("name"));
-                }
+        for (long id : mDecks.keySet()) {
+            if (dyn || mDecks.getInt(id, "dyn", DECK_STD) == DECK_STD) {
+                list.add(mDecks.getString(id, "name"));
             }
         }
         return list;
@@ -584,7 +675,7 @@ public class Decks {
         mDecks.put(g.getLong("id"), g);
         maybeAddToActive();
         // mark registry changed, but don't bump mod time
-        save();
+        onChange();
     }
 
     /**
@@ -821,7 +912,9 @@ public class Decks {
 
     public void updateConf(DeckConfig g) {
         mDconf.put(g.getLong("id"), g);
-        save();
+        // mark registry changed, but don't bump mod time
+        mChangedConf.add(g.getLong("id"));
+        onChange();
     }
 
 
@@ -855,6 +948,7 @@ public class Decks {
         assert id != 1;
         mCol.modSchema();
         mDconf.remove(id);
+        mChangedConf.add(id);
         for (Deck g : all()) {
             // ignore cram decks
             if (!g.has("conf")) {
@@ -1277,7 +1371,7 @@ public class Decks {
 
     @Deprecated
     @RustCleanup("This exists in Rust as DecksDictProxy, but its usage is warned against")
-    public HashMap<Long, Deck> getDecks() {
+    public Map<Long, Deck> getDecks() {
         return mDecks;
     }
 
@@ -27,11 +27,11 @@ import android.util.Pair;
 import com.ichi2.async.CollectionTask;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
+import com.ichi2.utils.LongArrayList;
 
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,6 +41,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import androidx.annotation.CheckResult;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 import static com.ichi2.async.CancelListener.isCancelled;
@@ -54,6 +55,8 @@ public class Finder {
     private static final Pattern fMidPattern = Pattern.compile("[^0-9]");
 
     private final Collection mCol;
+    /** Whether the search being compiled can be cached, false if it depends on the day or the current deck */
+    private boolean mCacheable;
 
 
     public Finder(Collection col) {
@@ -75,40 +78,59 @@ public class Finder {
 
     @CheckResult
     public List<Long> findCards(String query, boolean _order) {
-        return findCards(query, _order, null);
+        return _findCards(query, _order);
     }
 
+    /**
+     * Card ids for QUERY, without boxing each of them. Not in LibAnki.
+     * @param task Sent the first results as soon as there are enough to display, may be null
+     */
     @CheckResult
-    public List<Long> findCards(String query, boolean _order, CollectionTask.PartialSearch task) {
-        return _findCards(query, _order, task);
+    public LongArrayList findCardIds(String query, boolean _order, @Nullable CollectionTask.PartialSearch task) {
+        return _findCardIds(query, _order, task);
     }
 
 
     @CheckResult
     private List<Long> _findCards(String query, Object _order) {
-        return _findCards(query, _order, null);
+        return _findCardIds(query, _order, null).toList();
     }
 
     @CheckResult
-    private List<Long> _findCards(String query, Object _order, CollectionTask.PartialSearch task) {
-        String[] tokens = _tokenize(query);
-        Pair<String, String[]> res1 = _where(tokens);
-        String preds = res1.first;
-        String[] args = res1.second;
-        List<Long> res = new ArrayList<>();
-        if (preds == null) {
-            return res;
+    private LongArrayList _findCardIds(String query, Object _order, @Nullable CollectionTask.PartialSearch task) {
+        LongArrayList res = new LongArrayList();
+        SearchQueryCache cache = mCol.getSearchQueryCache();
+        long start = System.nanoTime();
+        String key = _cacheKey(query, _order);
+        SearchQueryCache.CompiledSearch compiled = cache.get(key);
+        if (compiled == null) {
+            mCacheable = true;
+            String[] tokens = _tokenize(query);
+            Pair<String, String[]> res1 = _where(tokens);
+            String preds = res1.first;
+            String[] args = res1.second;
+            if (preds == null) {
+                return res;
+            }
+            Pair<String, Boolean> res2 = _order instanceof Boolean ? _order((Boolean) _order) : _order((String) _order);
+            String order = res2.first;
+            boolean rev = res2.second;
+            compiled = new SearchQueryCache.CompiledSearch(_query(preds, order), args, rev);
+            if (mCacheable) {
+                cache.put(key, compiled);
+            }
         }
-        Pair<String, Boolean> res2 = _order instanceof Boolean ? _order((Boolean) _order) : _order((String) _order);
-        String order = res2.first;
-        boolean rev = res2.second;
-        String sql = _query(preds, order);
-        Timber.v("Search query '%s' is compiled as '%s'.", query, sql);
+        long compiledTime = System.nanoTime();
+        cache.recordCompile(compiledTime - start);
+        String sql = compiled.getSql();
+        String[] args = compiled.getArgs();
+        boolean rev = compiled.isReverse();
+        Timber.v("Search query '%s' is compiled as '%s' in %d µs.", query, sql, (compiledTime - start) / 1000);
         boolean sendProgress = task != null;
         try (Cursor cur = mCol.getDb().getDatabase().query(sql, args)) {
             while (cur.moveToNext()) {
                 if (isCancelled(task)) {
-                    return new ArrayList<>(0);
+                    return new LongArrayList(0);
                 }
                 res.add(cur.getLong(0));
                 if (sendProgress && res.size() > task.getNumCardsToRender()) {
@@ -119,31 +141,48 @@ public class Finder {
         } catch (SQLException e) {
             // invalid grouping
             Timber.w(e);
-            return new ArrayList<>(0);
+            return new LongArrayList(0);
+        } finally {
+            long executeTime = System.nanoTime() - compiledTime;
+            cache.recordExecute(executeTime);
+            Timber.v("Search query '%s' executed in %d ms.", query, executeTime / 1000000);
         }
         if (rev) {
-            Collections.reverse(res);
+            res.reverse();
         }
         return res;
     }
 
 
     public List<Long> findNotes(String query) {
-        String[] tokens = _tokenize(query);
-        Pair<String, String[]> res1 = _where(tokens);
-        String preds = res1.first;
-        String[] args = res1.second;
         List<Long> res = new ArrayList<>();
-        if (preds == null) {
-            return res;
-        }
-        if ("".equals(preds)) {
-            preds = "1";
-        } else {
-            preds = "(" + preds + ")";
+        SearchQueryCache cache = mCol.getSearchQueryCache();
+        long start = System.nanoTime();
+        String key = _cacheKey(query, null);
+        SearchQueryCache.CompiledSearch compiled = cache.get(key);
+        if (compiled == null) {
+            mCacheable = true;
+            String[] tokens = _tokenize(query);
+            Pair<String, String[]> res1 = _where(tokens);
+            String preds = res1.first;
+            String[] args = res1.second;
+            if (preds == null) {
+                return res;
+            }
+            if ("".equals(preds)) {
+                preds = "1";
+            } else {
+                preds = "(" + preds + ")";
+            }
+            String sql = "select distinct(n.id) from cards c, notes n where c.nid=n.id and " + preds;
+            compiled = new SearchQueryCache.CompiledSearch(sql, args, false);
+            if (mCacheable) {
+                cache.put(key, compiled);
+            }
         }
-        String sql = "select distinct(n.id) from cards c, notes n where c.nid=n.id and " + preds;
-        try (Cursor cur = mCol.getDb().getDatabase().query(sql, args)) {
+        long compiledTime = System.nanoTime();
+        cache.recordCompile(compiledTime - start);
+        try (Cursor cur = mCol.getDb().getDatabase().query(compiled.getSql(), compiled.getArgs())) {
             while (cur.moveToNext()) {
                 res.add(cur.getLong(0));
             }
@@ -151,11 +190,34 @@ public class Finder {
             Timber.w(e);
             // invalid grouping
             return new ArrayList<>(0);
+        } finally {
+            cache.recordExecute(System.nanoTime() - compiledTime);
         }
         return res;
     }
 
 
+    /**
+     * @param order The order of findCards, or null for findNotes
+     * @return The key of the compiled search in {@link SearchQueryCache}
+     */
+    private String _cacheKey(String query, Object order) {
+        String orderKey;
+        if (order == null) {
+            orderKey = "notes";
+        } else if (Boolean.TRUE.equals(order)) {
+            // the built-in order comes from the configuration
+            orderKey = "sort:" + mCol.getConf().getString("sortType") + ":" + mCol.getConf().getBoolean("sortBackwards");
+        } else if (Boolean.FALSE.equals(order)) {
+            orderKey = "";
+        } else {
+            orderKey = "order:" + order;
+        }
+        // the compiled queries differ with the search index
+        return mCol.getSearchIndex().isUsable() + "\u0000" + orderKey + "\u0000" + query;
+    }
+
+
     /**
      * Tokenizing
      * ***********************************************************
@@ -345,7 +407,7 @@ public class Finder {
                         s.add(_findCardState(val));
                         break;
                     default:
-                        s.add(_findField(cmd, val));
+                        s.add(_findField(cmd, val, args));
                         break;
                 }
             // normal text search
@@ -487,6 +549,7 @@ public class Finder {
         } else if ("buried".equals(val)) {
             return "c.queue in (" + Consts.QUEUE_TYPE_SIBLING_BURIED + ", " + Consts.QUEUE_TYPE_MANUALLY_BURIED + ")";
         } else if ("due".equals(val)) {
+            mCacheable = false;
             return "(c.queue in (" + Consts.QUEUE_TYPE_REV + "," + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + ") and c.due <= " + mCol.getSched().getToday() +
                     ") or (c.queue = " + Consts.QUEUE_TYPE_LRN + " and c.due <= " + mCol.getSched().getDayCutoff() + ")";
         } else {
@@ -539,6 +602,7 @@ public class Finder {
             ease = "and ease=" + r[1];
         }
         long cutoff = (mCol.getSched().getDayCutoff() - SECONDS_PER_DAY * days) * 1000;
+        mCacheable = false;
         return "c.id in (select cid from revlog where id>" + cutoff + " " + ease + ")";
     }
 
@@ -552,6 +616,7 @@ public class Finder {
             return null;
         }
         long cutoff = (mCol.getSched().getDayCutoff() - SECONDS_PER_DAY * days) * 1000;
+        mCacheable = false;
         return "c.id > " + cutoff;
     }
 
@@ -586,6 +651,7 @@ public class Finder {
         String q = "";
         if ("due".equals(prop)) {
             val += mCol.getSched().getToday();
+            mCacheable = false;
             // only valid for review/daily learning
             q = "(c.queue in (" + Consts.QUEUE_TYPE_REV + "," + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + ")) and ";
         } else if ("ease".equals(prop)) {
@@ -601,10 +667,23 @@ public class Finder {
         val = val.replace("*", "%");
         args.add("%" + val + "%");
         args.add("%" + val + "%");
+        if (_useSearchIndex(val)) {
+            return "n.id in (select rowid from " + NoteSearchIndex.TABLE + " where sfld like ?" +
+                    " union select rowid from " + NoteSearchIndex.TABLE + " where flds like ?)";
+        }
         return "(n.sfld like ? escape '\\' or n.flds like ? escape '\\')";
     }
 
 
+    /**
+     * Whether a LIKE pattern can be matched against the search index. The index only answers LIKE without an escape
+     * clause, which patterns without backslash don't need.
+     */
+    private boolean _useSearchIndex(String likePattern) {
+        return likePattern.indexOf('\\') < 0 && mCol.getSearchIndex().isUsable();
+    }
+
+
     private String _findNids(String val) {
         if (fNidsPattern.matcher(val).find()) {
             return null;
@@ -666,6 +745,7 @@ public class Finder {
         // current deck?
         if ("current".equalsIgnoreCase(val)) {
             ids = dids(mCol.getDecks().selected());
+            mCacheable = false;
         } else if (!val.contains("*")) {
             // single deck
             ids = dids(mCol.getDecks().id_for_name(val));
@@ -734,68 +814,47 @@ public class Finder {
     }
 
 
-    private String _findField(String field, String val) {
-        /*
-         * We need two expressions to query the cards: One that will use JAVA REGEX syntax and another
-         * that should use SQLITE LIKE clause syntax.
-         */
-        String sqlVal = val
-                .replace("%","\\%") // For SQLITE, we escape all % signs
-                .replace("*","%"); // And then convert the * into non-escaped % signs
-
-        /*
-         * The following three lines make sure that only _ and * are valid wildcards.
-         * Any other characters are enclosed inside the \Q \E markers, which force
-         * all meta-characters in between them to lose their special meaning
-         */
-        String javaVal = val
-                    .replace("_","\\E.\\Q")
-                    .replace("*","\\E.*\\Q");
-        /*
-         * For the pattern, we use the javaVal expression that uses JAVA REGEX syntax
-         */
-        Pattern pattern = Pattern.compile("\\Q" + javaVal + "\\E", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-
+    /**
+     * Matches the field in the query, without loading the notes. The field is cut from flds by a recursive query which
+     * drops the fields before it, then compared with LIKE, which agrees with the pattern of Anki: * and _ are
+     * wildcards, the match is case insensitive for ASCII only and spans the whole field.
+     */
+    private String _findField(String field, String val, List<String> args) {
         // find models that have that field
-        Map<Long, Object[]> mods = new HashMap<>(mCol.getModels().count());
+        StringBuilder ords = new StringBuilder("case mid");
+        List<Long> mids = new ArrayList<>();
         for (JSONObject m : mCol.getModels().all()) {
             JSONArray flds = m.getJSONArray("flds");
             for (JSONObject f: flds.jsonObjectIterable()) {
                 String fieldName = f.getString("name");
                 fieldName = Normalizer.normalize(fieldName, Normalizer.Form.NFC);
                 if (fieldName.equalsIgnoreCase(field)) {
-                    mods.put(m.getLong("id"), new Object[] { m, f.getInt("ord") });
+                    mids.add(m.getLong("id"));
+                    ords.append(" when ").append(m.getLong("id")).append(" then ").append(f.getInt("ord"));
                 }
             }
         }
-        if (mods.isEmpty()) {
+        if (mids.isEmpty()) {
             // nothing has that field
             return null;
         }
-        LinkedList<Long> nids = new LinkedList<>();
-        try (Cursor cur = mCol.getDb().query(
-                "select id, mid, flds from notes where mid in " +
-                        Utils.ids2str(new LinkedList<>(mods.keySet())) +
-                        " and flds like ? escape '\\'",  "%" + sqlVal + "%")) {
-            /*
-             * Here we use the sqlVal expression, that is required for LIKE syntax in sqllite.
-             * There is no problem with special characters, because only % and _ are special
-             * characters in this syntax.
-             */
-
-            while (cur.moveToNext()) {
-                String[] flds = Utils.splitFields(cur.getString(2));
-                int ord = (Integer)mods.get(cur.getLong(1))[1];
-                String strg = flds[ord];
-                if (pattern.matcher(strg).matches()) {
-                    nids.add(cur.getLong(0));
-                }
-            }
-        }
-        if (nids.isEmpty()) {
-            return "0";
-        }
-        return "n.id in " + Utils.ids2str(nids);
+        ords.append(" end");
+        // backslashes and % are literal, * is the wildcard
+        String likeVal = val.replace("\\", "\\\\").replace("%", "\\%").replace("*", "%");
+        // notes whose fields contain the value somewhere
+        args.add("%" + likeVal + "%");
+        String fldsLim = _useSearchIndex(likeVal) ?
+                "id in (select rowid from " + NoteSearchIndex.TABLE + " where flds like ?)" :
+                "flds like ? escape '\\'";
+        args.add(likeVal);
+        // rest starts at the field numbered remaining, and each field is followed by a separator
+        return "n.id in (with recursive fields(id, remaining, rest) as (" +
+                "select id, " + ords + ", flds || char(31) from notes where mid in " + Utils.ids2str(mids) +
+                " and " + fldsLim +
+                " union all select id, remaining - 1, substr(rest, instr(rest, char(31)) + 1) from fields" +
+                " where remaining > 0 and rest != '')" +
+                " select id from fields where remaining = 0 and instr(rest, char(31)) > 0" +
+                " and substr(rest, 1, instr(rest, char(31)) - 1) like ? escape '\\')";
     }
 
 
@@ -808,6 +867,7 @@ public class Finder {
         String mid = split[0];
         val = split[1];
         String csum = Long.toString(Utils.fieldChecksumWithoutHtmlMedia(val));
+        mCacheable = false;
         List<Long> nids = new ArrayList<>();
         try (Cursor cur = mCol.getDb().query(
                 "select id, flds from notes where mid=? and csum=?",
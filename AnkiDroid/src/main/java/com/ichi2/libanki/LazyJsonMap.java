@@ -0,0 +1,507 @@
+package com.ichi2.libanki;
+
+import com.ichi2.utils.JSONException;
+import com.ichi2.utils.JSONObject;
+
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The decks or models of the collection, by id, read from the JSON stored in the col table. Not in LibAnki.
+ * <p>
+ * Opening the collection only finds where each object starts and ends in the JSON. An object is parsed the first time
+ * it is accessed, so that a collection with thousands of decks doesn't parse all of them to show one. Top level
+ * values, such as the name, can be read without parsing the object. Objects which were never accessed are written
+ * back as they were read.
+ * <p>
+ * Iterating over the values parses every object.
+ * <p>
+ * The ids of objects which were added, removed or marked as changed are recorded, so that only those objects need to
+ * be written. As objects are often modified in place, {@link #markModified()} also finds the parsed objects whose JSON
+ * differs from the one they were parsed from.
+ */
+public class LazyJsonMap<T extends JSONObject> extends AbstractMap<Long, T> {
+
+    /** Creates the object of an entry from its JSON */
+    public interface Factory<T> {
+        @NonNull
+        T create(@NonNull JSONObject json);
+    }
+
+
+    private final String mJson;
+    private final Factory<T> mFactory;
+    /** Values are either an object, or the {@link Range} of its JSON in mJson if it was not yet parsed */
+    private final HashMap<Long, Object> mEntries;
+    /** Ids of the objects changed since {@link #clearChanged()} */
+    private final HashSet<Long> mChanged = new HashSet<>();
+    /**
+     * For each parsed object, the JSON it was parsed from or last written as: either the {@link Range} of its JSON in
+     * mJson, or a string
+     */
+    private final HashMap<Long, Object> mSources = new HashMap<>();
+
+
+    public LazyJsonMap(@NonNull String json, @NonNull Factory<T> factory) {
+        mJson = json;
+        mFactory = factory;
+        mEntries = new HashMap<>();
+        try {
+            index();
+        } catch (RuntimeException e) {
+            // not JSON as written by Anki, let the parser deal with it
+            mEntries.clear();
+            JSONObject objects = new JSONObject(json);
+            for (String id : objects) {
+                T value = factory.create(objects.getJSONObject(id));
+                mEntries.put(Long.parseLong(id), value);
+                mSources.put(Long.parseLong(id), Utils.jsonToString(value));
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized T get(@Nullable Object id) {
+        Object entry = mEntries.get(id);
+        if (entry instanceof Range) {
+            Range range = (Range) entry;
+            T value = mFactory.create(new JSONObject(mJson.substring(range.mStart, range.mEnd)));
+            // not a structural modification, iterations in progress stay valid
+            mEntries.put((Long) id, value);
+            mSources.put((Long) id, range);
+            return value;
+        }
+        //noinspection unchecked
+        return (T) entry;
+    }
+
+
+    @Override
+    public synchronized boolean containsKey(@Nullable Object id) {
+        return mEntries.containsKey(id);
+    }
+
+
+    @Override
+    public synchronized T put(@NonNull Long id, @NonNull T value) {
+        mChanged.add(id);
+        Object previous = mEntries.put(id, value);
+        //noinspection unchecked
+        return previous instanceof Range ? null : (T) previous;
+    }
+
+
+    @Override
+    public synchronized T remove(@Nullable Object id) {
+        if (id instanceof Long) {
+            mChanged.add((Long) id);
+        }
+        mSources.remove(id);
+        Object previous = mEntries.remove(id);
+        //noinspection unchecked
+        return previous instanceof Range ? null : (T) previous;
+    }
+
+
+    @Override
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+
+    /** The entries, whose values are parsed when first read */
+    @NonNull
+    @Override
+    public Set<Entry<Long, T>> entrySet() {
+        return new AbstractSet<Entry<Long, T>>() {
+            @NonNull
+            @Override
+            public Iterator<Entry<Long, T>> iterator() {
+                Iterator<Long> ids = mEntries.keySet().iterator();
+                return new Iterator<Entry<Long, T>>() {
+                    private Long mLast;
+
+
+
+                    @Override
+                    public boolean hasNext() {
+                        return ids.hasNext();
+                    }
+
+
+                    @Override
+                    public Entry<Long, T> next() {
+                        Long id = ids.next();
+                        mLast = id;
+                        return new SimpleEntry<Long, T>(id, null) {
+                            @Override
+                            public T getValue() {
+                                return get(id);
+                            }
+                        };
+                    }
+
+
+                    @Override
+                    public void remove() {
+                        synchronized (LazyJsonMap.this) {
+                            ids.remove();
+                            mSources.remove(mLast);
+                            mChanged.add(mLast);
+                        }
+                    }
+                };
+            }
+
+
+            @Override
+            public int size() {
+                return LazyJsonMap.this.size();
+            }
+        };
+    }
+
+
+    /**
+     * @return The top level string value KEY of the object with this id, without parsing the object if it was not
+     * parsed yet. Null if there is no such object or value.
+     */
+    @Nullable
+    public synchronized String getString(long id, @NonNull String key) {
+        Object entry = mEntries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (!(entry instanceof Range)) {
+            //noinspection unchecked
+            return ((T) entry).optString(key, null);
+        }
+        Range value = findValue((Range) entry, key);
+        if (value == null || !isStringStart(mJson.charAt(value.mStart))) {
+            return null;
+        }
+        return (String) parseValue(value);
+    }
+
+
+    /**
+     * @return The top level integer value KEY of the object with this id, without parsing the object if it was not
+     * parsed yet, or defaultValue if there is no such object or value.
+     */
+    public synchronized int getInt(long id, @NonNull String key, int defaultValue) {
+        Object entry = mEntries.get(id);
+        if (entry == null) {
+            return defaultValue;
+        }
+        if (!(entry instanceof Range)) {
+            //noinspection unchecked
+            return ((T) entry).optInt(key, defaultValue);
+        }
+        Range value = findValue((Range) entry, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        Object parsed = parseValue(value);
+        if (parsed instanceof Number) {
+            return ((Number) parsed).intValue();
+        } else if (parsed instanceof Boolean) {
+            return (Boolean) parsed ? 1 : 0;
+        }
+        return defaultValue;
+    }
+
+
+    /** Records that the object with this id was modified */
+    public synchronized void markChanged(long id) {
+        mChanged.add(id);
+    }
+
+
+    /** @return The ids of the objects added, removed or modified since the last call to {@link #clearChanged()} */
+    @NonNull
+    public synchronized Set<Long> getChanged() {
+        return new HashSet<>(mChanged);
+    }
+
+
+    /**
+     * Records as changed the parsed objects whose JSON differs from the JSON they were parsed from or last written as,
+     * which is how objects modified in place without being marked as changed are found.
+     */
+    public synchronized void markModified() {
+        for (Map.Entry<Long, Object> entry : mEntries.entrySet()) {
+            long id = entry.getKey();
+            if (entry.getValue() instanceof Range || mChanged.contains(id)) {
+                continue;
+            }
+            Object source = mSources.get(id);
+            if (source == null) {
+                mChanged.add(id);
+                continue;
+            }
+            String json = Utils.jsonToString((JSONObject) entry.getValue());
+            String sourceJson;
+            if (source instanceof Range) {
+                Range range = (Range) source;
+                if (json.length() == range.mEnd - range.mStart && mJson.startsWith(json, range.mStart)) {
+                    continue;
+                }
+                sourceJson = mJson.substring(range.mStart, range.mEnd);
+            } else {
+                sourceJson = (String) source;
+                if (json.equals(sourceJson)) {
+                    continue;
+                }
+            }
+            // the source may have been written differently, compare it as it would be written now
+            String normalized = Utils.jsonToString(new JSONObject(sourceJson));
+            mSources.put(id, normalized);
+            if (!json.equals(normalized)) {
+                mChanged.add(id);
+            }
+        }
+    }
+
+
+    /** Forgets the changes, once they were written */
+    public synchronized void clearChanged() {
+        for (long id : mChanged) {
+            Object value = mEntries.get(id);
+            if (value == null) {
+                mSources.remove(id);
+            } else if (!(value instanceof Range)) {
+                mSources.put(id, Utils.jsonToString((JSONObject) value));
+            }
+        }
+        mChanged.clear();
+    }
+
+
+    /**
+     * Replaces objects by the JSON of a later version, without recording them as changed.
+     * @param objects JSON of the objects by id, null for objects which were removed
+     */
+    public synchronized void apply(@NonNull Map<Long, String> objects) {
+        for (Map.Entry<Long, String> object : objects.entrySet()) {
+            if (object.getValue() == null) {
+                mEntries.remove(object.getKey());
+                mSources.remove(object.getKey());
+            } else {
+                mEntries.put(object.getKey(), mFactory.create(new JSONObject(object.getValue())));
+                mSources.put(object.getKey(), object.getValue());
+            }
+        }
+    }
+
+
+    /** @return The JSON of the object with this id, null if there is none */
+    @Nullable
+    public synchronized String toJson(long id) {
+        Object value = mEntries.get(id);
+        if (value == null) {
+            return null;
+        } else if (value instanceof Range) {
+            Range range = (Range) value;
+            return mJson.substring(range.mStart, range.mEnd);
+        }
+        return Utils.jsonToString((JSONObject) value);
+    }
+
+
+    /** @return The JSON of the map; objects which were not parsed are copied as they were read */
+    @NonNull
+    public synchronized String toJson() {
+        StringWriter json = new StringWriter(mJson.length() + 16);
+        json.append('{');
+        boolean first = true;
+        try {
+            for (Map.Entry<Long, Object> entry : mEntries.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append('"').append(Long.toString(entry.getKey())).append("\":");
+                Object value = entry.getValue();
+                if (value instanceof Range) {
+                    Range range = (Range) value;
+                    json.append(mJson, range.mStart, range.mEnd);
+                } else {
+                    // written in place rather than as a string of its own
+                    Utils.writeJson(value, json);
+                }
+            }
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return json.append('}').toString();
+    }
+
+
+    /** Finds the JSON of each object */
+    private void index() {
+        forEachMember(new Range(0, mJson.length()), (key, value) -> {
+            if (mJson.charAt(value.mStart) != '{') {
+                throw new JSONException("Not an object: " + key);
+            }
+            mEntries.put(Long.parseLong(key), value);
+            return false;
+        });
+    }
+
+
+    @Nullable
+    private Range findValue(@NonNull Range object, @NonNull String key) {
+        Range[] found = new Range[1];
+        forEachMember(object, (name, value) -> {
+            if (key.equals(name)) {
+                found[0] = value;
+                return true;
+            }
+            return false;
+        });
+        return found[0];
+    }
+
+
+    private interface MemberVisitor {
+        /** @return Whether to stop */
+        boolean visit(@NonNull String key, @NonNull Range value);
+    }
+
+
+    /** Visits the members of the JSON object in this range, without parsing their values */
+    private void forEachMember(@NonNull Range object, @NonNull MemberVisitor visitor) {
+        int i = skipWhitespace(object.mStart);
+        expect(i, '{');
+        i = skipWhitespace(i + 1);
+        if (mJson.charAt(i) == '}') {
+            return;
+        }
+        while (true) {
+            int keyEnd = skipString(i);
+            String key = (String) parseValue(new Range(i, keyEnd));
+            i = skipWhitespace(keyEnd);
+            expect(i, ':');
+            int valueStart = skipWhitespace(i + 1);
+            int valueEnd = skipValue(valueStart);
+            if (visitor.visit(key, new Range(valueStart, valueEnd))) {
+                return;
+            }
+            i = skipWhitespace(valueEnd);
+            if (mJson.charAt(i) == '}') {
+                return;
+            }
+            expect(i, ',');
+            i = skipWhitespace(i + 1);
+        }
+    }
+
+
+    /** @return The string, number or boolean in this range */
+    private Object parseValue(@NonNull Range value) {
+        try {
+            return new JSONTokener(mJson.substring(value.mStart, value.mEnd)).nextValue();
+        } catch (org.json.JSONException e) {
+            throw new JSONException(e);
+        }
+    }
+
+
+    private int skipValue(int i) {
+        char c = mJson.charAt(i);
+        if (isStringStart(c)) {
+            return skipString(i);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (true) {
+                c = mJson.charAt(i);
+                if (isStringStart(c)) {
+                    i = skipString(i);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+        }
+        // number, true, false or null
+        while (i < mJson.length() && ",}] \t\n\r".indexOf(mJson.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+
+    /** @return The position after the string starting at i */
+    private int skipString(int i) {
+        char quote = mJson.charAt(i);
+        if (!isStringStart(quote)) {
+            throw new JSONException("Expected a string at " + i);
+        }
+        i++;
+        while (true) {
+            char c = mJson.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+    }
+
+
+    private int skipWhitespace(int i) {
+        while (Character.isWhitespace(mJson.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+
+    private void expect(int i, char c) {
+        if (mJson.charAt(i) != c) {
+            throw new JSONException("Expected " + c + " at " + i);
+        }
+    }
+
+
+    private static boolean isStringStart(char c) {
+        return c == '"' || c == '\'';
+    }
+
+
+    /** Position of a value in the JSON */
+    private static class Range {
+        private final int mStart;
+        private final int mEnd;
+
+
+        private Range(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.ichi2.libanki;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.text.TextUtils;
 
 import android.util.Pair;
@@ -53,6 +55,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -116,6 +122,9 @@ public class Media {
 
     public static final List<Pattern> REGEXPS =  Arrays.asList(fSoundRegexps, fImgRegExpQ, fImgRegExpU);
 
+    /** Below this number of files to checksum, starting threads costs more than it saves */
+    private static final int PARALLEL_CHECKSUM_MIN_FILES = 16;
+
     private final Collection mCol;
     private final String mDir;
     private DB mDb;
@@ -173,6 +182,21 @@ public class Media {
                      "create index idx_media_dirty on media (dirty);\n" +
                      "create table meta (dirMod int, lastUsn int); insert into meta values (0, 0);";
         mDb.executeScript(sql);
+        _initDirIndex();
+    }
+
+
+    /**
+     * The state of the files on disk when they were last checksummed, so that scans only checksum files whose size,
+     * modification time or inode changed since. Not in LibAnki.
+     */
+    private void _initDirIndex() {
+        mDb.execute("create table if not exists dirindex (\n" +
+                    " fname text not null primary key,\n" +
+                    " size int not null,\n" +
+                    " mtime int not null,  -- in milliseconds\n" +
+                    " inode int not null   -- zero if unknown\n" +
+                    ")");
     }
 
 
@@ -205,6 +229,8 @@ public class Media {
             }
             oldDbFile.renameTo(newDbFile);
         }
+        // media db created before the index was added
+        _initDirIndex();
     }
 
 
@@ -678,26 +704,34 @@ public class Media {
 
 
     private void _logChanges()  {
-        Pair<List<String>, List<String>> result = _changes();
-        List<String> added = result.first;
-        List<String> removed = result.second;
-        ArrayList<Object[]> media = new ArrayList<>(added.size() + removed.size());
-        for (String f : added) {
-            String path = new File(dir(), f).getAbsolutePath();
+        MediaChanges changes = _changes();
+        ArrayList<Object[]> media = new ArrayList<>(changes.added.size() + changes.removed.size());
+        for (Map.Entry<String, String> entry : changes.added.entrySet()) {
+            String path = new File(dir(), entry.getKey()).getAbsolutePath();
             long mt = _mtime(path);
-            media.add(new Object[] { f, _checksum(path), mt, 1 });
+            media.add(new Object[] { entry.getKey(), entry.getValue(), mt, 1 });
         }
-        for (String f : removed) {
+        for (String f : changes.removed) {
             media.add(new Object[] { f, null, 0, 1});
         }
         // update media db
         mDb.executeMany("insert or replace into media values (?,?,?,?)", media);
+        if (!changes.indexed.isEmpty()) {
+            mDb.executeMany("insert or replace into dirindex values (?,?,?,?)", changes.indexed);
+        }
+        if (!changes.unindexed.isEmpty()) {
+            mDb.executeMany("delete from dirindex where fname=?", changes.unindexed);
+        }
         mDb.execute("update meta set dirMod = ?", _mtime(dir()));
         mDb.commit();
     }
 
 
-    private Pair<List<String>, List<String>> _changes() {
+    /**
+     * Walks the media folder. Files whose size, modification time and inode are unchanged since they were last
+     * checksummed are not read; the others are checksummed in parallel.
+     */
+    private MediaChanges _changes() {
         Map<String, Object[]> cache = new HashMap<>(mDb.queryScalar("SELECT count() FROM media WHERE csum IS NOT NULL"));
         try (Cursor cur = mDb.query("select fname, csum, mtime from media where csum is not null")) {
             while (cur.moveToNext()) {
@@ -709,8 +743,14 @@ public class Media {
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        List<String> added = new ArrayList<>();
-        List<String> removed = new ArrayList<>();
+        Map<String, long[]> index = new HashMap<>(mDb.queryScalar("SELECT count() FROM dirindex"));
+        try (Cursor cur = mDb.query("select fname, size, mtime, inode from dirindex")) {
+            while (cur.moveToNext()) {
+                index.put(cur.getString(0), new long[] { cur.getLong(1), cur.getLong(2), cur.getLong(3) });
+            }
+        }
+        MediaChanges changes = new MediaChanges();
+        List<File> toChecksum = new ArrayList<>();
         // loop through on-disk files
         for (File f : new File(dir()).listFiles()) {
             // ignore folders and thumbs.db
@@ -746,28 +786,108 @@ public class Media {
                     f.renameTo(nf);
                 }
             }
+            long[] stat = _stat(f);
+            long[] indexed = index.remove(fname);
+            boolean statChanged = indexed == null || !Arrays.equals(indexed, stat);
+            if (statChanged) {
+                changes.indexed.add(new Object[] { fname, stat[0], stat[1], stat[2] });
+            }
             // newly added?
             if (!cache.containsKey(fname)) {
-                added.add(fname);
+                toChecksum.add(f);
             } else {
-                // modified since last time?
-                if (_mtime(f.getAbsolutePath()) != (Long) cache.get(fname)[1]) {
-                    // and has different checksum?
-                    if (!_checksum(f.getAbsolutePath()).equals(cache.get(fname)[0])) {
-                        added.add(fname);
-                    }
+                // modified since last time? Files checksummed before the index existed are compared as in LibAnki.
+                boolean modified = indexed != null ? statChanged : _mtime(f.getAbsolutePath()) != (Long) cache.get(fname)[1];
+                if (modified) {
+                    // and has different checksum? Checked below
+                    toChecksum.add(f);
                 }
                 // mark as used
                 cache.get(fname)[2] = true;
             }
         }
+        Map<String, String> csums = _checksums(toChecksum);
+        for (Map.Entry<String, String> entry : csums.entrySet()) {
+            Object[] cached = cache.get(entry.getKey());
+            if (cached == null || !entry.getValue().equals(cached[0])) {
+                changes.added.put(entry.getKey(), entry.getValue());
+            }
+        }
         // look for any entries in the cache that no longer exist on disk
         for (Map.Entry<String, Object[]> entry : cache.entrySet()) {
             if (!((Boolean) entry.getValue()[2])) {
-                removed.add(entry.getKey());
+                changes.removed.add(entry.getKey());
+            }
+        }
+        // and index entries of files not found
+        for (String fname : index.keySet()) {
+            changes.unindexed.add(new Object[] { fname });
+        }
+        return changes;
+    }
+
+
+    /** Checksums of files by name, computed on all cores */
+    private Map<String, String> _checksums(List<File> files) {
+        Map<String, String> csums = new HashMap<>(files.size());
+        if (files.size() < PARALLEL_CHECKSUM_MIN_FILES) {
+            for (File f : files) {
+                csums.put(f.getName(), _checksum(f.getAbsolutePath()));
             }
+            return csums;
+        }
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> futures = new ArrayList<>(files.size());
+            for (File f : files) {
+                futures.add(executor.submit(() -> _checksum(f.getAbsolutePath())));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                csums.put(files.get(i).getName(), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return csums;
+    }
+
+
+    /**
+     * @return The size, the modification time in milliseconds and the inode of f, as stored in the dirindex table.
+     */
+    private static long[] _stat(File f) {
+        long inode = 0;
+        try {
+            inode = Os.stat(f.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            Timber.w(e, "Failed to stat %s", f);
         }
-        return new Pair<>(added, removed);
+        return new long[] { f.length(), f.lastModified(), inode };
+    }
+
+
+    /** Records the current state of fname in the index, once it was checksummed. */
+    private void _indexFile(String fname) {
+        long[] stat = _stat(new File(dir(), fname));
+        mDb.execute("insert or replace into dirindex values (?,?,?,?)", fname, stat[0], stat[1], stat[2]);
+    }
+
+
+    /** Result of a scan of the media folder */
+    private static class MediaChanges {
+        /** Checksums of the new and modified files */
+        private final Map<String, String> added = new HashMap<>();
+        private final List<String> removed = new ArrayList<>();
+        /** Rows of dirindex to insert or replace */
+        private final List<Object[]> indexed = new ArrayList<>();
+        /** Names of the files to remove from dirindex */
+        private final List<Object[]> unindexed = new ArrayList<>();
     }
 
 
@@ -813,6 +933,8 @@ public class Media {
             f.delete();
         }
         mDb.execute("delete from media where fname=?", fname);
+        mDb.execute("delete from dirindex where fname=?", fname);
+        _updateDirMod();
     }
 
 
@@ -828,6 +950,7 @@ public class Media {
 
     public void forceResync() {
         mDb.execute("delete from media");
+        mDb.execute("delete from dirindex");
         mDb.execute("update meta set lastUsn=0,dirMod=0");
         mDb.execute("vacuum");
         mDb.execute("analyze");
@@ -931,13 +1054,27 @@ public class Media {
      * This method closes the file before it returns.
      */
     public int addFilesFromZip(ZipFile z) throws IOException {
+        List<Object[]> media = new ArrayList<>();
+        int cnt = extractFilesFromZip(z, media);
+        addMediaEntries(media);
+        return cnt;
+    }
+
+
+    /**
+     * Extract zip data without updating the db; return the number of files extracted. The rows to insert in the media
+     * table are appended to media, so that the files of several zips can be recorded by a single
+     * {@link #addMediaEntries(List)}.
+     *
+     * This method closes the file before it returns.
+     */
+    public int extractFilesFromZip(ZipFile z, List<Object[]> media) throws IOException {
         try {
             // get meta info first
             JSONObject meta = new JSONObject(Utils.convertStreamToString(z.getInputStream(z.getEntry("_meta"))));
             // then loop through all files
             int cnt = 0;
             ArrayList<? extends ZipEntry> zipEntries = Collections.list(z.entries());
-            List<Object[]> media = new ArrayList<>(zipEntries.size());
             for (ZipEntry i : zipEntries) {
                 String fileName = i.getName();
                 if ("_meta".equals(fileName)) {
@@ -953,13 +1090,9 @@ public class Media {
                     Utils.writeToFile(zipInputStream, destPath);
                 }
                 String csum = Utils.fileChecksum(destPath);
-                // update db
                 media.add(new Object[] {name, csum, _mtime(destPath), 0});
                 cnt += 1;
             }
-            if (media.size() > 0) {
-                mDb.executeMany("insert or replace into media values (?,?,?,?)", media);
-            }
             return cnt;
         } finally {
             z.close();
@@ -967,6 +1100,21 @@ public class Media {
     }
 
 
+    /** Records files extracted by {@link #extractFilesFromZip(ZipFile, List)}, in a single transaction. */
+    public void addMediaEntries(List<Object[]> media) {
+        if (media.size() > 0) {
+            mDb.executeMany("insert or replace into media values (?,?,?,?)", media);
+            List<Object[]> indexed = new ArrayList<>(media.size());
+            for (Object[] row : media) {
+                long[] stat = _stat(new File(dir(), (String) row[0]));
+                indexed.add(new Object[] { row[0], stat[0], stat[1], stat[2] });
+            }
+            mDb.executeMany("insert or replace into dirindex values (?,?,?,?)", indexed);
+            _updateDirMod();
+        }
+    }
+
+
     /*
      * ***********************************************************
      * The methods below are not in LibAnki.
@@ -1000,6 +1148,8 @@ public class Media {
         String path = new File(dir(), fname).getAbsolutePath();
         mDb.execute("insert or replace into media values (?,?,?,?)",
                 fname, _checksum(path), _mtime(path), 1);
+        _indexFile(fname);
+        _updateDirMod();
     }
 
 
@@ -1014,15 +1164,30 @@ public class Media {
         Timber.d("Marking media file removal in media db: %s", fname);
         mDb.execute("insert or replace into media values (?,?,?,?)",
                fname, null, 0, 1);
+        mDb.execute("delete from dirindex where fname=?", fname);
+        _updateDirMod();
     }
 
 
     /**
-     * @return True if the media db has not been populated yet.
+     * Called once AnkiDroid changed files in the media folder and recorded it in the media db: the folder's new mtime
+     * then doesn't need a scan. Nothing changes before the first scan, which must still populate the media db.
+     */
+    private void _updateDirMod() {
+        mDb.execute("update meta set dirMod = ? where dirMod != 0", _mtime(dir()));
+    }
+
+
+    /**
+     * Files are added to or removed from the media folder by other apps without AnkiDroid knowing, but this changes the
+     * modification time of the folder. The changes made by AnkiDroid itself are recorded with the folder's new
+     * modification time. Files modified in place are only found by {@link #findChanges(boolean)}.
+     *
+     * @return True if the media db has not been populated yet, or if the media folder changed since it was last
+     *         scanned.
      */
     public boolean needScan() {
-        long mod = mDb.queryLongScalar("select dirMod from meta");
-        return mod == 0;
+        return _changed() != null;
     }
 
 
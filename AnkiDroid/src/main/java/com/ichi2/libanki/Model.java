@@ -26,6 +26,7 @@ import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +41,12 @@ import timber.log.Timber;
  * If a change affect card generation, (i.e. any change on the list of field, or the question side of a card type), `Models.save(this, true)` should be called. However, you should do the change in batch and change only when aall are done, because recomputing the list of card is an expensive operation.
  */
 public class Model extends JSONObject {
+    /**
+     * Questions of the templates when {@link #mParsedNodes} was computed
+     */
+    private List<String> mParsedQuestions;
+    private List<ParsedNode> mParsedNodes;
+
     public Model() {
         super();
     }
@@ -80,7 +87,16 @@ public class Model extends JSONObject {
      * @return The set of name of non-empty fields.
      */
     public Set<String> nonEmptyFields(String[] sfld) {
-        List<String> fieldNames = getFieldsNames();
+        return nonEmptyFields(getFieldsNames(), sfld);
+    }
+
+
+    /**
+     * @param fieldNames The names of the fields of a note type, so that they are not read again for each note
+     * @param sfld Fields of a note of this note type
+     * @return The set of name of non-empty fields.
+     */
+    public static Set<String> nonEmptyFields(List<String> fieldNames, String[] sfld) {
         Set<String> nonemptyFields = new HashSet<>(sfld.length);
         for (int i = 0; i < sfld.length; i++) {
             if (!TextUtils.isEmpty(sfld[i].trim())) {
@@ -92,13 +108,21 @@ public class Model extends JSONObject {
 
 
     /**
+     * The nodes are kept until a question changes, so that generating cards repeatedly doesn't parse the templates
+     * each time.
      * @return A list of parsed nodes for each template's question. null in case of exception
      */
-    public List<ParsedNode> parsedNodes() {
+    public synchronized List<ParsedNode> parsedNodes() {
         JSONArray tmpls = getJSONArray("tmpls");
-        List<ParsedNode> nodes = new ArrayList<>(tmpls.length());
+        List<String> questions = new ArrayList<>(tmpls.length());
         for (JSONObject tmpl : tmpls.jsonObjectIterable()) {
-            String format_question = tmpl.getString("qfmt");
+            questions.add(tmpl.getString("qfmt"));
+        }
+        if (questions.equals(mParsedQuestions)) {
+            return mParsedNodes;
+        }
+        List<ParsedNode> nodes = new ArrayList<>(questions.size());
+        for (String format_question : questions) {
             ParsedNode node = null;
             try {
                 node = ParsedNode.parse_inner(format_question);
@@ -107,6 +131,8 @@ public class Model extends JSONObject {
             }
             nodes.add(node);
         }
-        return nodes;
+        mParsedQuestions = questions;
+        mParsedNodes = Collections.unmodifiableList(nodes);
+        return mParsedNodes;
     }
 }
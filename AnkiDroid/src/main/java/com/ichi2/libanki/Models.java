@@ -30,6 +30,7 @@ import com.ichi2.anki.exception.ConfirmModSchemaException;
 import com.ichi2.libanki.template.ParsedNode;
 import com.ichi2.libanki.template.TemplateError;
 import com.ichi2.utils.Assert;
+import com.ichi2.utils.BoundedLruCache;
 
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
@@ -43,7 +44,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -115,7 +115,7 @@ public class Models {
 
     private final Collection mCol;
     private boolean mChanged;
-    private HashMap<Long, Model> mModels;
+    private LazyJsonMap<Model> mModels;
 
     // BEGIN SQL table entries
     private int mId;
@@ -167,20 +167,17 @@ public class Models {
      */
     public void load(String json) {
         mChanged = false;
-        mModels = new HashMap<>();
-        JSONObject modelarray = new JSONObject(json);
-        JSONArray ids = modelarray.names();
-        if (ids != null) {
-            for (String id: ids.stringIterable()) {
-                Model o = new Model(modelarray.getJSONObject(id));
-                mModels.put(o.getLong("id"), o);
-            }
-        }
+        // models are only parsed when used
+        mModels = new LazyJsonMap<>(json, Model::new);
+        // changes which were not yet folded into the col table
+        mModels.apply(mCol.getRegistryChanges().read(RegistryChanges.MODELS));
+        mModels.clearChanged();
     }
 
 
     /**
      * Mark M modified if provided, and schedule registry flush.
+     * Without a model, the whole registry is written to the col table on the next flush.
      */
     public void save() {
         save(null, false);
@@ -204,8 +201,23 @@ public class Models {
             if (templates) {
                 _syncTemplates(m);
             }
+            if (mModels.containsKey(m.getLong("id"))) {
+                mModels.markChanged(m.getLong("id"));
+            }
+        } else {
+            mChanged = true;
         }
-        mChanged = true;
+        onChange();
+    }
+
+
+    /** Called when models were added, removed or changed, and recorded as such */
+    private void onChange() {
+        // searches refer to the names and ids of models, fields and templates
+        mCol.getSearchQueryCache().invalidate();
+        // templates may have changed; the entries of the former ones are not needed anymore
+        ParsedNode.getParseInnerCache().invalidate();
+        namesOfFieldsContainingClozeCache.invalidate();
         // The following hook rebuilds the tree in the Anki Desktop browser -- we don't need it
         // runHook("newModel")
     }
@@ -213,21 +225,39 @@ public class Models {
 
     /**
      * Flush the registry if any models were changed.
+     * <p>
+     * When a model was saved, the models modified in place since they were last written are written too.
      */
     public void flush() {
-        if (mChanged) {
+        RegistryChanges changes = mCol.getRegistryChanges();
+        if (!mChanged && !mModels.getChanged().isEmpty()) {
+            mModels.markModified();
+        }
+        if (mChanged || !mModels.getChanged().isEmpty()) {
             ensureNotEmpty();
-            JSONObject array = new JSONObject();
-            for (Map.Entry<Long, Model> o : mModels.entrySet()) {
-                array.put(Long.toString(o.getKey()), o.getValue());
-            }
+        }
+        if (mChanged) {
             ContentValues val = new ContentValues();
-            val.put("models", Utils.jsonToString(array));
+            val.put("models", mModels.toJson());
             mCol.getDb().update("col", val);
+            changes.clear(RegistryChanges.MODELS);
             mChanged = false;
+        } else {
+            // only the models which changed, see RegistryChanges
+            for (long mid : mModels.getChanged()) {
+                changes.write(RegistryChanges.MODELS, mid, mModels.toJson(mid));
+            }
         }
+        mModels.clearChanged();
+    }
+
+
+    /** Ensures that the next flush writes the models to the col table */
+    public void foldChanges() {
+        mChanged = true;
     }
 
+
     public boolean ensureNotEmpty() {
         if (mModels.isEmpty()) {
             // TODO: Maybe we want to restore all models if we don't have any
@@ -298,9 +328,10 @@ public class Models {
 
     /** get model with NAME. */
     public Model byName(String name) {
-        for (Model m : mModels.values()) {
-            if (m.getString("name").equals(name)) {
-                return m;
+        // compare the names without parsing the models
+        for (long id : mModels.keySet()) {
+            if (name.equals(mModels.getString(id, "name"))) {
+                return mModels.get(id);
             }
         }
         return null;
@@ -337,7 +368,7 @@ public class Models {
         mCol.remCards(mCol.getDb().queryLongList("SELECT id FROM cards WHERE nid IN (SELECT id FROM notes WHERE mid = ?)", id));
         // then the model
         mModels.remove(id);
-        save();
+        onChange();
         // GUI should ensure last model is not deleted
         if (current) {
             setCurrent(mModels.values().iterator().next());
@@ -357,7 +388,7 @@ public class Models {
     public void update(Model m) {
         mModels.put(m.getLong("id"), m);
         // mark registry changed, but don't bump mod time
-        save();
+        onChange();
     }
 
 
@@ -659,6 +690,7 @@ public class Models {
             }
         }
         mCol.getDb().executeMany("update notes set flds=?,mod=?,usn=? where id = ?", r);
+        mCol.getSearchIndex().updateNotes(Utils.ids2str(nids(m)));
     }
 
 
@@ -1081,7 +1113,14 @@ public class Models {
 
     /** Given a joined field string and a standard note type, return available template ordinals */
     public static ArrayList<Integer> _availStandardOrds(Model m, String[] sfld, List<ParsedNode> nodes, boolean allowEmpty) {
-        Set<String> nonEmptyFields = m.nonEmptyFields(sfld);
+        return _availStandardOrds(m.nonEmptyFields(sfld), nodes, allowEmpty);
+    }
+
+    /**
+     * @param nonEmptyFields The names of the non-empty fields of a note
+     * @param nodes Nodes of the questions of the note type
+     * @return The available template ordinals */
+    public static ArrayList<Integer> _availStandardOrds(Set<String> nonEmptyFields, List<ParsedNode> nodes, boolean allowEmpty) {
         ArrayList<Integer> avail = new ArrayList<>(nodes.size());
         for (int i = 0 ; i < nodes.size(); i++) {
             ParsedNode node = nodes.get(i);
@@ -1108,27 +1147,34 @@ public class Models {
     }
 
     /**
-     * Cache of getNamesOfFieldsContainingCloze
-     * Computing hash of string is costly. However, hash is cashed in the string object, so this virtually ensure that
-     * given a card type, we don't need to recompute the hash.
+     * Cache of getNamesOfFieldsContainingCloze, by question. Thread safe. Invalidated when a note type is saved.
      */
-    private static final WeakHashMap<String, List<String>> namesOfFieldsContainingClozeCache = new WeakHashMap<>();
+    private static final BoundedLruCache<String, List<String>> namesOfFieldsContainingClozeCache = new BoundedLruCache<>(64);
+
+
+    /** The cache of the cloze fields of questions, so that its hits, misses and evictions can be read */
+    public static BoundedLruCache<String, List<String>> getNamesOfFieldsContainingClozeCache() {
+        return namesOfFieldsContainingClozeCache;
+    }
 
     /** The name of all fields that are used as cloze in the question.
      * It is not guaranteed that the field found are actually the name of any field of the note type.*/
     @VisibleForTesting
     protected static List<String> getNamesOfFieldsContainingCloze(String question) {
-        if (! namesOfFieldsContainingClozeCache.containsKey(question)) {
-            List<String> matches = new ArrayList<>();
+        List<String> matches = namesOfFieldsContainingClozeCache.get(question);
+        if (matches == null) {
+            matches = new ArrayList<>();
             for (Pattern pattern : new Pattern[] {fClozePattern1, fClozePattern2}) {
                 Matcher mm = pattern.matcher(question);
                 while (mm.find()) {
                     matches.add(mm.group(1));
                 }
             }
+            // shared between threads
+            matches = Collections.unmodifiableList(matches);
             namesOfFieldsContainingClozeCache.put(question, matches);
         }
-        return namesOfFieldsContainingClozeCache.get(question);
+        return matches;
     }
 
     /**
@@ -1138,15 +1184,34 @@ public class Models {
      * @return The indexes (in increasing order) of cards that should be generated according to req rules.
      * If empty is not allowed, it will contains ord 1.*/
     public static ArrayList<Integer> _availClozeOrds(Model m, String[] sflds, boolean allowEmpty) {
+        return _availClozeOrds(clozeFieldOrds(m), sflds, allowEmpty);
+    }
+
+    /**
+     * @param m A note type with cloze
+     * @return The ords of the fields used as cloze in the question, which may contain the clozes of the cards.
+     */
+    public static List<Integer> clozeFieldOrds(Model m) {
         Map<String, Pair<Integer, JSONObject>> map = fieldMap(m);
         String question = m.getJSONArray("tmpls").getJSONObject(0).getString("qfmt");
-        Set<Integer> ords = new HashSet<>();
-        List<String> matches = getNamesOfFieldsContainingCloze(question);
-        for (String fname : matches) {
-            if (!map.containsKey(fname)) {
-                continue;
+        List<Integer> fieldOrds = new ArrayList<>();
+        for (String fname : getNamesOfFieldsContainingCloze(question)) {
+            if (map.containsKey(fname)) {
+                fieldOrds.add(map.get(fname).first);
             }
-            int ord = map.get(fname).first;
+        }
+        return fieldOrds;
+    }
+
+    /**
+     * @param clozeFieldOrds The ords of the fields used as cloze, see {@link #clozeFieldOrds(Model)}
+     * @param sflds The fields of a note
+     * @param allowEmpty Whether we allow to generate at least one card even if they are all empty
+     * @return The indexes (in increasing order) of cards that should be generated according to req rules.
+     */
+    public static ArrayList<Integer> _availClozeOrds(List<Integer> clozeFieldOrds, String[] sflds, boolean allowEmpty) {
+        Set<Integer> ords = new HashSet<>();
+        for (int ord : clozeFieldOrds) {
             Matcher mm = fClozeOrdPattern.matcher(sflds[ord]);
             while (mm.find()) {
                 ords.add(Integer.parseInt(mm.group(1)) - 1);
@@ -1205,7 +1270,7 @@ public class Models {
     }
 
 
-    public HashMap<Long, Model> getModels() {
+    public Map<Long, Model> getModels() {
         return mModels;
     }
 
@@ -136,6 +136,7 @@ public class Note implements Cloneable {
         mMod = mod != null ? mod : mCol.getTime().intTime();
         mCol.getDb().execute("insert or replace into notes values (?,?,?,?,?,?,?,?,?,?,?)",
                 mId, mGuId, mMid, mMod, mUsn, tags, fields, sfld, csum, mFlags, mData);
+        mCol.getSearchIndex().updateNote(mId, fields, sfld);
         mCol.getTags().register(mTags);
         _postFlush();
     }
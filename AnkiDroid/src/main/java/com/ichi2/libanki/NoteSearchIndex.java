@@ -0,0 +1,182 @@
+package com.ichi2.libanki;
+
+import java.io.File;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Optional full text index of the notes, so that {@link Finder} doesn't scan the whole notes table for text and field
+ * searches. Not in LibAnki.
+ * <p>
+ * The index is an FTS5 table with the trigram tokenizer, which lets SQLite answer {@code like '%text%'} from the index.
+ * It holds the same flds and sfld as the notes table, so searches return the same notes with and without it. It is
+ * stored in its own database, attached to the collection, so that the collection file stays readable by other
+ * clients. It only exists once built by {@link #rebuild()}, and only where SQLite was built with FTS5.
+ * <p>
+ * Notes changed by AnkiDroid are updated in the index as they are written. The modification time of the collection is
+ * recorded when it is saved; if it differs when the collection is opened, the collection was changed elsewhere, for
+ * example by a full sync, and the index isn't used until rebuilt.
+ */
+public class NoteSearchIndex {
+    /** Name of the attached database */
+    public static final String SCHEMA = "search";
+    /** The index table, as used in queries */
+    public static final String TABLE = SCHEMA + ".notes_fts";
+
+    private final Collection mCol;
+    private final String mPath;
+    /** The connection the index is attached to, null if it isn't attached */
+    @Nullable
+    private DB mAttachedTo;
+    private boolean mStale;
+
+
+    public NoteSearchIndex(@NonNull Collection col) {
+        mCol = col;
+        mPath = getIndexPath(col.getPath());
+    }
+
+
+    @NonNull
+    public static String getIndexPath(String collectionPath) {
+        return collectionPath.replaceFirst("\\.anki2$", ".search.ad.db");
+    }
+
+
+    /**
+     * Attaches the index to the collection database, if it was built. Must not be called in a transaction.
+     */
+    public void open() {
+        if (!new File(mPath).exists()) {
+            return;
+        }
+        try {
+            DB db = isAttached() ? mAttachedTo : attach();
+            long mod = db.queryLongScalar("select colMod from " + SCHEMA + ".meta");
+            mStale = mod != mCol.getMod();
+            if (mStale) {
+                Timber.i("Search index is stale, searching without it");
+            }
+        } catch (RuntimeException e) {
+            // FTS5 is not available, or the index is corrupt
+            Timber.w(e, "Failed to open the search index");
+            detach();
+        }
+    }
+
+
+    /**
+     * @return Whether Finder can use the index
+     */
+    public boolean isUsable() {
+        return isAttached() && !mStale;
+    }
+
+
+    /** The collection may have been reopened since the index was attached */
+    private boolean isAttached() {
+        return mAttachedTo != null && mAttachedTo == mCol.getDb();
+    }
+
+
+    /**
+     * Builds the index from scratch, creating it if needed. Must not be called in a transaction.
+     *
+     * @return Whether the index could be built, which requires FTS5 and its trigram tokenizer
+     */
+    public boolean rebuild() {
+        try {
+            DB db = isAttached() ? mAttachedTo : attach();
+            db.execute("create virtual table if not exists " + TABLE + " using fts5(flds, sfld, tokenize = 'trigram')");
+            db.execute("create table if not exists " + SCHEMA + ".meta (colMod int not null)");
+            db.executeInTransaction(() -> {
+                db.execute("delete from " + TABLE);
+                db.execute("insert into " + TABLE + " (rowid, flds, sfld) select id, flds, sfld from notes");
+                db.execute("delete from " + SCHEMA + ".meta");
+                db.execute("insert into " + SCHEMA + ".meta values (?)", mCol.getMod());
+            });
+            mStale = false;
+            Timber.i("Search index rebuilt");
+            return true;
+        } catch (RuntimeException e) {
+            Timber.w(e, "Failed to build the search index");
+            detach();
+            if (!new File(mPath).delete()) {
+                Timber.w("Failed to delete %s", mPath);
+            }
+            return false;
+        }
+    }
+
+
+    /** Records the state of a note which was just written. */
+    public void updateNote(long nid, String flds, String sfld) {
+        if (!isUsable()) {
+            return;
+        }
+        DB db = mCol.getDb();
+        db.execute("delete from " + TABLE + " where rowid = ?", nid);
+        db.execute("insert into " + TABLE + " (rowid, flds, sfld) values (?,?,?)", nid, flds, sfld);
+    }
+
+
+    /**
+     * Copies the current state of the notes to the index.
+     * @param snids comma separated nids, in parentheses
+     */
+    public void updateNotes(String snids) {
+        if (!isUsable()) {
+            return;
+        }
+        DB db = mCol.getDb();
+        db.execute("delete from " + TABLE + " where rowid in " + snids);
+        db.execute("insert into " + TABLE + " (rowid, flds, sfld) select id, flds, sfld from notes where id in " + snids);
+    }
+
+
+    /**
+     * Removes deleted notes from the index.
+     * @param snids comma separated nids, in parentheses
+     */
+    public void removeNotes(String snids) {
+        if (!isUsable()) {
+            return;
+        }
+        mCol.getDb().execute("delete from " + TABLE + " where rowid in " + snids);
+    }
+
+
+    /** Records the modification time the collection was saved with. */
+    public void onSave(long mod) {
+        if (!isUsable()) {
+            return;
+        }
+        mCol.getDb().execute("update " + SCHEMA + ".meta set colMod = ?", mod);
+    }
+
+
+    private DB attach() {
+        DB db = mCol.getDb();
+        db.execute(String.format(Locale.US, "attach database \"%s\" as %s", mPath, SCHEMA));
+        mAttachedTo = db;
+        return db;
+    }
+
+
+    private void detach() {
+        if (mAttachedTo == null) {
+            return;
+        }
+        try {
+            if (isAttached()) {
+                mAttachedTo.execute("detach database " + SCHEMA);
+            }
+        } catch (RuntimeException e) {
+            Timber.w(e, "Failed to detach the search index");
+        }
+        mAttachedTo = null;
+    }
+}
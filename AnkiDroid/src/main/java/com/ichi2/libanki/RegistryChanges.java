@@ -0,0 +1,140 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Decks, deck options and note types which changed since the JSON of their registry was last written to the col
+ * table. Not in LibAnki.
+ * <p>
+ * Rewriting the decks column each time a deck changes means writing megabytes for a collection with thousands of
+ * decks. Instead, each changed object is written to this table, keyed by registry and id, and applied over the JSON
+ * of the col table when the registry is loaded.
+ * <p>
+ * Other clients, backups and exports only read the col table. So the changes are folded into the col table, and this
+ * table dropped, when the collection is closed, with or without saving, which also happens before a full upload and a
+ * complete export, before a backup, and at the first save once changes have been pending for
+ * {@link #FOLD_INTERVAL_MS}. Filtered exports write a new collection, which is closed too. The collection is usually
+ * killed rather than closed, so changes left by a previous session are folded at the first save.
+ */
+public class RegistryChanges {
+    public static final String TABLE = "ad_registry_changes";
+
+    public static final String DECKS = "decks";
+    public static final String DCONF = "dconf";
+    public static final String MODELS = "models";
+
+    /** How long changes may stay in this table while the collection is open */
+    public static final long FOLD_INTERVAL_MS = 5 * 60 * 1000;
+
+    /** Value of {@link #mPendingSince} when no change is known to be pending */
+    private static final long NOTHING_PENDING = 0;
+
+    private final Collection mCol;
+    /** The connection on which the table is known to exist */
+    @Nullable
+    private DB mCreatedOn;
+    /** When the oldest change not folded into the col table was written, in ms */
+    private long mPendingSince = NOTHING_PENDING;
+
+
+    public RegistryChanges(@NonNull Collection col) {
+        mCol = col;
+    }
+
+
+    /**
+     * @return The JSON of the objects of the registry which changed by id, null for removed objects
+     */
+    @NonNull
+    public Map<Long, String> read(@NonNull String registry) {
+        Map<Long, String> changes = new HashMap<>();
+        if (!exists()) {
+            return changes;
+        }
+        try (Cursor cur = mCol.getDb().query("select id, json from " + TABLE + " where registry = ?", registry)) {
+            while (cur.moveToNext()) {
+                changes.put(cur.getLong(0), cur.isNull(1) ? null : cur.getString(1));
+            }
+        }
+        if (!changes.isEmpty() && mPendingSince == NOTHING_PENDING) {
+            // left by a previous session, so as old as can be
+            mPendingSince = 1;
+        }
+        return changes;
+    }
+
+
+    /** @return Whether some changes were not folded into the col table */
+    public boolean isEmpty() {
+        return !exists() || mCol.getDb().queryScalar("select exists (select 1 from " + TABLE + ")") == 0;
+    }
+
+
+    /**
+     * Records the current state of an object.
+     * @param json The JSON of the object, null if it was removed
+     */
+    public void write(@NonNull String registry, long id, @Nullable String json) {
+        if (!exists()) {
+            mCol.getDb().execute("create table if not exists " + TABLE
+                    + " (registry text not null, id integer not null, json text, primary key (registry, id))");
+            mCreatedOn = mCol.getDb();
+        }
+        mCol.getDb().execute("insert or replace into " + TABLE + " values (?, ?, ?)", registry, id, json);
+        if (mPendingSince == NOTHING_PENDING) {
+            mPendingSince = mCol.getTime().intTimeMS();
+        }
+    }
+
+
+    /** @return Whether some changes have been pending for long enough to be folded into the col table */
+    public boolean isDue() {
+        if (mPendingSince == NOTHING_PENDING || mCol.getTime().intTimeMS() - mPendingSince < FOLD_INTERVAL_MS) {
+            return false;
+        }
+        if (isEmpty()) {
+            // the whole registries were written since
+            mPendingSince = NOTHING_PENDING;
+            return false;
+        }
+        return true;
+    }
+
+
+    /** Forgets the changes of the registry, once its whole JSON was written to the col table */
+    public void clear(@NonNull String registry) {
+        if (exists()) {
+            mCol.getDb().execute("delete from " + TABLE + " where registry = ?", registry);
+        }
+    }
+
+
+    /** Removes the table, once every change was folded into the col table */
+    public void drop() {
+        if (exists()) {
+            mCol.getDb().execute("drop table " + TABLE);
+        }
+        mCreatedOn = null;
+        mPendingSince = NOTHING_PENDING;
+    }
+
+
+    private boolean exists() {
+        DB db = mCol.getDb();
+        if (mCreatedOn != null && mCreatedOn == db) {
+            return true;
+        }
+        if (db.queryScalar("select count() from sqlite_master where type = 'table' and name = ?", TABLE) == 0) {
+            return false;
+        }
+        // the collection may have been reopened since
+        mCreatedOn = db;
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package com.ichi2.libanki;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Searches compiled by {@link Finder}, so that the browser doesn't tokenize the query, build the SQL and go through
+ * every model again each time the same search is run, for example while the user types. Not in LibAnki.
+ * <p>
+ * A compiled search depends on the models and decks, so the cache is cleared whenever they are saved. Searches which
+ * depend on the current day or deck are not cached.
+ * <p>
+ * Also counts the time spent compiling and executing searches.
+ */
+public class SearchQueryCache {
+    public static final int CAPACITY = 64;
+
+    private final Map<String, CompiledSearch> mCache = new LinkedHashMap<String, CompiledSearch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<String, CompiledSearch> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private long mHits;
+    private long mMisses;
+    private long mCompileNanos;
+    private long mExecuteNanos;
+    private long mExecutions;
+
+
+    @Nullable
+    public synchronized CompiledSearch get(@NonNull String key) {
+        CompiledSearch search = mCache.get(key);
+        if (search != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return search;
+    }
+
+
+    public synchronized void put(@NonNull String key, @NonNull CompiledSearch search) {
+        mCache.put(key, search);
+    }
+
+
+    /** Forgets every compiled search, as the models or decks they refer to changed. */
+    public synchronized void invalidate() {
+        mCache.clear();
+    }
+
+
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+
+    /** Records the time taken to get the compiled search, from the cache or not */
+    public synchronized void recordCompile(long nanos) {
+        mCompileNanos += nanos;
+    }
+
+
+    /** Records the time taken to run a compiled search and read its results */
+    public synchronized void recordExecute(long nanos) {
+        mExecuteNanos += nanos;
+        mExecutions++;
+    }
+
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+
+    public synchronized long getCompileNanos() {
+        return mCompileNanos;
+    }
+
+
+    public synchronized long getExecuteNanos() {
+        return mExecuteNanos;
+    }
+
+
+    public synchronized long getExecutions() {
+        return mExecutions;
+    }
+
+
+    /** A query ready to run against the collection */
+    public static class CompiledSearch {
+        private final String mSql;
+        private final String[] mArgs;
+        private final boolean mReverse;
+
+
+        public CompiledSearch(@NonNull String sql, @NonNull String[] args, boolean reverse) {
+            mSql = sql;
+            mArgs = args;
+            mReverse = reverse;
+        }
+
+
+        public String getSql() {
+            return mSql;
+        }
+
+
+        /** Arguments of the placeholders of the sql. Must not be modified. */
+        public String[] getArgs() {
+            return mArgs;
+        }
+
+
+        /** Whether the results must be reversed */
+        public boolean isReverse() {
+            return mReverse;
+        }
+    }
+}
@@ -12,18 +12,26 @@
  */
 package com.ichi2.libanki;
 
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
+import android.database.Cursor;
+
+import com.ichi2.async.ProgressSenderAndCancelListener;
+import com.ichi2.utils.LongArrayList;
+
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class TextCardExporter extends Exporter {
 
     public static final String EXT = ".txt";
+    private static final Pattern QUESTION_PATTERN = Pattern.compile("(?si)^.*<hr id=answer>\\n*");
+    /** Number of cards rendered together */
+    private static final int RENDER_BATCH_SIZE = 256;
 
 
     public TextCardExporter(@NonNull Collection col, boolean includeHTML) {
@@ -45,21 +53,50 @@ public class TextCardExporter extends Exporter {
      * @throws IOException encountered an error while writing the csv file
      */
     public void doExport(@NonNull String path) throws IOException {
-        final Long[] ids = cardIds();
-        Arrays.sort(ids);
-
-        final StringBuilder out = new StringBuilder();
-        for (Long cid : ids) {
-            final Card c = mCol.getCard(cid);
-            out.append(esc(c.q()));
-            out.append("\t");
-            out.append(esc(c.a()));
-            out.append("\n");
+        doExport(path, null);
+    }
+
+
+    /**
+     * Exports into a csv(tsv) file, in card id order. Cards are rendered in batches, and written once rendered.
+     *
+     * @param path path of the file
+     * @param task Sent the number of cards exported after each batch, and may cancel the export
+     * @throws IOException encountered an error while writing the csv file
+     * @throws java.util.concurrent.CancellationException if cancelled, once the file is deleted
+     */
+    public void doExport(@NonNull String path, @Nullable ProgressSenderAndCancelListener<Integer> task) throws IOException {
+        // Rendering queries the collection, so the ids are read first. Unboxed, they are small even for large decks.
+        final LongArrayList ids = new LongArrayList();
+        try (Cursor cursor = mCol.getDb().query("SELECT id FROM cards c WHERE " + cardLimit() + " ORDER BY id")) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
         }
+        mCount = ids.size();
 
-        try (BufferedWriter writer =
-                     new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
-            writer.write(out.toString());
+        boolean cancelled = false;
+        try (Writer writer = openTextWriter(path)) {
+            List<Card> cards = new ArrayList<>(RENDER_BATCH_SIZE);
+            for (int start = 0; start < ids.size() && !cancelled; start += RENDER_BATCH_SIZE) {
+                cards.clear();
+                for (int i = start; i < Math.min(start + RENDER_BATCH_SIZE, ids.size()); i++) {
+                    cards.add(mCol.getCard(ids.get(i)));
+                }
+                // rendered on several threads, then written in order
+                Card.loadQA(mCol, cards, false);
+                for (int i = 0; i < cards.size(); i++) {
+                    final Card c = cards.get(i);
+                    writer.write(esc(c.q()));
+                    writer.write('\t');
+                    writer.write(esc(c.a()));
+                    writer.write('\n');
+                }
+                cancelled = onBatchExported(task, start + cards.size());
+            }
+        }
+        if (cancelled) {
+            throw cancelledExport(path);
         }
     }
 
@@ -72,7 +109,7 @@ public class TextCardExporter extends Exporter {
      */
     @NonNull
     private String esc(@NonNull String s) {
-        s = s.replaceAll("(?si)^.*<hr id=answer>\\n*", "");
+        s = QUESTION_PATTERN.matcher(s).replaceAll("");
         return processText(s);
     }
 }
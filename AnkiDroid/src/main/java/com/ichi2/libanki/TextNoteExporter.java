@@ -13,19 +13,15 @@
 package com.ichi2.libanki;
 
 import android.database.Cursor;
-import android.text.TextUtils;
 
+import com.ichi2.async.ProgressSenderAndCancelListener;
 import com.ichi2.utils.StringUtil;
 
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.Writer;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class TextNoteExporter extends Exporter {
 
@@ -50,46 +46,59 @@ public class TextNoteExporter extends Exporter {
     }
 
 
-    public void doExport(String path) throws IOException {
-        final Long[] ids = cardIds();
-
-        final String queryStr = String.format(
-                "SELECT guid, flds, tags from notes " +
-                        "WHERE id in " +
-                        "(SELECT nid from cards WHERE cards.id in %s)", Utils.ids2str(cardIds()));
-
-        final List<String> data = new ArrayList<>();
-
-        try (final Cursor cursor = mCol.getDb().query(queryStr)) {
-            while (cursor.moveToNext()) {
-                final String id = cursor.getString(0);
-                final String flds = cursor.getString(1);
-                final String tags = cursor.getString(2);
+    public void doExport(@NonNull String path) throws IOException {
+        doExport(path, null);
+    }
 
-                final List<String> row = new ArrayList<>();
 
+    /**
+     * Exports the notes, one per line, in id order. Notes are written as they are read, so that the size of the
+     * collection doesn't matter.
+     *
+     * @param task Sent the number of notes exported every {@link #PROGRESS_INTERVAL} notes, and may cancel the export
+     * @throws java.util.concurrent.CancellationException if cancelled, once the file is deleted
+     */
+    public void doExport(@NonNull String path, @Nullable ProgressSenderAndCancelListener<Integer> task) throws IOException {
+        final String queryStr = "SELECT guid, flds, tags FROM notes " +
+                "WHERE id IN (SELECT nid FROM cards c WHERE " + cardLimit() + ") ORDER BY id";
+
+        int count = 0;
+        boolean cancelled = false;
+        try (Writer writer = openTextWriter(path);
+             Cursor cursor = mCol.getDb().query(queryStr)) {
+            while (!cancelled && cursor.moveToNext()) {
+                if (count > 0) {
+                    writer.write('\n');
+                }
+                boolean firstColumn = true;
                 if (mIncludeID) {
-                    row.add(id);
+                    writer.write(cursor.getString(0));
+                    firstColumn = false;
                 }
 
-                for (String field : Utils.splitFields(flds)) {
-                    row.add(processText(field));
+                for (String field : Utils.splitFields(cursor.getString(1))) {
+                    if (!firstColumn) {
+                        writer.write('\t');
+                    }
+                    writer.write(processText(field));
+                    firstColumn = false;
                 }
 
                 if (mIncludedTags) {
-                    row.add(StringUtil.strip(tags));
+                    if (!firstColumn) {
+                        writer.write('\t');
+                    }
+                    writer.write(StringUtil.strip(cursor.getString(2)));
+                }
+                count++;
+                if (count % PROGRESS_INTERVAL == 0) {
+                    cancelled = onBatchExported(task, count);
                 }
-
-                data.add(TextUtils.join("\t", row));
             }
         }
-
-        mCount = data.size();
-        final String out = TextUtils.join("\n", data);
-
-        try (BufferedWriter writer =
-                     new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
-            writer.write(out.toString());
+        if (cancelled) {
+            throw cancelledExport(path);
         }
+        mCount = count;
     }
 }
\ No newline at end of file
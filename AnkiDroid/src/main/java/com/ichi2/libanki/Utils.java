@@ -51,7 +51,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -62,6 +64,7 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -541,6 +544,7 @@ public class Utils {
         return fields.split(FIELD_SEPARATOR, -1);
     }
 
+
     /*
      * Checksums
      * ***********************************************************************************************
@@ -992,7 +996,7 @@ public class Utils {
      * @see org.json.JSONObject#toString()
      */
     public static String jsonToString(JSONObject json) {
-        return json.toString().replaceAll("\\\\/", "/");
+        return jsonToString((Object) json);
     }
 
     /**
@@ -1006,7 +1010,122 @@ public class Utils {
      * @see org.json.JSONArray#toString()
      */
     public static String jsonToString(JSONArray json) {
-        return json.toString().replaceAll("\\\\/", "/");
+        return jsonToString((Object) json);
+    }
+
+
+    private static String jsonToString(Object json) {
+        StringWriter out = new StringWriter(256);
+        try {
+            writeJson(json, out);
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+
+    /**
+     * Writes the JSON object or array to out as {@link #jsonToString(JSONObject)} would, without building the string
+     * of the whole object first, and of each nested object. Decks and models are written as JSON of several
+     * megabytes on large collections.
+     *
+     * @param json an org.json object or array
+     * @throws JSONException if a number is not finite
+     */
+    public static void writeJson(@NonNull Object json, @NonNull Writer out) throws IOException {
+        // not flushed nor closed, out belongs to the caller
+        writeJsonValue(json, out);
+    }
+
+
+    private static void writeJsonValue(@Nullable Object json, @NonNull Writer out) throws IOException {
+        if (json instanceof org.json.JSONObject) {
+            org.json.JSONObject object = (org.json.JSONObject) json;
+            out.write('{');
+            Iterator<String> keys = object.keys();
+            boolean first = true;
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeJsonString(key, out);
+                out.write(':');
+                writeJsonValue(object.opt(key), out);
+            }
+            out.write('}');
+        } else if (json instanceof org.json.JSONArray) {
+            org.json.JSONArray array = (org.json.JSONArray) json;
+            out.write('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeJsonValue(array.opt(i), out);
+            }
+            out.write(']');
+        } else if (json == null || json == org.json.JSONObject.NULL) {
+            out.write("null");
+        } else if (json instanceof Boolean) {
+            out.write(json.toString());
+        } else if (json instanceof Number) {
+            // integral doubles are written without a fraction, as org.json does
+            try {
+                out.write(org.json.JSONObject.numberToString((Number) json));
+            } catch (org.json.JSONException e) {
+                throw new JSONException(e);
+            }
+        } else {
+            writeJsonString(json.toString(), out);
+        }
+    }
+
+
+    /** Writes the string quoted and escaped as org.json does, except for forward slashes */
+    private static void writeJsonString(@NonNull String value, @NonNull Writer out) throws IOException {
+        out.write('"');
+        // characters which don't need to be escaped are written by runs
+        int run = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"':
+                    escaped = "\\\"";
+                    break;
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+                case '\t':
+                    escaped = "\\t";
+                    break;
+                case '\b':
+                    escaped = "\\b";
+                    break;
+                case '\n':
+                    escaped = "\\n";
+                    break;
+                case '\r':
+                    escaped = "\\r";
+                    break;
+                case '\f':
+                    escaped = "\\f";
+                    break;
+                default:
+                    // other characters, such as U+2028 and U+2029, are written as they are
+                    escaped = c <= 0x1F ? String.format(Locale.US, "\\u%04x", (int) c) : null;
+            }
+            if (escaped != null) {
+                out.write(value, run, i - run);
+                out.write(escaped);
+                run = i + 1;
+            }
+        }
+        out.write(value, run, value.length() - run);
+        out.write('"');
     }
 
     /**
@@ -63,7 +63,22 @@ public class ChessFilter {
     		"})('%s', %b)";
 
     public static String fenToChessboard(String text, Context context) {
-        if (!AnkiDroidApp.getSharedPrefs(context).getBoolean("convertFenText", false)) {
+        return fenToChessboard(text, isEnabled(context));
+    }
+
+
+    /** @return Whether FEN text is converted to a chessboard, as set in the preferences */
+    public static boolean isEnabled(Context context) {
+        return AnkiDroidApp.getSharedPrefs(context).getBoolean("convertFenText", false);
+    }
+
+
+    /**
+     * @param enabled Whether to convert, see {@link #isEnabled(Context)}. The conversion itself only depends on the
+     *                text, so that it can be done on any thread.
+     */
+    public static String fenToChessboard(String text, boolean enabled) {
+        if (!enabled) {
             return text;
         }
         boolean showBlack = false;
@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.text.TextUtils;
 import android.util.Pair;
 
+import com.ichi2.anki.BackupManager;
 import com.ichi2.anki.R;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
 import com.ichi2.anki.exception.ImportExportException;
@@ -35,6 +36,7 @@ import com.ichi2.libanki.Storage;
 import com.ichi2.libanki.Utils;
 import com.ichi2.libanki.DeckConfig;
 import com.ichi2.libanki.Deck;
+import com.ichi2.utils.LongArrayList;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
@@ -50,6 +52,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,6 +76,8 @@ import static com.ichi2.libanki.Consts.QUEUE_TYPE_REV;
 public class Anki2Importer extends Importer {
 
     private static final int MEDIAPICKLIMIT = 1024;
+    /** Name of the folder, next to the collection, where media files are written before being moved to the media folder */
+    private static final String MEDIA_TMP_DIR = "tmpimportmedia";
 
     private final String mDeckPrefix;
     private final boolean mAllowUpdate;
@@ -97,6 +106,14 @@ public class Anki2Importer extends Importer {
     /** If importing SchedV1 into SchedV2 we need to reset the learning cards */
     private boolean mMustResetLearning;
 
+    /** Copies the media files while the notes and cards are imported */
+    private ExecutorService mMediaExecutor;
+    /** The media files being copied, by name in the destination. Only accessed by the importing thread. */
+    private final Map<String, Future<Boolean>> mMediaCopies = new HashMap<>();
+    /** The media files found in the destination, whose entry in the media db was checked */
+    private final Set<String> mCheckedDstMedia = new HashSet<>();
+    private File mMediaTmpDir;
+
     public Anki2Importer(Collection col, String file) {
         super(col, file);
         mNeedMapper = false;
@@ -141,6 +158,7 @@ public class Anki2Importer extends Importer {
 
     private void _import() {
         mDecks = new HashMap<>(mSrc.getDecks().count());
+        _startMediaCopies();
         try {
             // Use transactions for performance and rollbacks in case of error
             mDst.getDb().getDatabase().beginTransaction();
@@ -159,6 +177,7 @@ public class Anki2Importer extends Importer {
             _importCards();
             Timber.i("Importing Media");
             _importStaticMedia();
+            _finishMediaCopies();
             publishProgress(100, 100, 25);
             Timber.i("Performing post-import");
             _postImport();
@@ -172,6 +191,7 @@ public class Anki2Importer extends Importer {
             // endTransaction throws about invalid transaction even when you check first!
             DB.safeEndInTransaction(mDst.getDb());
             DB.safeEndInTransaction(mDst.getMedia().getDb());
+            _stopMediaCopies();
         }
         Timber.i("Performing vacuum/analyze");
         try {
@@ -220,18 +240,19 @@ public class Anki2Importer extends Importer {
         mIgnoredGuids = new HashSet<>();
         // iterate over source collection
         int nbNoteToImport = mSrc.noteCount();
-        ArrayList<Object[]> add = new ArrayList<>(nbNoteToImport);
-        int totalAddCount = 0;
+        // the source is read and written in batches, so the buffers are no larger than a batch
         final int thresExecAdd = 1000;
-        ArrayList<Object[]> update = new ArrayList<>(nbNoteToImport);
-        int totalUpdateCount = 0;
+        ArrayList<Object[]> add = new ArrayList<>(Math.min(nbNoteToImport, thresExecAdd));
+        int totalAddCount = 0;
         final int thresExecUpdate = 1000;
-        ArrayList<Long> dirty = new ArrayList<>(nbNoteToImport);
-        int totalDirtyCount = 0;
+        ArrayList<Object[]> update = new ArrayList<>(Math.min(nbNoteToImport, thresExecUpdate));
+        int totalUpdateCount = 0;
         final int thresExecDirty = 1000;
+        ArrayList<Long> dirty = new ArrayList<>(Math.min(nbNoteToImport, thresExecDirty));
+        int totalDirtyCount = 0;
         int usn = mDst.usn();
         int dupes = 0;
-        ArrayList<String> dupesIgnored = new ArrayList<>(nbNoteToImport);
+        ArrayList<String> dupesIgnored = new ArrayList<>();
         mDst.getDb().getDatabase().beginTransaction();
         try (Cursor cur = mSrc.getDb().getDatabase().query("select id, guid, mid, mod, tags, flds, sfld, csum, flags, data  from notes", null)) {
             // Counters for progress updates
@@ -537,12 +558,12 @@ public class Anki2Importer extends Importer {
         }
         // loop through src
         int nbCardsToImport = mSrc.cardCount();
-        List<Object[]> cards = new ArrayList<>(nbCardsToImport);
-        int totalCardCount = 0;
         final int thresExecCards = 1000;
-        List<Object[]> revlog = new ArrayList<>(mSrc.getSched().logCount());
-        int totalRevlogCount = 0;
-        final int thresExecRevlog = 1000;
+        List<Object[]> cards = new ArrayList<>(Math.min(nbCardsToImport, thresExecCards));
+        int totalCardCount = 0;
+        // ids in the source of the imported cards, and the new id of those whose id changed, to import their revlog
+        LongArrayList importedScids = new LongArrayList(nbCardsToImport);
+        Map<Long, Long> changedCids = new HashMap<>();
         int usn = mDst.usn();
         long aheadBy = mSrc.getSched().getToday() - mDst.getSched().getToday();
         mDst.getDb().getDatabase().beginTransaction();
@@ -624,15 +645,10 @@ public class Anki2Importer extends Importer {
                     }
                 }
                 cards.add(new Object[]{cid, nid, did, ord, mod, usn, type, queue, due, ivl, factor, reps, lapses, left, odue, odid, flags, data});
-                // we need to import revlog, rewriting card ids and bumping usn
-                try (Cursor cur2 = mSrc.getDb().query("select * from revlog where cid = " + scid)) {
-                    while (cur2.moveToNext()) {
-                        Object[] rev = new Object[] { cur2.getLong(0), cur2.getLong(1), cur2.getInt(2), cur2.getInt(3),
-                                cur2.getLong(4), cur2.getLong(5), cur2.getLong(6), cur2.getLong(7), cur2.getInt(8) };
-                        rev[1] = cid;
-                        rev[2] = mDst.usn();
-                        revlog.add(rev);
-                    }
+                // the revlog is imported once all cards are known, rather than queried for each card
+                importedScids.add(scid);
+                if (cid != scid) {
+                    changedCids.put(scid, cid);
                 }
                 i++;
                 // apply card changes partially
@@ -642,13 +658,6 @@ public class Anki2Importer extends Importer {
                     cards.clear();
                     Timber.d("add cards: %d", totalCardCount);
                 }
-                // apply revlog changes partially
-                if (revlog.size() >= thresExecRevlog) {
-                    totalRevlogCount += revlog.size();
-                    insertRevlog(revlog);
-                    revlog.clear();
-                    Timber.d("add revlog: %d", totalRevlogCount);
-                }
 
                 if (total != 0 && (!largeCollection || i % onePercent == 0)) {
                     publishProgress(100, i * 100 / total, 0);
@@ -658,14 +667,11 @@ public class Anki2Importer extends Importer {
 
             // count total values
             totalCardCount += cards.size();
-            totalRevlogCount += revlog.size();
             Timber.d("add cards total:  %d", totalCardCount);
-            Timber.d("add revlog total: %d", totalRevlogCount);
             // apply (for last chunk)
             insertCards(cards);
             cards.clear();
-            insertRevlog(revlog);
-            revlog.clear();
+            _importRevlog(importedScids, changedCids);
             mLog.add(getRes().getString(R.string.import_complete_count, totalCardCount));
             mDst.getDb().getDatabase().setTransactionSuccessful();
         } finally {
@@ -673,6 +679,44 @@ public class Anki2Importer extends Importer {
         }
     }
 
+    /**
+     * Imports the revlog of the imported cards in a single pass over the source revlog, rewriting card ids and bumping
+     * usn.
+     *
+     * @param importedScids Source ids of the imported cards
+     * @param changedCids New ids of the imported cards whose id changed, by source id
+     */
+    private void _importRevlog(LongArrayList importedScids, Map<Long, Long> changedCids) {
+        long[] scids = importedScids.toArray();
+        Arrays.sort(scids);
+        final int thresExecRevlog = 1000;
+        List<Object[]> revlog = new ArrayList<>(thresExecRevlog);
+        int totalRevlogCount = 0;
+        int usn = mDst.usn();
+        try (Cursor cur = mSrc.getDb().query("select * from revlog")) {
+            while (cur.moveToNext()) {
+                long scid = cur.getLong(1);
+                if (Arrays.binarySearch(scids, scid) < 0) {
+                    continue;
+                }
+                Long cid = changedCids.get(scid);
+                Object[] rev = new Object[] { cur.getLong(0), cid != null ? cid : scid, usn, cur.getInt(3),
+                        cur.getLong(4), cur.getLong(5), cur.getLong(6), cur.getLong(7), cur.getInt(8) };
+                revlog.add(rev);
+                // apply revlog changes partially
+                if (revlog.size() >= thresExecRevlog) {
+                    totalRevlogCount += revlog.size();
+                    insertRevlog(revlog);
+                    revlog.clear();
+                    Timber.d("add revlog: %d", totalRevlogCount);
+                }
+            }
+        }
+        totalRevlogCount += revlog.size();
+        Timber.d("add revlog total: %d", totalRevlogCount);
+        insertRevlog(revlog);
+    }
+
     private void insertCards(List<Object[]> cards) {
         mDst.getDb().executeManyNoTransaction("insert or ignore into cards values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
     }
@@ -698,12 +742,13 @@ public class Anki2Importer extends Importer {
         }
         for (File f : new File(dir).listFiles()) {
             String fname = f.getName();
-            if (fname.startsWith("_") && ! mDst.getMedia().have(fname)) {
-                try (BufferedInputStream data = _srcMediaData(fname)) {
-                    _writeDstMedia(fname, data);
-                } catch (IOException e) {
-                    Timber.w(e, "Failed to close stream");
-                }
+            if (!fname.startsWith("_")) {
+                continue;
+            }
+            if (!_haveDstMedia(fname)) {
+                _copyDstMedia(fname, fname);
+            } else {
+                _markUntrackedDstMedia(fname);
             }
         }
     }
@@ -739,12 +784,111 @@ public class Anki2Importer extends Importer {
     }
 
 
-    private void _writeDstMedia(String fname, BufferedInputStream data) {
+    /**
+     * Media are copied on a pool of workers, while notes are imported, the importing thread only deciding which files
+     * to copy.
+     * <p>
+     * Files are written to a temporary folder and only moved to the media folder once complete. So if the import is
+     * interrupted, the media folder only contains complete files, and as identical files are not copied again, the
+     * next attempt resumes copying from where it stopped. It marks the files already moved as added, see
+     * {@link #_markUntrackedDstMedia(String)}.
+     */
+    private void _startMediaCopies() {
+        mMediaTmpDir = new File(new File(mCol.getPath()).getParent(), MEDIA_TMP_DIR);
+        // left by an interrupted import
+        if (mMediaTmpDir.exists()) {
+            BackupManager.removeDir(mMediaTmpDir);
+        }
+        if (!mMediaTmpDir.mkdirs()) {
+            Timber.w("Failed to create %s", mMediaTmpDir);
+        }
+        mMediaExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        mMediaCopies.clear();
+        mCheckedDstMedia.clear();
+    }
+
+
+    /** Waits for the media copies, and marks the copied files as added to the media db (see note in Media.java) */
+    private void _finishMediaCopies() {
         try {
-            String path = new File(mDst.getMedia().dir(), Utils.nfcNormalized(fname)).getAbsolutePath();
-            Utils.writeToFile(data, path);
-            // Mark file addition to media db (see note in Media.java)
+            for (Map.Entry<String, Future<Boolean>> copy : mMediaCopies.entrySet()) {
+                if (copy.getValue().get()) {
+                    mDst.getMedia().markFileAdd(copy.getKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        mMediaCopies.clear();
+    }
+
+
+    private void _stopMediaCopies() {
+        mMediaExecutor.shutdownNow();
+        try {
+            // the workers must be done with the temporary folder before it is removed
+            if (!mMediaExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Timber.w("Media copies did not stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        BackupManager.removeDir(mMediaTmpDir);
+    }
+
+
+    /**
+     * @return Whether FNAME is in the destination media folder, or is being copied to it
+     */
+    private boolean _haveDstMedia(String fname) {
+        return mMediaCopies.containsKey(fname) || mDst.getMedia().have(fname);
+    }
+
+
+    /**
+     * Marks FNAME, already in the destination media folder, as added if the media db has no entry for it. An import
+     * interrupted after moving the file, but before its media db changes were committed, leaves such a file, which
+     * would otherwise never be synced.
+     */
+    private void _markUntrackedDstMedia(String fname) {
+        if (mMediaCopies.containsKey(fname) || !mCheckedDstMedia.add(fname)) {
+            return;
+        }
+        if (mDst.getMedia().getDb().queryScalar("select count() from media where fname = ? and csum is not null", fname) == 0) {
             mDst.getMedia().markFileAdd(fname);
+        }
+    }
+
+
+    /**
+     * Copies srcName in the source collection to dstName in the destination, on the media workers.
+     */
+    private void _copyDstMedia(String srcName, String dstName) {
+        mMediaCopies.put(dstName, mMediaExecutor.submit(() -> {
+            try (BufferedInputStream data = _srcMediaData(srcName)) {
+                return data != null && _writeDstMedia(dstName, data);
+            }
+        }));
+    }
+
+
+    /**
+     * Writes FNAME in the destination media folder. Called on the media workers.
+     * @return Whether the file was written
+     */
+    private boolean _writeDstMedia(String fname, BufferedInputStream data) {
+        String name = Utils.nfcNormalized(fname);
+        File tmp = new File(mMediaTmpDir, name);
+        try {
+            Utils.writeToFile(data, tmp.getAbsolutePath());
+            File dst = new File(mDst.getMedia().dir(), name);
+            if (!tmp.renameTo(dst)) {
+                throw new IOException("Failed to move " + tmp + " to " + dst);
+            }
+            return true;
         } catch (IOException e) {
 
             // the user likely used subdirectories
@@ -756,6 +900,7 @@ public class Anki2Importer extends Importer {
                 Timber.e("We are out of space, bubbling up the file copy exception");
                 throw new RuntimeException(e);
             }
+            return false;
         }
     }
 
@@ -781,19 +926,22 @@ public class Anki2Importer extends Importer {
                     String ext = split[1];
 
                     String lname = String.format(Locale.US, "%s_%s%s", name, mid, ext);
-                    if (mDst.getMedia().have(lname)) {
+                    if (_haveDstMedia(lname)) {
+                        _markUntrackedDstMedia(lname);
                         m.appendReplacement(sb, Matcher.quoteReplacement(m.group(0).replace(fname, lname)));
                         continue;
                     } else if (dstData == null || compareMedia(srcData, dstData)) { // if missing or the same, pass unmodified
-                        // need to copy?
-                        if (dstData == null) {
-                            _writeDstMedia(fname, srcData);
+                        // need to copy? Unless a previous note already started copying it.
+                        if (dstData == null && !mMediaCopies.containsKey(fname)) {
+                            _copyDstMedia(fname, fname);
+                        } else if (dstData != null) {
+                            _markUntrackedDstMedia(fname);
                         }
                         m.appendReplacement(sb, Matcher.quoteReplacement(m.group(0)));
                         continue;
                     }
                     // exists but does not match, so we need to dedupe
-                    _writeDstMedia(lname, srcData);
+                    _copyDstMedia(fname, lname);
                     m.appendReplacement(sb, Matcher.quoteReplacement(m.group(0).replace(fname, lname)));
                 } catch (IOException e) {
                     Timber.w(e, "Failed to close stream");
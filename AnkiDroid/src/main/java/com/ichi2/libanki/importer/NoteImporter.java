@@ -19,11 +19,12 @@ import com.ichi2.utils.JSONObject;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -42,6 +43,8 @@ import static com.ichi2.libanki.importer.NoteImporter.ImportMode.UPDATE_MODE;
 // Ported from https://github.com/ankitects/anki/blob/50fdf9b03dec33c99a501f332306f378db5eb4ea/pylib/anki/importing/noteimp.py
 // Aside from 9f676dbe0b2ad9b87a3bf89d7735b4253abd440e, which allows empty notes.
 public class NoteImporter extends Importer {
+    /** Number of notes written to the collection at once */
+    private static final int BATCH_SIZE = 1000;
 
     private boolean mNeedMapper = true;
     private boolean mNeedDelimiter = false;
@@ -64,6 +67,9 @@ public class NoteImporter extends Importer {
 
     /** _nextID in python */
     private long mNextId;
+    /** Ids from the first one of the import which existing notes already have, and new notes must skip */
+    private Set<Long> mTakenIds;
+    /** Ids of the notes of the current batch */
     private ArrayList<Long> mIds;
     private boolean mEmptyNotes;
     private int mUpdateCount;
@@ -84,8 +90,11 @@ public class NoteImporter extends Importer {
     public void run() {
         Assert.that(mMapping != null);
         Assert.that(!mMapping.isEmpty());
-        List<ForeignNote> c = foreignNotes();
-        importNotes(c);
+        try {
+            importNotes(foreignNotesIterator());
+        } finally {
+            close();
+        }
     }
 
 
@@ -123,6 +132,16 @@ public class NoteImporter extends Importer {
         return new ArrayList<>();
     }
 
+
+    /**
+     * The notes to import, which may be read as they are imported so that they don't all need to be in memory. Not in
+     * libAnki.
+     */
+    @NonNull
+    protected Iterator<ForeignNote> foreignNotesIterator() {
+        return foreignNotes().iterator();
+    }
+
     /** Open file and ensure it's in the right format. */
     protected void open() {
         // intentionally empty
@@ -137,6 +156,19 @@ public class NoteImporter extends Importer {
 
     /** Convert each card into a note, apply attributes and add to col. */
     public void importNotes(List<ForeignNote> notes) {
+        importNotes(notes.iterator());
+    }
+
+
+    /**
+     * Convert each card into a note, apply attributes and add to col.
+     * <p>
+     * Notes are written in batches, so the notes and the existing first fields don't need to be in memory at once.
+     * Duplicates are looked up with the checksum index of the notes table instead of a map of all checksums. Notes of
+     * previous batches being in the table, a note matching one which was added or matched by this import appeared
+     * twice in the source.
+     */
+    public void importNotes(Iterator<ForeignNote> notes) {
         Assert.that(mappingOk());
         // note whether tags are mapped
         mTagsMapped = false;
@@ -146,34 +178,33 @@ public class NoteImporter extends Importer {
                 break;
             }
         }
-        // gather checks for duplicate comparison
-        HashMap<Long, List<Long>> csums = new HashMap<>();
-        try (Cursor c = mCol.getDb().query("select csum, id from notes where mid = ?", mModel.getLong("id"))) {
-            while (c.moveToNext()) {
-                long csum = c.getLong(0);
-                long id = c.getLong(1);
-                if (csums.containsKey(csum)) {
-                    csums.get(csum).add(id);
-                } else {
-                    csums.put(csum, new ArrayList<>(Collections.singletonList(id)));
-                }
-            }
-        }
-
-        HashSet<String> firsts = new HashSet<>(notes.size());
+        // first fields of the current batch
+        HashSet<String> firsts = new HashSet<>();
+        // existing notes which matched a note of the source
+        HashSet<Long> matchedIds = new HashSet<>();
+        // notes added by this import. Their ids can't be told from those of existing notes, which may be in the future
+        HashSet<Long> addedIds = new HashSet<>();
         int fld0index = mMapping.indexOf(mModel.getJSONArray("flds").getJSONObject(0).getString("name"));
         mFMap = Models.fieldMap(mModel);
         mNextId = mCol.getTime().timestampID(mCol.getDb(), "notes");
+        mTakenIds = new HashSet<>(mCol.getDb().queryLongList("select id from notes where id >= ?", mNextId));
         // loop through the notes
-        List<Object[]> updates = new ArrayList<>(notes.size());
-        List<String> updateLog = new ArrayList<>(notes.size());
+        List<Object[]> updates = new ArrayList<>(BATCH_SIZE);
+        List<String> updateLog = new ArrayList<>();
+        // messages about the notes, after those of reading the source
+        List<String> noteLog = new ArrayList<>();
         // PORT: Translations moved closer to their sources
-        List<Object[]> _new = new ArrayList<>();
-        mIds = new ArrayList<>();
+        List<Object[]> _new = new ArrayList<>(BATCH_SIZE);
+        int newCount = 0;
+        mIds = new ArrayList<>(BATCH_SIZE);
         mEmptyNotes = false;
+        mUpdateCount = 0;
+        mTotal = 0;
+        boolean emptyCards = false;
         int dupeCount = 0;
-        List<String> dupes = new ArrayList<>(notes.size());
-        for (ForeignNote n : notes) {
+        HashSet<String> dupes = new HashSet<>();
+        while (notes.hasNext()) {
+            ForeignNote n = notes.next();
             for (int c = 0; c < n.mFields.size(); c++) {
                 if (!this.mAllowHTML) {
                     n.mFields.set(c, HtmlUtils.escape(n.mFields.get(c)));
@@ -187,67 +218,79 @@ public class NoteImporter extends Importer {
             long csum = fieldChecksum(fld0);
             // first field must exist
             if (fld0 == null || fld0.length() == 0) {
-                getLog().add(getString(R.string.note_importer_error_empty_first_field, TextUtils.join(" ", n.mFields)));
+                noteLog.add(getString(R.string.note_importer_error_empty_first_field, TextUtils.join(" ", n.mFields)));
                 continue;
             }
             // earlier in import?
             if (firsts.contains(fld0) && mImportMode != ADD_MODE) {
                 // duplicates in source file; log and ignore
-                getLog().add(getString(R.string.note_importer_error_appeared_twice, fld0));
+                noteLog.add(getString(R.string.note_importer_error_appeared_twice, fld0));
                 continue;
             }
             firsts.add(fld0);
             // already exists?
             boolean found = false;
-            if (csums.containsKey(csum)) {
-                // csum is not a guarantee; have to check
-                for (Long id : csums.get(csum)) {
-                    String flds = mCol.getDb().queryString("select flds from notes where id = ?", id);
-                    String[] sflds = splitFields(flds);
-                    if (fld0.equals(sflds[0])) {
-                        // duplicate
-                        found = true;
-                        if (mImportMode == UPDATE_MODE) {
-                            Object[] data = updateData(n, id, sflds);
-                            if (data != null && data.length > 0) {
-                                updates.add(data);
-                                updateLog.add(getString(R.string.note_importer_error_first_field_matched, fld0));
-                                dupeCount += 1;
-                                found = true;
-                            }
-                        } else if (mImportMode == IGNORE_MODE) {
+            boolean appearedTwice = false;
+            // csum is not a guarantee; have to check
+            try (Cursor cur = mCol.getDb().query("select id, flds from notes where csum = ? and mid = ?", csum, mModel.getLong("id"))) {
+                while (cur.moveToNext()) {
+                    long id = cur.getLong(0);
+                    String[] sflds = splitFields(cur.getString(1));
+                    if (!fld0.equals(sflds[0])) {
+                        continue;
+                    }
+                    if (addedIds.contains(id) || matchedIds.contains(id)) {
+                        // imported from an earlier batch
+                        appearedTwice = mImportMode != ADD_MODE;
+                        continue;
+                    }
+                    // duplicate
+                    found = true;
+                    if (mImportMode == UPDATE_MODE) {
+                        matchedIds.add(id);
+                        Object[] data = updateData(n, id, sflds);
+                        if (data != null && data.length > 0) {
+                            updates.add(data);
+                            updateLog.add(getString(R.string.note_importer_error_first_field_matched, fld0));
                             dupeCount += 1;
-                        } else if (mImportMode == ADD_MODE) {
-                            // allow duplicates in this case
-                            if (!dupes.contains(fld0)) {
-                                // only show message once, no matter how many
-                                // duplicates are in the collection already
-                                updateLog.add(getString(R.string.note_importer_error_added_duplicate_first_field, fld0));
-                                dupes.add(fld0);
-                            }
-                            found = false;
+                            found = true;
+                        }
+                    } else if (mImportMode == IGNORE_MODE) {
+                        matchedIds.add(id);
+                        dupeCount += 1;
+                    } else if (mImportMode == ADD_MODE) {
+                        // allow duplicates in this case
+                        if (dupes.add(fld0)) {
+                            // only show message once, no matter how many
+                            // duplicates are in the collection already
+                            updateLog.add(getString(R.string.note_importer_error_added_duplicate_first_field, fld0));
                         }
+                        found = false;
                     }
                 }
             }
+            if (appearedTwice && !found) {
+                noteLog.add(getString(R.string.note_importer_error_appeared_twice, fld0));
+                continue;
+            }
             // newly add
             if (!found) {
                 Object[] data = newData(n);
                 if (data != null && data.length > 0) {
                     _new.add(data);
+                    addedIds.add((Long) data[0]);
                     // note that we've seen this note once already
                     firsts.add(fld0);
                 }
             }
+            if (mIds.size() >= BATCH_SIZE) {
+                newCount += _new.size();
+                emptyCards |= addBatch(_new, updates);
+                firsts.clear();
+            }
         }
-        addNew(_new);
-        addUpdates(updates);
-        // make sure to update sflds, etc
-        mCol.updateFieldCache(mIds);
-        // generate cards
-        if (!mCol.genCards(mIds, mModel).isEmpty()) {
-            this.getLog().add(0, getString(R.string.note_importer_empty_cards_found));
-        }
+        newCount += _new.size();
+        emptyCards |= addBatch(_new, updates);
 
 
         // we randomize or order here, to ensure that siblings
@@ -258,7 +301,7 @@ public class NoteImporter extends Importer {
         if (conf.getJSONObject("new").getInt("order") == NEW_CARDS_RANDOM) {
             mCol.getSched().randomizeCards(did);
         }
-        String part1 = getQuantityString(R.plurals.note_importer_notes_added, _new.size());
+        String part1 = getQuantityString(R.plurals.note_importer_notes_added, newCount);
         String part2 = getQuantityString(R.plurals.note_importer_notes_updated, mUpdateCount);
         int unchanged;
         if (mImportMode == UPDATE_MODE) {
@@ -269,16 +312,41 @@ public class NoteImporter extends Importer {
             unchanged = 0;
         }
         String part3 = getQuantityString(R.plurals.note_importer_notes_unchanged, unchanged);
+        mLog.addAll(noteLog);
+        if (emptyCards) {
+            mLog.add(0, getString(R.string.note_importer_empty_cards_found));
+        }
         mLog.add(String.format("%s, %s, %s.", part1, part2, part3));
         mLog.addAll(updateLog);
         if (mEmptyNotes) {
             mLog.add(getString(R.string.note_importer_error_empty_notes));
         }
-        mTotal = mIds.size();
+    }
+
+
+    /**
+     * Writes a batch of notes, and empties it.
+     * @return Whether some notes of the batch have empty cards
+     */
+    private boolean addBatch(List<Object[]> _new, List<Object[]> updates) {
+        addNew(_new);
+        addUpdates(updates);
+        // make sure to update sflds, etc
+        mCol.updateFieldCache(mIds);
+        // generate cards
+        boolean emptyCards = !mCol.genCards(mIds, mModel).isEmpty();
+        mTotal += mIds.size();
+        _new.clear();
+        updates.clear();
+        mIds.clear();
+        return emptyCards;
     }
 
     @Nullable
     private Object[] newData(ForeignNote n) {
+        while (mTakenIds.contains(mNextId)) {
+            mNextId++;
+        }
         long id = mNextId;
         mNextId++;
         mIds.add(id);
@@ -350,7 +418,7 @@ public class NoteImporter extends Importer {
             );
         }
         int changes2 = mCol.getDb().queryScalar("select total_changes()");
-        mUpdateCount = changes2 - changes;
+        mUpdateCount += changes2 - changes;
     }
 
 
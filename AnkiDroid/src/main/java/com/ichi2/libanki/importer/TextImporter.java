@@ -20,12 +20,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import timber.log.Timber;
 
@@ -35,7 +36,13 @@ public class TextImporter extends NoteImporter {
     private boolean mNeedDelimiter = true;
     final String mPatterns = "\t|,;:";
 
+    /** Upper bound of the number of characters used to guess the format of the file */
+    private static final int SNIFF_LIMIT = 64 * 1024;
+
     private FileObj mFileobj;
+    /** The lines being imported */
+    @Nullable
+    private Stream<String> mData;
     private char mDelimiter;
     private String[] mTagstoadd;
 
@@ -57,22 +64,70 @@ public class TextImporter extends NoteImporter {
     @NonNull
     @Override
     protected List<ForeignNote> foreignNotes() {
+        List<ForeignNote> notes = new ArrayList<>();
+        try {
+            Iterator<ForeignNote> iterator = foreignNotesIterator();
+            while (iterator.hasNext()) {
+                notes.add(iterator.next());
+            }
+        } finally {
+            close();
+        }
+        return notes;
+    }
+
+
+    /** The notes are parsed as they are imported, so a large file doesn't need to be in memory */
+    @NonNull
+    @Override
+    protected Iterator<ForeignNote> foreignNotesIterator() {
         open();
         // process all lines
-        List<String> log = new ArrayList<>(); //Number of element is reader's size
-        List<ForeignNote> notes = new ArrayList<>(); //Number of element is reader's size
-        int lineNum = 0;
-        int ignored = 0;
+        mLog = new ArrayList<>();
         // Note: This differs from libAnki as we don't have csv.reader
-        Iterator<String> data = getDataStream().iterator();
+        mData = getDataStream();
         CsvReader reader;
         if (mDelimiter != '\0') {
-            reader = CsvReader.fromDelimiter(data, mDelimiter);
+            reader = CsvReader.fromDelimiter(mData.iterator(), mDelimiter);
         } else {
-            reader = CsvReader.fromDialect(data, mDialect);
+            reader = CsvReader.fromDialect(mData.iterator(), mDialect);
         }
+        Iterator<List<String>> rows = reader.iterator();
+        return new Iterator<ForeignNote>() {
+            @Nullable
+            private ForeignNote mNext;
+            private boolean mDone;
+
+
+            @Override
+            public boolean hasNext() {
+                if (mNext == null && !mDone) {
+                    mNext = nextNote(rows);
+                    mDone = mNext == null;
+                }
+                return mNext != null;
+            }
+
+
+            @Override
+            public ForeignNote next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ForeignNote note = mNext;
+                mNext = null;
+                return note;
+            }
+        };
+    }
+
+
+    /** @return The note of the next valid row, null at the end of the file */
+    @Nullable
+    private ForeignNote nextNote(Iterator<List<String>> rows) {
         try {
-            for (List<String> row : reader) {
+            while (rows.hasNext()) {
+                List<String> row = rows.next();
                 if (row == null) {
                     continue;
                 }
@@ -83,21 +138,25 @@ public class TextImporter extends NoteImporter {
                                 TextUtils.join(" ", rowAsString),
                                 rowAsString.size(),
                                 mNumFields);
-                        log.add(formatted);
-                        ignored += 1;
-
+                        mLog.add(formatted);
                     }
                     continue;
                 }
-                ForeignNote note = noteFromFields(rowAsString);
-                notes.add(note);
+                return noteFromFields(rowAsString);
             }
         } catch (CsvException e) {
-            log.add(getString(R.string.csv_importer_error_exception, e));
+            mLog.add(getString(R.string.csv_importer_error_exception, e));
+        }
+        return null;
+    }
+
+
+    @Override
+    protected void close() {
+        if (mData != null) {
+            mData.close();
+            mData = null;
         }
-        mLog = log;
-        mFileobj.close();
-        return notes;
     }
 
     /** Number of fields. */
@@ -160,7 +219,7 @@ public class TextImporter extends NoteImporter {
         CsvSniffer sniffer = new CsvSniffer();
         if (mDelimiter == '\0') {
             try {
-                String join = getLinesFromFile(10);
+                String join = getSniffSample(10);
                 mDialect = sniffer.sniff(join, mPatterns.toCharArray());
             } catch (Exception e) {
                 Timber.w(e);
@@ -173,8 +232,14 @@ public class TextImporter extends NoteImporter {
             }
         }
 
-        Iterator<String> data = getDataStream().iterator();
+        try (Stream<String> dataStream = getDataStream()) {
+            readNumFields(dataStream.iterator());
+        }
+        initMapping();
+    }
+
 
+    private void readNumFields(Iterator<String> data) {
         CsvReader reader = null;
         if (mDialect != null) {
             try {
@@ -212,7 +277,6 @@ public class TextImporter extends NoteImporter {
             Timber.e(e);
             err();
         }
-        initMapping();
     }
 
 
@@ -248,12 +312,32 @@ public class TextImporter extends NoteImporter {
 
 
     private Optional<String> getFirstFileLine() {
-        return getDataStream().findFirst();
+        try (Stream<String> data = getDataStream()) {
+            return data.findFirst();
+        }
     }
 
 
-    private String getLinesFromFile(int numberOfLines) {
-        return TextUtils.join("\n", getDataStream().limit(numberOfLines).collect(Collectors.toList()));
+    /**
+     * @return The first lines of the file, without the lines after SNIFF_LIMIT characters, so that the whole file
+     * isn't read when it doesn't contain line breaks
+     */
+    private String getSniffSample(int numberOfLines) {
+        StringBuilder sample = new StringBuilder();
+        try (Stream<String> data = getDataStream()) {
+            Iterator<String> lines = data.limit(numberOfLines).iterator();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (sample.length() > 0 && sample.length() + line.length() > SNIFF_LIMIT) {
+                    break;
+                }
+                if (sample.length() > 0) {
+                    sample.append('\n');
+                }
+                sample.append(line);
+            }
+        }
+        return sample.toString();
     }
 
 
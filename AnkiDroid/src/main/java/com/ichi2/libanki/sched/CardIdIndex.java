@@ -0,0 +1,113 @@
+package com.ichi2.libanki.sched;
+
+import java.util.Arrays;
+
+/**
+ * Map from card id to the position of the card in a {@link CardQueue}.
+ *
+ * Open addressing with linear probing over primitive arrays, so that neither lookup nor insertion allocates. Card ids
+ * are never 0, which is used to represent an empty slot.
+ */
+class CardIdIndex {
+    private static final long EMPTY = 0;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private int[] mValues = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+
+    /** @return the position associated to cid, or -1 if there is none */
+    public int get(long cid) {
+        int mask = mKeys.length - 1;
+        for (int i = hash(cid) & mask; mKeys[i] != EMPTY; i = (i + 1) & mask) {
+            if (mKeys[i] == cid) {
+                return mValues[i];
+            }
+        }
+        return -1;
+    }
+
+
+    public void put(long cid, int position) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            resize(mKeys.length * 2);
+        }
+        int mask = mKeys.length - 1;
+        int i = hash(cid) & mask;
+        while (mKeys[i] != EMPTY) {
+            if (mKeys[i] == cid) {
+                mValues[i] = position;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = cid;
+        mValues[i] = position;
+        mSize++;
+    }
+
+
+    /** @return the position which was associated to cid, or -1 if there was none */
+    public int remove(long cid) {
+        int mask = mKeys.length - 1;
+        int i = hash(cid) & mask;
+        while (mKeys[i] != cid) {
+            if (mKeys[i] == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        int position = mValues[i];
+        mSize--;
+        // Move back the following entries of the cluster, so that no lookup stops on the hole we leave
+        int hole = i;
+        for (int j = (i + 1) & mask; mKeys[j] != EMPTY; j = (j + 1) & mask) {
+            int ideal = hash(mKeys[j]) & mask;
+            // Whether ideal is cyclically in (hole, j], in which case the entry can't move to the hole
+            boolean reachable = hole <= j ? (hole < ideal && ideal <= j) : (hole < ideal || ideal <= j);
+            if (!reachable) {
+                mKeys[hole] = mKeys[j];
+                mValues[hole] = mValues[j];
+                hole = j;
+            }
+        }
+        mKeys[hole] = EMPTY;
+        return position;
+    }
+
+
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+
+    public int size() {
+        return mSize;
+    }
+
+
+    private void resize(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+
+    private static int hash(long cid) {
+        // Card ids are creation times in milliseconds, mix them so that consecutive ids are spread
+        long h = cid * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -3,69 +3,325 @@ package com.ichi2.libanki.sched;
 import com.ichi2.libanki.Card;
 import com.ichi2.libanki.Collection;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
-abstract class CardQueue<T extends Card.Cache> {
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Queue of card ids, stored in a ring buffer of primitive longs.
+ *
+ * Removing a card only marks its position as removed, the position being found through an index. Removed positions
+ * at both ends are dropped immediately, and the buffer is compacted when too many of them accumulate in the middle.
+ * Only the first card of the queue is ever loaded.
+ */
+abstract class CardQueue {
+    /** Value of a removed position. Card ids are never 0. */
+    private static final long REMOVED = 0;
+    private static final int INITIAL_CAPACITY = 16;
+
     // We need to store mSched and not queue, because during initialization of sched, when CardQueues are initialized
     // sched.getCol is null.
     private final AbstractSched mSched;
-    private final LinkedList<T> mQueue = new LinkedList<>();
+
+    /** Ring buffer of card ids. Its length is always a power of two. */
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    /** Due of the card at the same position in mIds, or null if the queue does not keep the dues. */
+    private @Nullable long[] mDues;
+    /** Position in mIds of the first element */
+    private int mHead = 0;
+    /** Number of positions in use, including removed ones */
+    private int mLength = 0;
+    /** Position in mIds of each card of the queue */
+    private final CardIdIndex mIndex = new CardIdIndex();
+    /** The first card of the queue, if it was already loaded. */
+    private @Nullable Card mFirstCard;
 
 
     public CardQueue(AbstractSched sched) {
+        this(sched, false);
+    }
+
+
+    /**
+     * @param keepDues whether a due is associated to each card of the queue
+     */
+    protected CardQueue(AbstractSched sched, boolean keepDues) {
         mSched = sched;
+        if (keepDues) {
+            mDues = new long[INITIAL_CAPACITY];
+        }
     }
 
 
     public void loadFirstCard() {
-        if (!mQueue.isEmpty()) {
+        if (!isEmpty()) {
             // No nead to reload. If the card was changed, reset would have been called and emptied the queue
-            mQueue.get(0).loadQA(false, false);
+            getFirstCard()._getQA(false, false);
         }
     }
 
+
     public Card removeFirstCard() throws NoSuchElementException {
-        return mQueue.remove().getCard();
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Card card = getFirstCard();
+        remove(card.getId());
+        return card;
     }
 
+
+    private @NonNull Card getFirstCard() {
+        long cid = mIds[mHead];
+        if (mFirstCard == null || mFirstCard.getId() != cid) {
+            mFirstCard = getCol().getCard(cid);
+        }
+        return mFirstCard;
+    }
+
+
     public boolean remove(long cid) {
-        // CardCache and LrnCache with the same id will be considered as equal so it's a valid implementation.
-        return mQueue.remove(new Card.Cache(getCol(), cid));
+        int slot = mIndex.remove(cid);
+        if (slot == -1) {
+            return false;
+        }
+        mIds[slot] = REMOVED;
+        if (mFirstCard != null && mFirstCard.getId() == cid) {
+            mFirstCard = null;
+        }
+        // Ensures that the first and last positions are never removed ones
+        int mask = mIds.length - 1;
+        while (mLength > 0 && mIds[mHead] == REMOVED) {
+            mHead = (mHead + 1) & mask;
+            mLength--;
+        }
+        while (mLength > 0 && mIds[slot(mLength - 1)] == REMOVED) {
+            mLength--;
+        }
+        if (mLength - size() > Math.max(INITIAL_CAPACITY, size())) {
+            compact(mIds.length);
+        }
+        return true;
+    }
+
+
+    /** Adds the card at the end of the queue. If it was already in the queue, it is moved. */
+    protected void addLast(long cid, long due) {
+        remove(cid);
+        ensureCapacity();
+        insertAt(mLength, cid, due);
+    }
+
+
+    /**
+     * Ensures that a card can be inserted without reallocating the buffer. Must be called before computing the
+     * position given to {@link #insertAt(int, long, long)}, since it may change the positions.
+     */
+    protected void ensureCapacity() {
+        if (mLength < mIds.length) {
+            return;
+        }
+        int capacity = mIds.length;
+        if (size() * 2 >= capacity) {
+            capacity *= 2;
+        }
+        compact(capacity);
     }
 
-    public void add(T elt) {
-        mQueue.add(elt);
+
+    /**
+     * Inserts a card which is not in the queue, shifting the elements at or after position. The elements on the
+     * side of the head are shifted instead when it moves less of them.
+     * @param position A position in [0, length()]
+     */
+    protected void insertAt(int position, long cid, long due) {
+        int mask = mIds.length - 1;
+        if (position < mLength / 2) {
+            mHead = (mHead - 1) & mask;
+            for (int i = 0; i < position; i++) {
+                move(slot(i + 1), slot(i));
+            }
+        } else {
+            for (int i = mLength; i > position; i--) {
+                move(slot(i - 1), slot(i));
+            }
+        }
+        mLength++;
+        int slot = slot(position);
+        mIds[slot] = cid;
+        if (mDues != null) {
+            mDues[slot] = due;
+        }
+        mIndex.put(cid, slot);
+    }
+
+
+    private void move(int from, int to) {
+        long cid = mIds[from];
+        mIds[to] = cid;
+        if (mDues != null) {
+            mDues[to] = mDues[from];
+        }
+        if (cid != REMOVED) {
+            mIndex.put(cid, to);
+        }
     }
 
+
+    /** Moves the cards of the queue at the beginning of new buffers of size capacity, dropping removed positions. */
+    private void compact(int capacity) {
+        long[] ids = new long[capacity];
+        long[] dues = mDues == null ? null : new long[capacity];
+        int length = 0;
+        for (int i = 0; i < mLength; i++) {
+            int slot = slot(i);
+            if (mIds[slot] == REMOVED) {
+                continue;
+            }
+            ids[length] = mIds[slot];
+            if (dues != null) {
+                dues[length] = mDues[slot];
+            }
+            length++;
+        }
+        mIds = ids;
+        mDues = dues;
+        mHead = 0;
+        mLength = length;
+        rebuildIndex();
+    }
+
+
+    private void rebuildIndex() {
+        mIndex.clear();
+        for (int i = 0; i < mLength; i++) {
+            int slot = slot(i);
+            if (mIds[slot] != REMOVED) {
+                mIndex.put(mIds[slot], slot);
+            }
+        }
+    }
+
+
     public void clear() {
-        mQueue.clear();
+        mHead = 0;
+        mLength = 0;
+        mIndex.clear();
+        mFirstCard = null;
     }
 
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean isEmpty() {
-        return mQueue.isEmpty();
+        return size() == 0;
     }
 
+
     public int size() {
-        return mQueue.size();
+        return mIndex.size();
     }
 
-    protected LinkedList<T> getQueue() {
-        return mQueue;
-    }
 
+    /** Shuffles the queue. Same order as {@link java.util.Collections#shuffle(java.util.List, Random)} with the same random. */
     public void shuffle(Random r) {
-        Collections.shuffle(mQueue, r);
+        compact(mIds.length);
+        for (int i = mLength; i > 1; i--) {
+            swap(i - 1, r.nextInt(i));
+        }
+        rebuildIndex();
+    }
+
+
+    /**
+     * Sorts the queue by due. The sort is stable. Cards are not moved when the queue is already sorted.
+     */
+    protected void sortByDue() {
+        compact(mIds.length);
+        long[] ids = mIds;
+        long[] dues = mDues;
+        if (dues == null || isSortedByDue()) {
+            return;
+        }
+        // bottom-up merge sort, the queue being usually made of a few sorted runs
+        long[] otherIds = new long[ids.length];
+        long[] otherDues = new long[dues.length];
+        for (int width = 1; width < mLength; width *= 2) {
+            for (int lo = 0; lo < mLength; lo += 2 * width) {
+                int mid = Math.min(lo + width, mLength);
+                int hi = Math.min(lo + 2 * width, mLength);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (i < mid && (j >= hi || dues[i] <= dues[j])) {
+                        otherIds[k] = ids[i];
+                        otherDues[k] = dues[i];
+                        i++;
+                    } else {
+                        otherIds[k] = ids[j];
+                        otherDues[k] = dues[j];
+                        j++;
+                    }
+                }
+            }
+            long[] tmp = ids;
+            ids = otherIds;
+            otherIds = tmp;
+            tmp = dues;
+            dues = otherDues;
+            otherDues = tmp;
+        }
+        mIds = ids;
+        mDues = dues;
+        rebuildIndex();
     }
 
-    public ListIterator<T> listIterator() {
-        return mQueue.listIterator();
+
+    private boolean isSortedByDue() {
+        for (int i = 1; i < mLength; i++) {
+            if (mDues[slot(i - 1)] > mDues[slot(i)]) {
+                return false;
+            }
+        }
+        return true;
     }
 
+
+    private void swap(int i, int j) {
+        int slotI = slot(i);
+        int slotJ = slot(j);
+        long id = mIds[slotI];
+        mIds[slotI] = mIds[slotJ];
+        mIds[slotJ] = id;
+        if (mDues != null) {
+            long due = mDues[slotI];
+            mDues[slotI] = mDues[slotJ];
+            mDues[slotJ] = due;
+        }
+    }
+
+
+    /** Number of positions in use, including removed ones. Positions are in [0, length()). */
+    protected int length() {
+        return mLength;
+    }
+
+
+    /**
+     * Due associated to the card at a position. Removed positions keep the due of the card they held, so an ordering
+     * of the dues holds with them.
+     */
+    protected long getDue(int position) {
+        return mDues[slot(position)];
+    }
+
+
+    private int slot(int position) {
+        return (mHead + position) & (mIds.length - 1);
+    }
+
+
     protected Collection getCol() {
         return mSched.getCol();
     }
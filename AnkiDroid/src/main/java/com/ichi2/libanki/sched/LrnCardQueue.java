@@ -1,8 +1,8 @@
 package com.ichi2.libanki.sched;
 
-import java.util.Collections;
+import java.util.NoSuchElementException;
 
-class LrnCardQueue extends CardQueue<LrnCard> {
+class LrnCardQueue extends CardQueue {
     /**
      * Whether the queue already contains its current expected value.
      * If it's not the case, then we won't add cards reviewed immediately and wait for a filling to occur.
@@ -10,19 +10,40 @@ class LrnCardQueue extends CardQueue<LrnCard> {
     private boolean mIsFilled = false;
 
     public LrnCardQueue(AbstractSched sched) {
-        super(sched);
+        super(sched, true);
     }
 
+    /** Adds the card at the end of the queue, {@link #sort()} should be called once all cards are added. */
     public void add(long due, long cid) {
-        add(new LrnCard(getCol(), due, cid));
+        addLast(cid, due);
+    }
+
+    /** Adds the card after the cards due before or at the same time. The queue must be sorted. */
+    public void insertSorted(long due, long cid) {
+        remove(cid);
+        ensureCapacity();
+        int lo = 0;
+        int hi = length();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getDue(mid) > due) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        insertAt(lo, cid, due);
     }
 
     public void sort() {
-        Collections.sort(getQueue());
+        sortByDue();
     }
 
-    public long getFirstDue() {
-        return getQueue().getFirst().getDue();
+    public long getFirstDue() throws NoSuchElementException {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return getDue(0);
     }
 
 
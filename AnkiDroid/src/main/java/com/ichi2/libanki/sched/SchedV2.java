@@ -23,7 +23,6 @@ import android.app.Activity;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
 import android.graphics.Typeface;
 import android.text.SpannableStringBuilder;
@@ -64,6 +63,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 
 import androidx.annotation.NonNull;
@@ -90,6 +90,10 @@ public class SchedV2 extends AbstractSched {
     // Not in libanki
     private static final int[] FACTOR_ADDITION_VALUES = { -150, 0, 150 };
     public static final int RESCHEDULE_FACTOR = Consts.STARTING_FACTOR;
+    // Indexes of the arrays returned by _deckDueCounts
+    private static final int DUE_COUNT_NEW = 0;
+    private static final int DUE_COUNT_DAY_LRN = 1;
+    private static final int DUE_COUNT_REV = 2;
 
     protected final int mQueueLimit;
     protected int mReportLimit;
@@ -122,6 +126,16 @@ public class SchedV2 extends AbstractSched {
     private @NonNull LinkedList<Long> mNewDids = new LinkedList<>();
     protected @NonNull LinkedList<Long> mLrnDids = new LinkedList<>();
 
+    /**
+     * Result of _deckDueCounts, kept up to date by the scheduler's own modifications of cards so that the deck list
+     * does not have to be recomputed after each review. Null when it must be recomputed.
+     */
+    private @Nullable HashMap<Long, int[]> mDeckDueCountsCache;
+    /** Value of {@link com.ichi2.libanki.DB#getModificationCount()} when mDeckDueCountsCache was last known to be correct. */
+    private long mDeckDueCountsModificationCount;
+    /** The day for which mDeckDueCountsCache was computed. */
+    private int mDeckDueCountsToday;
+
     // Not in libanki
     protected @Nullable WeakReference<Activity> mContextReference;
 
@@ -288,14 +302,16 @@ public class SchedV2 extends AbstractSched {
         mCol.log();
         discardCurrentCard();
         mCol.markReview(card);
-        _burySiblings(card);
+        _updateDeckDueCounts(Utils.ids2str(new long[] {card.getId()}), () -> {
+            _burySiblings(card);
 
-        _answerCard(card, ease);
+            _answerCard(card, ease);
 
-        _updateStats(card, "time", card.timeTaken());
-        card.setMod(getTime().intTime());
-        card.setUsn(mCol.usn());
-        card.flushSched();
+            _updateStats(card, "time", card.timeTaken());
+            card.setMod(getTime().intTime());
+            card.setUsn(mCol.usn());
+            card.flushSched();
+        });
     }
 
 
@@ -527,6 +543,11 @@ public class SchedV2 extends AbstractSched {
         _checkDay();
         mCol.getDecks().checkIntegrity();
         List<Deck> decks = mCol.getDecks().allSorted();
+        HashMap<Long, int[]> dueCounts = _deckDueCounts();
+        HashMap<Long, Integer> lrnCounts = _deckLrnCounts();
+        if (isCancelled(collectionTask)) {
+            return null;
+        }
         HashMap<String, Integer[]> lims = new HashMap<>(decks.size());
         ArrayList<DeckDueTreeNode> deckNodes = new ArrayList<>(decks.size());
         Decks.Node childMap = mCol.getDecks().childMap();
@@ -535,6 +556,7 @@ public class SchedV2 extends AbstractSched {
                 return null;
             }
             String deckName = deck.getString("name");
+            long did = deck.getLong("id");
             String p = Decks.parent(deckName);
             // new
             int nlim = _deckNewLimitSingle(deck, false);
@@ -547,20 +569,156 @@ public class SchedV2 extends AbstractSched {
                 // reviews
                 plim = parentLims[1];
             }
-            int _new = _newForDeck(deck.getLong("id"), nlim);
-            // learning
-            int lrn = _lrnForDeck(deck.getLong("id"));
+            int[] counts = dueCounts.get(did);
+            int _new = 0;
+            int lrn = 0;
+            if (counts != null) {
+                _new = Math.min(counts[DUE_COUNT_NEW], Math.min(nlim, mReportLimit));
+                lrn = Math.min(counts[DUE_COUNT_DAY_LRN], mReportLimit);
+            }
+            Integer intradayLrn = lrnCounts.get(did);
+            if (intradayLrn != null) {
+                lrn += Math.min(intradayLrn, mReportLimit);
+            }
             // reviews
             int rlim = _deckRevLimitSingle(deck, plim, false);
-            int rev = _revForDeck(deck.getLong("id"), rlim, childMap);
+            int rev = 0;
+            if (rlim > 0) {
+                rev = counts == null ? 0 : counts[DUE_COUNT_REV];
+                for (long child : mCol.getDecks().childDids(did, childMap)) {
+                    int[] childCounts = dueCounts.get(child);
+                    if (childCounts != null) {
+                        rev += childCounts[DUE_COUNT_REV];
+                    }
+                }
+                rev = Math.min(rev, Math.min(rlim, mReportLimit));
+            }
             // save to list
-            deckNodes.add(new DeckDueTreeNode(mCol, deck.getString("name"), deck.getLong("id"), rev, lrn, _new));
+            deckNodes.add(new DeckDueTreeNode(mCol, deckName, did, rev, lrn, _new));
             // add deck as a parent
-            lims.put(Decks.normalizeName(deck.getString("name")), new Integer[]{nlim, rlim});
+            lims.put(Decks.normalizeName(deckName), new Integer[]{nlim, rlim});
         }
         return deckNodes;
     }
 
+
+    /**
+     * Number of new, day learning and review cards due today in each deck, computed in a single scan of the cards
+     * table, or taken from the cache when no card changed since.
+     * Limits are not applied; the review count of a deck does not include its descendants.
+     * @return A map from deck id to [new, day learning, review] counts. It must not be modified.
+     */
+    protected @NonNull HashMap<Long, int[]> _deckDueCounts() {
+        if (!_deckDueCountsCacheIsValid()) {
+            Timber.d("Recomputing deck due counts");
+            mDeckDueCountsCache = _queryDeckDueCounts(null);
+            _markDeckDueCountsCacheValid();
+        }
+        return mDeckDueCountsCache;
+    }
+
+
+    /**
+     * @param lim A restriction on the cards to consider, or null to count all cards
+     * @return A map from deck id to [new, day learning, review] counts.
+     */
+    private @NonNull HashMap<Long, int[]> _queryDeckDueCounts(@Nullable String lim) {
+        HashMap<Long, int[]> dueCounts = new HashMap<>();
+        try (Cursor cur = mCol.getDb().query(
+                "SELECT did, queue, count() FROM cards WHERE (queue = " + Consts.QUEUE_TYPE_NEW
+                        + " OR (queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ?)"
+                        + " OR (queue = " + Consts.QUEUE_TYPE_REV + " AND due <= ?))"
+                        + (lim == null ? "" : " AND " + lim)
+                        + " GROUP BY did, queue",
+                mToday, mToday)) {
+            while (cur.moveToNext()) {
+                long did = cur.getLong(0);
+                int[] counts = dueCounts.get(did);
+                if (counts == null) {
+                    counts = new int[3];
+                    dueCounts.put(did, counts);
+                }
+                int cnt = cur.getInt(2);
+                switch (cur.getInt(1)) {
+                    case Consts.QUEUE_TYPE_NEW:
+                        counts[DUE_COUNT_NEW] = cnt;
+                        break;
+                    case Consts.QUEUE_TYPE_DAY_LEARN_RELEARN:
+                        counts[DUE_COUNT_DAY_LRN] = cnt;
+                        break;
+                    case Consts.QUEUE_TYPE_REV:
+                        counts[DUE_COUNT_REV] = cnt;
+                        break;
+                }
+            }
+        }
+        return dueCounts;
+    }
+
+
+    /**
+     * Intraday learning cards become due as time passes, so they are not cached.
+     * @return A map from deck id to the number of intraday learning cards due before the collapse time.
+     */
+    private @NonNull HashMap<Long, Integer> _deckLrnCounts() {
+        HashMap<Long, Integer> lrnCounts = new HashMap<>();
+        try (Cursor cur = mCol.getDb().query(
+                "SELECT did, count() FROM cards WHERE queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ? GROUP BY did",
+                getTime().intTime() + mCol.getConf().getInt("collapseTime"))) {
+            while (cur.moveToNext()) {
+                lrnCounts.put(cur.getLong(0), cur.getInt(1));
+            }
+        }
+        return lrnCounts;
+    }
+
+
+    private boolean _deckDueCountsCacheIsValid() {
+        return mDeckDueCountsCache != null && mToday != null && mDeckDueCountsToday == mToday
+                && mDeckDueCountsModificationCount == mCol.getDb().getModificationCount();
+    }
+
+
+    private void _markDeckDueCountsCacheValid() {
+        mDeckDueCountsToday = mToday;
+        mDeckDueCountsModificationCount = mCol.getDb().getModificationCount();
+    }
+
+
+    /**
+     * Runs a change which modifies at most the cards of sids, and updates the deck due counts cache with the
+     * difference instead of discarding it.
+     * Any other modification of the database discards the cache, so that it is entirely recomputed when required.
+     * @param sids Ids of the cards which may be changed, as returned by {@link Utils#ids2str(long[])}
+     * @param change The modification to apply
+     */
+    protected void _updateDeckDueCounts(@NonNull String sids, @NonNull Runnable change) {
+        boolean cacheValid = _deckDueCountsCacheIsValid();
+        if (cacheValid) {
+            _addToDeckDueCounts(_queryDeckDueCounts("id IN " + sids), -1);
+        }
+        change.run();
+        if (cacheValid && mDeckDueCountsCache != null) {
+            _addToDeckDueCounts(_queryDeckDueCounts("id IN " + sids), 1);
+            _markDeckDueCountsCacheValid();
+        }
+    }
+
+
+    private void _addToDeckDueCounts(@NonNull HashMap<Long, int[]> delta, int sign) {
+        for (Map.Entry<Long, int[]> entry : delta.entrySet()) {
+            int[] counts = mDeckDueCountsCache.get(entry.getKey());
+            if (counts == null) {
+                counts = new int[3];
+                mDeckDueCountsCache.put(entry.getKey(), counts);
+            }
+            int[] deltaCounts = entry.getValue();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += sign * deltaCounts[i];
+            }
+        }
+    }
+
     /** Similar to deck due tree, but ignore the number of cards.
 
      It may takes a lot of time to compute the number of card, it
@@ -718,43 +876,43 @@ public class SchedV2 extends AbstractSched {
     /** similar to _getCard but only fill the queues without taking the card.
      * Returns lists that may contain the next cards.
      */
-    protected @NonNull CardQueue<? extends Card.Cache>[] _fillNextCard() {
+    protected @NonNull CardQueue[] _fillNextCard() {
         // learning card due?
         if (_preloadLrnCard(false)) {
-            return new CardQueue<?>[]{mLrnQueue};
+            return new CardQueue[]{mLrnQueue};
         }
         // new first, or time for one?
         if (_timeForNewCard()) {
             if (_fillNew()) {
-                return new CardQueue<?>[]{mLrnQueue, mNewQueue};
+                return new CardQueue[]{mLrnQueue, mNewQueue};
             }
         }
         // Day learning first and card due?
         boolean dayLearnFirst = mCol.getConf().optBoolean("dayLearnFirst", false);
         if (dayLearnFirst) {
             if (_fillLrnDay()) {
-                return new CardQueue<?>[]{mLrnQueue, mLrnDayQueue};
+                return new CardQueue[]{mLrnQueue, mLrnDayQueue};
             }
         }
         // Card due for review?
         if (_fillRev()) {
-            return new CardQueue<?>[]{mLrnQueue, mRevQueue};
+            return new CardQueue[]{mLrnQueue, mRevQueue};
         }
         // day learning card due?
         if (!dayLearnFirst) {
             if (_fillLrnDay()) {
-                return new CardQueue<?>[]{mLrnQueue, mLrnDayQueue};
+                return new CardQueue[]{mLrnQueue, mLrnDayQueue};
             }
         }
         // New cards left?
         if (_fillNew()) {
-            return new CardQueue<?>[]{mLrnQueue, mNewQueue};
+            return new CardQueue[]{mLrnQueue, mNewQueue};
         }
         // collapse or finish
         if (_preloadLrnCard(true)) {
-            return new CardQueue<?>[]{mLrnQueue};
+            return new CardQueue[]{mLrnQueue};
         }
-        return new CardQueue<?>[]{};
+        return new CardQueue[]{};
     }
 
     /** pre load the potential next card. It may loads many card because, depending on the time taken, the next card may
@@ -767,7 +925,7 @@ public class SchedV2 extends AbstractSched {
         if (!mHaveQueues) {
             resetQueues(false);
         }
-        for (CardQueue<? extends Card.Cache> caches: _fillNextCard()) {
+        for (CardQueue caches: _fillNextCard()) {
             caches.loadFirstCard();
         }
     }
@@ -1469,25 +1627,6 @@ public class SchedV2 extends AbstractSched {
     }
 
 
-    // Overriden: uses left/1000 in V1
-    private int _lrnForDeck(long did) {
-        try {
-            int cnt = mCol.getDb().queryScalar(
-                    "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
-                            + " AND queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ?"
-                            + " LIMIT ?)",
-                    did, (getTime().intTime() + mCol.getConf().getInt("collapseTime")), mReportLimit);
-            return cnt + mCol.getDb().queryScalar(
-                    "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
-                            + " AND queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ?"
-                            + " LIMIT ?)",
-                    did, mToday, mReportLimit);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-
     /*
       Reviews ****************************************************************** *****************************
      */
@@ -1936,12 +2075,16 @@ public class SchedV2 extends AbstractSched {
         if (lim == null) {
             lim = "did = " + did;
         }
-        mCol.log(mCol.getDb().queryLongList("select id from cards where " + lim));
+        List<Long> cids = mCol.getDb().queryLongList("select id from cards where " + lim);
+        mCol.log(cids);
 
-        mCol.getDb().execute(
-                "update cards set did = odid, " + _restoreQueueWhenEmptyingSnippet() +
-                ", due = (case when odue>0 then odue else due end), odue = 0, odid = 0, usn = ? where " + lim,
-                mCol.usn());
+        String finalLim = lim;
+        _updateDeckDueCounts(Utils.ids2str(cids), () ->
+            mCol.getDb().execute(
+                    "update cards set did = odid, " + _restoreQueueWhenEmptyingSnippet() +
+                    ", due = (case when odue>0 then odue else due end), odue = 0, odid = 0, usn = ? where " + finalLim,
+                    mCol.usn())
+        );
     }
 
 
@@ -2016,9 +2159,12 @@ public class SchedV2 extends AbstractSched {
             queue = ", queue = " + Consts.QUEUE_TYPE_REV + "";
         }
 
-        mCol.getDb().executeMany(
-                "UPDATE cards SET odid = did, " +
-                        "odue = due, did = ?, due = (case when due <= 0 then due else ? end), usn = ? " + queue + " WHERE id = ?", data);
+        String finalQueue = queue;
+        _updateDeckDueCounts(Utils.ids2str(ids), () ->
+            mCol.getDb().executeMany(
+                    "UPDATE cards SET odid = did, " +
+                            "odue = due, did = ?, due = (case when due <= 0 then due else ? end), usn = ? " + finalQueue + " WHERE id = ?", data)
+        );
     }
 
 
@@ -2303,6 +2449,7 @@ public class SchedV2 extends AbstractSched {
     public void _checkDay() {
         // check if the day has rolled over
         if (getTime().intTime() > mDayCutoff) {
+            mDeckDueCountsCache = null;
             reset();
         }
     }
@@ -2548,10 +2695,12 @@ public class SchedV2 extends AbstractSched {
      */
     public void suspendCards(@NonNull long[] ids) {
         mCol.log(ids);
-        mCol.getDb().execute(
-                "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN "
-                        + Utils.ids2str(ids),
-                getTime().intTime(), mCol.usn());
+        String sids = Utils.ids2str(ids);
+        _updateDeckDueCounts(sids, () ->
+            mCol.getDb().execute(
+                    "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + ", mod = ?, usn = ? WHERE id IN " + sids,
+                    getTime().intTime(), mCol.usn())
+        );
     }
 
 
@@ -2560,10 +2709,13 @@ public class SchedV2 extends AbstractSched {
      */
     public void unsuspendCards(@NonNull long[] ids) {
         mCol.log(ids);
-        mCol.getDb().execute(
-                "UPDATE cards SET " + _restoreQueueSnippet() + ", mod = ?, usn = ?"
-                        + " WHERE queue = " + Consts.QUEUE_TYPE_SUSPENDED + " AND id IN " + Utils.ids2str(ids),
-                getTime().intTime(), mCol.usn());
+        String sids = Utils.ids2str(ids);
+        _updateDeckDueCounts(sids, () ->
+            mCol.getDb().execute(
+                    "UPDATE cards SET " + _restoreQueueSnippet() + ", mod = ?, usn = ?"
+                            + " WHERE queue = " + Consts.QUEUE_TYPE_SUSPENDED + " AND id IN " + sids,
+                    getTime().intTime(), mCol.usn())
+        );
     }
 
     // Overriden. manual is false by default in V1
@@ -2577,8 +2729,11 @@ public class SchedV2 extends AbstractSched {
     public void buryCards(@NonNull long[] cids, boolean manual) {
         int queue = manual ? Consts.QUEUE_TYPE_MANUALLY_BURIED : Consts.QUEUE_TYPE_SIBLING_BURIED;
         mCol.log(cids);
-        mCol.getDb().execute("update cards set queue=?,mod=?,usn=? where id in " + Utils.ids2str(cids),
-                queue, getTime().intTime(), mCol.usn());
+        String sids = Utils.ids2str(cids);
+        _updateDeckDueCounts(sids, () ->
+            mCol.getDb().execute("update cards set queue=?,mod=?,usn=? where id in " + sids,
+                    queue, getTime().intTime(), mCol.usn())
+        );
     }
 
 
@@ -2587,8 +2742,11 @@ public class SchedV2 extends AbstractSched {
      * Overriden: V1 change lastUnburied
      */
     public void unburyCards() {
-        mCol.log(mCol.getDb().queryLongList("select id from cards where " + queueIsBuriedSnippet()));
-        mCol.getDb().execute("update cards set " + _restoreQueueSnippet() + " where " + queueIsBuriedSnippet());
+        List<Long> cids = mCol.getDb().queryLongList("select id from cards where " + queueIsBuriedSnippet());
+        mCol.log(cids);
+        _updateDeckDueCounts(Utils.ids2str(cids), () ->
+            mCol.getDb().execute("update cards set " + _restoreQueueSnippet() + " where " + queueIsBuriedSnippet())
+        );
     }
 
 
@@ -2620,9 +2778,13 @@ public class SchedV2 extends AbstractSched {
 
         String sids = Utils.ids2str(allDecks != null ? allDecks : mCol.getDecks().active());
 
-        mCol.log(mCol.getDb().queryLongList("select id from cards where " + queue + " and did in " + sids));
-        mCol.getDb().execute("update cards set mod=?,usn=?, " + _restoreQueueSnippet() + " where " + queue + " and did in " + sids,
-                getTime().intTime(), mCol.usn());
+        String queueSnippet = queue;
+        List<Long> cids = mCol.getDb().queryLongList("select id from cards where " + queueSnippet + " and did in " + sids);
+        mCol.log(cids);
+        _updateDeckDueCounts(Utils.ids2str(cids), () ->
+            mCol.getDb().execute("update cards set mod=?,usn=?, " + _restoreQueueSnippet() + " where " + queueSnippet + " and did in " + sids,
+                    getTime().intTime(), mCol.usn())
+        );
     }
 
 
@@ -3115,14 +3277,7 @@ public class SchedV2 extends AbstractSched {
             // Adding anything is useless while the queue awaits being filled
             return;
         }
-        ListIterator<LrnCard> i = mLrnQueue.listIterator();
-        while (i.hasNext()) {
-            if (i.next().getDue() > due) {
-                i.previous();
-                break;
-            }
-        }
-        i.add(new LrnCard(mCol, due, id));
+        mLrnQueue.insertSorted(due, id);
     }
 
 
@@ -3144,6 +3299,13 @@ public class SchedV2 extends AbstractSched {
 
     @Override
     public void undoReview(@NonNull Card oldCardData, boolean wasLeech) {
+        // the card and its buried siblings are restored
+        String sids = Utils.ids2str(mCol.getDb().queryLongList("SELECT id FROM cards WHERE nid = ?", oldCardData.getNid()));
+        _updateDeckDueCounts(sids, () -> _undoReview(oldCardData, wasLeech));
+    }
+
+
+    private void _undoReview(@NonNull Card oldCardData, boolean wasLeech) {
         // remove leech tag if it didn't have it before
         if (!wasLeech && oldCardData.note().hasTag("leech")) {
             oldCardData.note().delTag("leech");
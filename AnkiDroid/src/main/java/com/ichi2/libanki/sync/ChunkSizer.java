@@ -0,0 +1,75 @@
+package com.ichi2.libanki.sync;
+
+import timber.log.Timber;
+
+/**
+ * Chooses the size of the chunks sent by {@link Syncer}, as a budget of bytes of rows.
+ *
+ * Each round trip should last about {@link #TARGET_ROUND_TRIP_MS}, or a few latencies on slow links, so that few
+ * requests are needed on fast networks without making a single request last long enough to time out on slow ones.
+ * The budget is the throughput measured on the previous chunk, times this duration minus the latency. The latency is
+ * the fastest round trip observed. The budget shrinks at once when the network slows down, but at most doubles
+ * between two chunks. Chunks much smaller than the budget are ignored.
+ * <p>
+ * A chunk never has more than {@link #MAX_ROWS} rows, the size of the chunks AnkiWeb always received from Anki and
+ * from AnkiDroid before the budget. So a chunk is at most as large as the chunk which would have been sent before, and
+ * the budget can only make chunks smaller, on slow networks or with large notes.
+ */
+public class ChunkSizer {
+    public static final long MIN_BUDGET = 32 * 1024;
+    public static final long MAX_BUDGET = 4 * 1024 * 1024;
+    /** Roughly the size of the 250 rows chunks sent before the budget was adaptive */
+    public static final long INITIAL_BUDGET = 64 * 1024;
+    /** The number of rows of the chunks of Anki, the only size the servers are known to accept */
+    public static final int MAX_ROWS = 250;
+
+    private static final long TARGET_ROUND_TRIP_MS = 2000;
+    /** Number of latencies a round trip should last at least */
+    private static final int LATENCY_FACTOR = 4;
+
+    private long mBudget = INITIAL_BUDGET;
+    /** Fastest round trip observed, -1 if none */
+    private long mLatencyMs = -1;
+
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+
+    /** @return The latency estimation, -1 if unknown */
+    public long getLatencyMs() {
+        return mLatencyMs;
+    }
+
+
+    /** Records the duration of a request which carried almost no data */
+    public void onLatencySample(long elapsedMs) {
+        if (mLatencyMs == -1 || elapsedMs < mLatencyMs) {
+            mLatencyMs = elapsedMs;
+        }
+    }
+
+
+    /**
+     * Records that a chunk was sent.
+     * @param chunkBytes Size of the chunk, in the unit of the budget
+     * @param elapsedMs Duration of the request which sent it
+     */
+    public void onChunkSent(long chunkBytes, long elapsedMs) {
+        onLatencySample(elapsedMs);
+        if (chunkBytes < mBudget / 2) {
+            // The last chunk of a table, its duration is mostly latency and tells little about the throughput
+            return;
+        }
+        long latency = mLatencyMs;
+        long transferMs = Math.max(1, elapsedMs - latency);
+        long targetMs = Math.max(TARGET_ROUND_TRIP_MS, LATENCY_FACTOR * latency);
+        double bytesPerMs = (double) chunkBytes / transferMs;
+        long ideal = (long) (bytesPerMs * (targetMs - latency));
+        long budget = Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, Math.min(ideal, 2 * mBudget)));
+        Timber.d("Chunk of %d bytes sent in %d ms, latency %d ms: budget %d -> %d bytes", chunkBytes, elapsedMs,
+                latency, mBudget, budget);
+        mBudget = budget;
+    }
+}
@@ -27,6 +27,7 @@ import com.ichi2.async.Connection;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.DB;
 import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sync.StreamingMultipartRequestBody.Payload;
 import com.ichi2.utils.VersionUtils;
 
 import java.io.File;
@@ -153,7 +154,7 @@ public class FullSyncer extends HttpSyncer {
         Response ret;
         mCon.publishProgress(R.string.sync_uploading_message);
         try {
-            ret = super.req("upload", new FileInputStream(filePath));
+            ret = super.req("upload", Payload.of(new File(filePath)));
             if (ret == null || ret.body() == null) {
                 return null;
             }
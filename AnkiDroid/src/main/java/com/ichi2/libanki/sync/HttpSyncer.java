@@ -30,33 +30,28 @@ import com.ichi2.anki.web.HttpFetcher;
 import com.ichi2.async.Connection;
 import com.ichi2.libanki.Consts;
 import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sync.StreamingMultipartRequestBody.Payload;
 
 import com.ichi2.utils.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.SSLException;
 
 import androidx.annotation.Nullable;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -73,7 +68,6 @@ import timber.log.Timber;
 public class HttpSyncer {
 
     private static final String BOUNDARY = "Anki-sync-boundary";
-    private static final MediaType ANKI_POST_TYPE = MediaType.get("multipart/form-data; boundary=" + BOUNDARY);
 
     public static final String ANKIWEB_STATUS_OK = "OK";
 
@@ -141,71 +135,33 @@ public class HttpSyncer {
     }
 
     /** Note: Return value must be closed */
-    public Response req(String method, InputStream fobj) throws UnknownHttpResponseException {
+    public Response req(String method, Payload fobj) throws UnknownHttpResponseException {
         return req(method, fobj, 6);
     }
 
-    /** Note: Return value must be closed */
-    @SuppressWarnings("CharsetObjectCanBeUsed")
-    public Response req(String method, InputStream fobj, int comp) throws UnknownHttpResponseException {
-        File tmpFileBuffer = null;
+    /**
+     * Sends fobj as it is read, without buffering it in a file.
+     * Note: Return value must be closed
+     */
+    public Response req(String method, Payload fobj, int comp) throws UnknownHttpResponseException {
         try {
-            String bdry = "--" + BOUNDARY;
-            StringWriter buf = new StringWriter();
             // post vars
             mPostVars.put("c", comp != 0 ? 1 : 0);
-            for (Map.Entry<String, Object> entry : mPostVars.entrySet()) {
-                buf.write(bdry + "\r\n");
-                buf.write(String.format(Locale.US, "Content-Disposition: form-data; name=\"%s\"\r\n\r\n%s\r\n", entry.getKey(),
-                        entry.getValue()));
-            }
-            tmpFileBuffer = File.createTempFile("syncer", ".tmp", new File(AnkiDroidApp.getCacheStorageDirectory()));
-            FileOutputStream fos = new FileOutputStream(tmpFileBuffer);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
-            GZIPOutputStream tgt;
-            // payload as raw data or json
-            if (fobj != null) {
-                // header
-                buf.write(bdry + "\r\n");
-                buf.write("Content-Disposition: form-data; name=\"data\"; filename=\"data\"\r\nContent-Type: application/octet-stream\r\n\r\n");
-                buf.close();
-                bos.write(buf.toString().getBytes("UTF-8"));
-                // write file into buffer, optionally compressing
-                int len;
-                BufferedInputStream bfobj = new BufferedInputStream(fobj);
-                byte[] chunk = new byte[65536];
-                if (comp != 0) {
-                    tgt = new GZIPOutputStream(bos);
-                    while ((len = bfobj.read(chunk)) >= 0) {
-                        tgt.write(chunk, 0, len);
-                    }
-                    tgt.close();
-                    bos = new BufferedOutputStream(new FileOutputStream(tmpFileBuffer, true));
-                } else {
-                    while ((len = bfobj.read(chunk)) >= 0) {
-                        bos.write(chunk, 0, len);
-                    }
-                }
-                bos.write(("\r\n" + bdry + "--\r\n").getBytes("UTF-8"));
-            } else {
-                buf.close();
-                bos.write(buf.toString().getBytes("UTF-8"));
-                bos.write((bdry + "--\r\n").getBytes("UTF-8"));
-            }
-            bos.flush();
-            bos.close();
-            // connection headers
+            // payload as raw data or json, written and optionally compressed while the request is sent
+            StreamingMultipartRequestBody body = new StreamingMultipartRequestBody(BOUNDARY, mPostVars, fobj, comp,
+                    num -> {
+                        bytesSent.addAndGet(num);
+                        publishProgress();
+                    });
 
+            // connection headers
             String url = Uri.parse(syncURL()).buildUpon().appendPath(method).toString();
 
             Request.Builder requestBuilder = new Request.Builder();
             requestBuilder.url(parseUrl(url));
 
             // Set our request up to count upstream traffic including headers
-            requestBuilder.post(new CountingFileRequestBody(tmpFileBuffer, ANKI_POST_TYPE.toString(), num -> {
-                bytesSent.addAndGet(num);
-                publishProgress();
-            }));
+            requestBuilder.post(body);
             Request httpPost = requestBuilder.build();
             bytesSent.addAndGet(httpPost.headers().byteCount());
             publishProgress();
@@ -235,15 +191,9 @@ public class HttpSyncer {
                 Timber.e(e, "SSLException while building HttpClient");
                 throw new RuntimeException("SSLException while building HttpClient", e);
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
         } catch (IOException e) {
             Timber.e(e, "BasicHttpSyncer.sync: IOException");
             throw new RuntimeException(e);
-        } finally {
-            if (tmpFileBuffer != null && tmpFileBuffer.exists()) {
-                tmpFileBuffer.delete();
-            }
         }
     }
 
@@ -325,14 +275,8 @@ public class HttpSyncer {
     }
 
 
-    @SuppressWarnings("CharsetObjectCanBeUsed")
-    public static ByteArrayInputStream getInputStream(String string) {
-        try {
-            return new ByteArrayInputStream(string.getBytes("UTF-8"));
-        } catch (UnsupportedEncodingException e) {
-            Timber.e(e, "HttpSyncer: error on getting bytes from string");
-            return null;
-        }
+    public static Payload getPayload(String string) {
+        return Payload.of(string.getBytes(StandardCharsets.UTF_8));
     }
 
 
@@ -38,8 +38,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipFile;
 
+import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 import static com.ichi2.libanki.sync.Syncer.ConnectionResultType;
@@ -58,19 +67,32 @@ import static com.ichi2.libanki.sync.Syncer.ConnectionResultType.*;
  *  2 - Scanning for media changes can take a very long time with thousands of files.
  * 
  * Given these two points, we have decided to avoid the call to findChanges() on every sync and
- * only do it on the first sync to build the initial database. Changes to the media collection
- * made through AnkiDroid (e.g., multimedia note editor, media check) are recorded directly in
- * the media database as they are made. This allows us to skip finding media changes entirely
- * as the database already contains the changes.
+ * only do it on the first sync to build the initial database, or when files were added or removed
+ * since the last scan according to the modification time of the directory. Changes to the media
+ * collection made through AnkiDroid (e.g., multimedia note editor, media check) are recorded
+ * directly in the media database as they are made. Scans only checksum the files whose size,
+ * modification time or inode changed since they were last checksummed, so they mostly cost a
+ * walk of the directory.
  * 
- * The downside to this approach is that changes made to the media directory externally (e.g.,
- * through a file manager) will not be recorded and will not be synced. In this case, the user
- * must issue a media check command through the UI to bring the database up-to-date.
+ * The downside to this approach is that files modified in place externally (e.g., through a
+ * file manager) will not be recorded and will not be synced. In this case, the user must issue
+ * a media check command through the UI to bring the database up-to-date.
  */
 @SuppressWarnings({"PMD.AvoidThrowingRawExceptionTypes","PMD.AvoidReassigningParameters",
         "PMD.NPathComplexity","PMD.MethodNamingConventions","PMD.ExcessiveMethodLength","PMD.OneDeclarationPerLine",
         "PMD.SwitchStmtsShouldHaveDefault","PMD.EmptyIfStmt","PMD.SimplifyBooleanReturns","PMD.CollapsibleIfStatements"})
 public class MediaSyncer {
+    /** Number of downloaded zips which may wait to be extracted */
+    private static final int DOWNLOAD_QUEUE_SIZE = 2;
+    /** Number of extracted files recorded together in the media db */
+    private static final int MEDIA_DB_BATCH_SIZE = 1000;
+    /** Time waited for room in the queue of zips before checking whether the extraction stopped */
+    private static final long DOWNLOAD_QUEUE_POLL_MS = 100;
+    /** Time the extraction waits for the downloader to stop after an error */
+    private static final long DOWNLOAD_STOP_TIMEOUT_MS = 10000;
+    /** Queued after the last zip */
+    private static final Object END_OF_ZIPS = new Object();
+
     private final Collection mCol;
     private final RemoteMediaServer mServer;
     private int mDownloadCount;
@@ -86,8 +108,8 @@ public class MediaSyncer {
     // Returned string may be null. ConnectionResultType and Pair are not null
     public Pair<ConnectionResultType, String> sync() throws UnknownHttpResponseException, MediaSyncException {
             // check if there have been any changes
-            // If we haven't built the media db yet, do so on this sync. See note at the top
-            // of this class about this difference to the original.
+            // If we haven't built the media db yet, or files were added or removed, scan on this sync.
+            // See note at the top of this class about this difference to the original.
             if (mCol.getMedia().needScan()) {
                 mCon.publishProgress(R.string.sync_media_find);
                 mCol.log("findChanges");
@@ -237,30 +259,143 @@ public class MediaSyncer {
     }
 
 
-    private void _downloadFiles(List<String> fnames) {
+    /**
+     * Downloads the zips of fnames on a background thread, while this thread extracts the previous ones, so that the
+     * next request is in flight during the extraction. At most {@link #DOWNLOAD_QUEUE_SIZE} zips wait to be extracted,
+     * which bounds the disk used by the downloads when the extraction is the slowest. The files extracted are recorded
+     * in the media db every {@link #MEDIA_DB_BATCH_SIZE} files, and before returning.
+     */
+    @VisibleForTesting
+    void _downloadFiles(List<String> fnames) {
         mCol.log(fnames.size() + " files to fetch");
-        while (fnames.size() > 0) {
+        if (fnames.isEmpty()) {
+            return;
+        }
+        BlockingQueue<Object> zips = new ArrayBlockingQueue<>(DOWNLOAD_QUEUE_SIZE);
+        // Set once this thread stops taking zips. The downloader then closes the zips it gets instead of queuing them.
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        ExecutorService downloader = Executors.newSingleThreadExecutor();
+        Future<Void> download = downloader.submit(() -> {
             try {
-                List<String> top = fnames.subList(0, Math.min(fnames.size(), Consts.SYNC_ZIP_COUNT));
-                mCol.log("fetch " + top);
-                ZipFile zipData = mServer.downloadFiles(top);
-                int cnt = mCol.getMedia().addFilesFromZip(zipData);
+                _fetchZips(fnames, zips, stopped);
+            } finally {
+                _queueZip(zips, END_OF_ZIPS, stopped);
+            }
+            return null;
+        });
+        List<Object[]> media = new ArrayList<>();
+        try {
+            Object zipData;
+            while ((zipData = zips.take()) != END_OF_ZIPS) {
+                int cnt = mCol.getMedia().extractFilesFromZip((ZipFile) zipData, media);
                 mDownloadCount += cnt;
                 mCol.log("received " + cnt + " files");
-                // NOTE: The python version uses slices which return an empty list when indexed beyond what
-                // the list contains. Since we can't slice out an empty sublist in Java, we must check
-                // if we've reached the end and clear the fnames list manually.
-                if (cnt == fnames.size()) {
-                    fnames.clear();
-                } else {
-                    fnames = fnames.subList(cnt, fnames.size());
+                if (media.size() >= MEDIA_DB_BATCH_SIZE) {
+                    mCol.getMedia().addMediaEntries(media);
+                    media.clear();
                 }
                 mCon.publishProgress(String.format(
                         AnkiDroidApp.getAppResources().getString(R.string.sync_media_downloaded_count), mDownloadCount));
-            } catch (IOException | UnknownHttpResponseException e) {
-                Timber.e(e, "Error downloading media files");
-                throw new RuntimeException(e);
             }
+            // rethrows the error which stopped the downloads, if any
+            download.get();
+            mCol.getMedia().addMediaEntries(media);
+        } catch (IOException e) {
+            Timber.e(e, "Error downloading media files");
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Timber.e(cause, "Error downloading media files");
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            stopped.set(true);
+            downloader.shutdownNow();
+            try {
+                if (!downloader.awaitTermination(DOWNLOAD_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Timber.w("Media download still running, it will close the zip it receives");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // zips downloaded but not extracted because of an error
+            List<Object> left = new ArrayList<>(DOWNLOAD_QUEUE_SIZE);
+            zips.drainTo(left);
+            for (Object zipData : left) {
+                if (zipData != END_OF_ZIPS) {
+                    _closeZip((ZipFile) zipData);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Downloads the zips of fnames into zips. The server may send fewer files than requested, the next request starts
+     * after the files listed by the last zip, so it needn't be extracted first. Returns once stopped is set.
+     */
+    private void _fetchZips(List<String> fnames, BlockingQueue<Object> zips, AtomicBoolean stopped)
+            throws UnknownHttpResponseException {
+        int offset = 0;
+        int zipIndex = 0;
+        while (offset < fnames.size() && !stopped.get()) {
+            // Allow cancellation (note: media sync has no finish command, so just throw)
+            if (Connection.getIsCancelled()) {
+                Timber.i("Sync was cancelled");
+                throw new RuntimeException(USER_ABORTED_SYNC.toString());
+            }
+            List<String> top = fnames.subList(offset, Math.min(fnames.size(), offset + Consts.SYNC_ZIP_COUNT));
+            Timber.d("fetch %d files", top.size());
+            // Each zip waiting for extraction needs its own file. The files are deleted once opened, so the names can
+            // be reused by the time the zip using them was extracted.
+            String zipName = "tmpSyncFromServer" + (zipIndex++ % (DOWNLOAD_QUEUE_SIZE + 2)) + ".zip";
+            ZipFile zipData = mServer.downloadFiles(top, zipName);
+            // every entry but _meta is a file
+            int cnt = zipData.size() - 1;
+            if (cnt <= 0) {
+                _closeZip(zipData);
+                throw new RuntimeException("Server sent no media files");
+            }
+            offset += cnt;
+            if (!_queueZip(zips, zipData, stopped)) {
+                _closeZip(zipData);
+            }
+        }
+    }
+
+
+    /**
+     * Waits for room in zips, unless the extraction stopped. Does not rely on interruptions, which a blocking network
+     * call may swallow.
+     * @return Whether the extracting thread got zipData, and will close it
+     */
+    private static boolean _queueZip(BlockingQueue<Object> zips, Object zipData, AtomicBoolean stopped) {
+        try {
+            while (!stopped.get()) {
+                if (zips.offer(zipData, DOWNLOAD_QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    // The extraction may have stopped and drained zips before the offer. Either the drain or this
+                    // removal gets zipData, never both.
+                    return !stopped.get() || !zips.remove(zipData);
+                }
+            }
+        } catch (InterruptedException e) {
+            // only interrupted once stopped
+            Timber.d("Media download interrupted");
+        }
+        return false;
+    }
+
+
+    private static void _closeZip(ZipFile zipData) {
+        try {
+            zipData.close();
+        } catch (IOException e) {
+            Timber.w(e, "Failed to close media zip");
         }
     }
 }
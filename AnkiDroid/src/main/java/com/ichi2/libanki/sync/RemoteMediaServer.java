@@ -28,12 +28,12 @@ import com.ichi2.anki.web.CustomSyncServer;
 import com.ichi2.async.Connection;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sync.StreamingMultipartRequestBody.Payload;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
 import com.ichi2.utils.VersionUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -80,7 +80,7 @@ public class RemoteMediaServer extends HttpSyncer {
             mPostVars.put("v",
                     String.format(Locale.US, "ankidroid,%s,%s", VersionUtils.getPkgVersionName(), Utils.platDesc()));
 
-            Response resp = super.req("begin", HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject())));
+            Response resp = super.req("begin", HttpSyncer.getPayload(Utils.jsonToString(new JSONObject())));
             JSONObject jresp = new JSONObject(resp.body().string());
             JSONObject ret = _dataOnly(jresp, JSONObject.class);
             mSKey = ret.getString("sk");
@@ -98,7 +98,7 @@ public class RemoteMediaServer extends HttpSyncer {
             mPostVars.put("sk", mSKey);
 
             Response resp = super.req("mediaChanges",
-                    HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject().put("lastUsn", lastUsn))));
+                    HttpSyncer.getPayload(Utils.jsonToString(new JSONObject().put("lastUsn", lastUsn))));
             JSONObject jresp = new JSONObject(resp.body().string());
             return _dataOnly(jresp, JSONArray.class);
         } catch (IOException e) {
@@ -114,11 +114,20 @@ public class RemoteMediaServer extends HttpSyncer {
      * be automatically deleted when the stream is closed.
      */
     public ZipFile downloadFiles(List<String> top) throws UnknownHttpResponseException {
+        return downloadFiles(top, "tmpSyncFromServer.zip");
+    }
+
+
+    /**
+     * As {@link #downloadFiles(List)}, saving the zip under zipName in the collection folder, so that several zips
+     * can be downloaded before the previous ones are extracted.
+     */
+    public ZipFile downloadFiles(List<String> top, String zipName) throws UnknownHttpResponseException {
         Response resp = null;
         try {
             resp = super.req("downloadFiles",
-                    HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject().put("files", new JSONArray(top)))));
-            String zipPath = mCol.getPath().replaceFirst("collection\\.anki2$", "tmpSyncFromServer.zip");
+                    HttpSyncer.getPayload(Utils.jsonToString(new JSONObject().put("files", new JSONArray(top)))));
+            String zipPath = mCol.getPath().replaceFirst("collection\\.anki2$", zipName);
             // retrieve contents and save to file on disk:
             super.writeToFile(resp.body().byteStream(), zipPath);
             return new ZipFile(new File(zipPath), ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
@@ -136,7 +145,7 @@ public class RemoteMediaServer extends HttpSyncer {
     public JSONArray uploadChanges(File zip) throws UnknownHttpResponseException, MediaSyncException {
         try {
             // no compression, as we compress the zip file instead
-            Response resp = super.req("uploadChanges", new FileInputStream(zip), 0);
+            Response resp = super.req("uploadChanges", Payload.of(zip), 0);
             JSONObject jresp = new JSONObject(resp.body().string());
             return _dataOnly(jresp, JSONArray.class);
         } catch (IOException | NullPointerException e) {
@@ -149,7 +158,7 @@ public class RemoteMediaServer extends HttpSyncer {
     public String mediaSanity(int lcnt) throws UnknownHttpResponseException, MediaSyncException {
         try {
             Response resp = super.req("mediaSanity",
-                    HttpSyncer.getInputStream(Utils.jsonToString(new JSONObject().put("local", lcnt))));
+                    HttpSyncer.getPayload(Utils.jsonToString(new JSONObject().put("local", lcnt))));
             JSONObject jresp = new JSONObject(resp.body().string());
             return _dataOnly(jresp, String.class);
         } catch (IOException | NullPointerException e) {
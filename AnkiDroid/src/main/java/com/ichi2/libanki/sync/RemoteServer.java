@@ -48,7 +48,7 @@ public class RemoteServer extends HttpSyncer {
             JSONObject credentials = new JSONObject();
             credentials.put("u", user);
             credentials.put("p", pw);
-            return super.req("hostKey", HttpSyncer.getInputStream(Utils.jsonToString(credentials)));
+            return super.req("hostKey", HttpSyncer.getPayload(Utils.jsonToString(credentials)));
         } catch (JSONException e) {
             Timber.w(e);
             return null;
@@ -64,7 +64,7 @@ public class RemoteServer extends HttpSyncer {
         meta.put("v", Consts.SYNC_VER);
         meta.put("cv",
                 String.format(Locale.US, "ankidroid,%s,%s", VersionUtils.getPkgVersionName(), Utils.platDesc()));
-        return super.req("meta", HttpSyncer.getInputStream(Utils.jsonToString(meta)));
+        return super.req("meta", HttpSyncer.getPayload(Utils.jsonToString(meta)));
     }
 
 
@@ -102,7 +102,7 @@ public class RemoteServer extends HttpSyncer {
 
     /** Python has dynamic type deduction, but we don't, so return String **/
     private String _run(String cmd, JSONObject data) throws UnknownHttpResponseException {
-        Response ret = super.req(cmd, HttpSyncer.getInputStream(Utils.jsonToString(data)));
+        Response ret = super.req(cmd, HttpSyncer.getPayload(Utils.jsonToString(data)));
         try {
             return ret.body().string();
         } catch (IllegalStateException | IOException e) {
@@ -0,0 +1,295 @@
+package com.ichi2.libanki.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Multipart body of the sync requests, written directly to the connection: the post vars, then the payload, gzipped
+ * while it is written if requested. Nothing is buffered on disk.
+ *
+ * The payload is a byte array or a file, which can be read again, so that OkHttp can retry the request or follow a
+ * redirect. The body always has a known length, and is never sent with chunked transfer encoding. To learn the length
+ * of a gzipped payload, it is compressed once before the request: if the result is small it is kept and sent as is,
+ * otherwise only its length is kept and the payload is compressed again while it is written. Compressing the same
+ * bytes gives the same result, as the gzip header has no timestamp.
+ */
+public class StreamingMultipartRequestBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Gzipped payloads up to this size are kept in memory instead of being compressed a second time */
+    @VisibleForTesting
+    static final int COMPRESSED_BUFFER_LIMIT = 1024 * 1024;
+
+    private final MediaType mContentType;
+    private final byte[] mHeader;
+    private final byte[] mFooter;
+    private final @Nullable Payload mData;
+    private final int mComp;
+    private final ProgressListener mListener;
+
+    /** The gzipped payload when it fits in {@link #COMPRESSED_BUFFER_LIMIT}, computed by {@link #compressedLength()} */
+    private @Nullable byte[] mCompressed;
+    private long mCompressedLength = -1;
+
+
+    /**
+     * @param data The payload, or null if there is none.
+     * @param comp Whether data is gzipped, if not 0
+     * @param listener Called with the number of bytes written, as they are written
+     */
+    public StreamingMultipartRequestBody(@NonNull String boundary, @NonNull Map<String, Object> postVars,
+                                         @Nullable Payload data, int comp, @NonNull ProgressListener listener) {
+        mContentType = MediaType.get("multipart/form-data; boundary=" + boundary);
+        mData = data;
+        mComp = comp;
+        mListener = listener;
+        String bdry = "--" + boundary;
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Object> entry : postVars.entrySet()) {
+            header.append(bdry).append("\r\n");
+            header.append(String.format(Locale.US, "Content-Disposition: form-data; name=\"%s\"\r\n\r\n%s\r\n", entry.getKey(),
+                    entry.getValue()));
+        }
+        if (data != null) {
+            header.append(bdry).append("\r\n");
+            header.append("Content-Disposition: form-data; name=\"data\"; filename=\"data\"\r\nContent-Type: application/octet-stream\r\n\r\n");
+            mFooter = ("\r\n" + bdry + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        } else {
+            mFooter = (bdry + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+        mHeader = header.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public MediaType contentType() {
+        return mContentType;
+    }
+
+
+    @Override
+    public long contentLength() throws IOException {
+        if (mData == null) {
+            return mHeader.length + mFooter.length;
+        }
+        long dataLength = mComp != 0 ? compressedLength() : mData.length();
+        return mHeader.length + dataLength + mFooter.length;
+    }
+
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        OutputStream out = new CountingOutputStream(sink.outputStream(), mListener);
+        out.write(mHeader);
+        if (mData != null) {
+            if (mComp == 0) {
+                try (InputStream data = mData.open()) {
+                    copy(data, out);
+                }
+            } else if (compressedLength() <= COMPRESSED_BUFFER_LIMIT) {
+                out.write(mCompressed);
+            } else {
+                LengthOutputStream payload = new LengthOutputStream(out);
+                gzip(mData, payload);
+                if (payload.getLength() != mCompressedLength) {
+                    throw new IOException("The payload changed while it was sent");
+                }
+            }
+        }
+        out.write(mFooter);
+        out.flush();
+    }
+
+
+    /** Length of the gzipped payload, compressing it the first time */
+    private long compressedLength() throws IOException {
+        if (mCompressedLength < 0) {
+            BoundedBuffer compressed = new BoundedBuffer(COMPRESSED_BUFFER_LIMIT);
+            gzip(mData, compressed);
+            mCompressed = compressed.toByteArray();
+            mCompressedLength = compressed.getLength();
+        }
+        return mCompressedLength;
+    }
+
+
+    private static void gzip(Payload data, OutputStream out) throws IOException {
+        try (InputStream in = data.open()) {
+            // not closed, as the footer follows
+            GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            copy(in, gzip);
+            gzip.finish();
+        }
+    }
+
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+    }
+
+
+    /** Data sent in a request. It can be read as many times as the request is written. */
+    public abstract static class Payload {
+        /** A new stream on the whole data. */
+        protected abstract InputStream open() throws IOException;
+
+        /** Length of the uncompressed data. */
+        protected abstract long length();
+
+
+        public static Payload of(@NonNull byte[] data) {
+            return new Payload() {
+                @Override
+                protected InputStream open() {
+                    return new ByteArrayInputStream(data);
+                }
+
+
+                @Override
+                protected long length() {
+                    return data.length;
+                }
+            };
+        }
+
+
+        public static Payload of(@NonNull File file) {
+            return new Payload() {
+                @Override
+                protected InputStream open() throws IOException {
+                    return new FileInputStream(file);
+                }
+
+
+                @Override
+                protected long length() {
+                    return file.length();
+                }
+            };
+        }
+    }
+
+
+    public interface ProgressListener {
+        void transferred(long num);
+    }
+
+
+    /** Counts the bytes written */
+    private static class LengthOutputStream extends FilterOutputStream {
+        private long mLength = 0;
+
+
+        public LengthOutputStream(OutputStream out) {
+            super(out);
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mLength++;
+        }
+
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mLength += len;
+        }
+
+
+        public long getLength() {
+            return mLength;
+        }
+    }
+
+
+    /** Keeps the bytes written as long as there are at most limit of them, and only counts them afterwards */
+    private static class BoundedBuffer extends OutputStream {
+        private final int mLimit;
+        private @Nullable ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+        private long mLength = 0;
+
+
+        public BoundedBuffer(int limit) {
+            mLimit = limit;
+        }
+
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            mLength += len;
+            if (mLength > mLimit) {
+                mBuffer = null;
+            } else if (mBuffer != null) {
+                mBuffer.write(b, off, len);
+            }
+        }
+
+
+        public long getLength() {
+            return mLength;
+        }
+
+
+        /** The bytes written, or null if there were more than limit */
+        public @Nullable byte[] toByteArray() {
+            return mBuffer != null ? mBuffer.toByteArray() : null;
+        }
+    }
+
+
+    /** Reports the bytes written to the connection */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final ProgressListener mListener;
+
+
+        public CountingOutputStream(OutputStream out, ProgressListener listener) {
+            super(out);
+            mListener = listener;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mListener.transferred(1);
+        }
+
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mListener.transferred(len);
+        }
+    }
+}
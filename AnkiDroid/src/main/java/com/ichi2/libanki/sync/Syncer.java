@@ -82,6 +82,10 @@ public class Syncer {
 
     private LinkedList<String> mTablesLeft;
     private Cursor mCursor;
+    private final ChunkSizer mChunkSizer = new ChunkSizer();
+    /** Size of the rows of the last chunk, in the unit of the chunk budget */
+    private long mLastChunkBytes;
+    private int mLastChunkRows;
 
 
     public Syncer(Collection col, RemoteServer server, HostNum hostNum) {
@@ -142,10 +146,12 @@ public class Syncer {
         mCol.getSched()._updateCutoff();
         mCol.save();
         // step 1: login & metadata
+        long metaStart = mCol.getTime().intTimeMS();
         Response ret = mRemoteServer.meta();
         if (ret == null) {
             return null;
         }
+        mChunkSizer.onLatencySample(mCol.getTime().intTimeMS() - metaStart);
         int returntype = ret.code();
         if (returntype == 403) {
             return new Pair<>(BAD_AUTH, null);
@@ -249,6 +255,8 @@ public class Syncer {
                 }
                 // step 4: stream to server
                 publishProgress(con, R.string.sync_upload_chunk);
+                int rowsToSend = rowsToChunk();
+                int rowsSent = 0;
                 while (true) {
                     throwExceptionIfCancelled(con);
                     Timber.i("Sync: collecting chunked data");
@@ -256,8 +264,18 @@ public class Syncer {
                     mCol.log("client chunk", chunk);
                     JSONObject sech = new JSONObject();
                     sech.put("chunk", chunk);
+                    long sent = mRemoteServer.bytesSent.get();
+                    long received = mRemoteServer.bytesReceived.get();
                     Timber.i("Sync: sending chunked data");
+                    long start = mCol.getTime().intTimeMS();
                     mRemoteServer.applyChunk(sech);
+                    long elapsed = mCol.getTime().intTimeMS() - start;
+                    rowsSent += mLastChunkRows;
+                    Timber.d("Sync: sent chunk of %d rows, %d bytes (%d up, %d down) in %d ms", mLastChunkRows,
+                            mLastChunkBytes, mRemoteServer.bytesSent.get() - sent,
+                            mRemoteServer.bytesReceived.get() - received, elapsed);
+                    mChunkSizer.onChunkSent(mLastChunkBytes, elapsed);
+                    publishChunkProgress(con, rowsSent, rowsToSend);
                     if (chunk.getBoolean("done")) {
                         break;
                     }
@@ -331,6 +349,15 @@ public class Syncer {
     }
 
 
+    private void publishChunkProgress(Connection con, int rowsSent, int rowsToSend) {
+        if (con != null) {
+            int percent = rowsToSend == 0 ? 100 : Math.min(100, rowsSent * 100 / rowsToSend);
+            con.publishProgress(AnkiDroidApp.getAppResources().getString(R.string.sync_upload_chunk_progress, percent),
+                    mRemoteServer.bytesSent.get(), mRemoteServer.bytesReceived.get());
+        }
+    }
+
+
     public JSONObject meta() throws JSONException {
         JSONObject j = new JSONObject();
         j.put("mod", mCol.getMod());
@@ -564,12 +591,19 @@ public class Syncer {
     }
 
 
+    /**
+     * @return The next rows to send: at most {@link ChunkSizer#MAX_ROWS} of them, and at most
+     * {@link ChunkSizer#getBudget()} bytes of them, as estimated from the length of their values.
+     */
     public JSONObject chunk() {
         JSONObject buf = new JSONObject();
         buf.put("done", false);
-        int lim = 250;
+        long budget = mChunkSizer.getBudget();
+        int lim = ChunkSizer.MAX_ROWS;
         List<Integer> colTypes = null;
-        while (!mTablesLeft.isEmpty() && lim > 0) {
+        mLastChunkBytes = 0;
+        mLastChunkRows = 0;
+        while (!mTablesLeft.isEmpty() && lim > 0 && budget > 0) {
             String curTable = mTablesLeft.getFirst();
             if (mCursor == null) {
                 mCursor = cursorForTable(curTable);
@@ -578,38 +612,41 @@ public class Syncer {
             JSONArray rows = new JSONArray();
             int count = mCursor.getColumnCount();
             int fetched = 0;
+            long size = 0;
+            boolean full = false;
             while (mCursor.moveToNext()) {
                 JSONArray r = new JSONArray();
                 for (int i = 0; i < count; i++) {
                     switch (colTypes.get(i)) {
                     case TYPE_STRING:
-                        r.put(mCursor.getString(i));
+                        String value = mCursor.getString(i);
+                        r.put(value);
+                        size += (value == null ? 0 : value.length()) + 3;
                         break;
                     case TYPE_FLOAT:
                         r.put(mCursor.getDouble(i));
+                        size += 8;
                         break;
                     case TYPE_INTEGER:
                         r.put(mCursor.getLong(i));
+                        size += 8;
                         break;
                     }
                 }
                 rows.put(r);
-                if (++fetched == lim) {
+                if (++fetched == lim || size >= budget) {
+                    full = true;
                     break;
                 }
             }
-            if (fetched != lim) {
-                // table is empty
-                mTablesLeft.removeFirst();
-                mCursor.close();
-                mCursor = null;
-                // if we're the client, mark the objects as having been sent
-                if (!mCol.getServer()) {
-                    mCol.getDb().execute("UPDATE " + curTable + " SET usn=? WHERE usn=-1", mMaxUsn);
-                }
+            if (!full) {
+                finishTable(curTable);
             }
             buf.put(curTable, rows);
             lim -= fetched;
+            budget -= size;
+            mLastChunkBytes += size;
+            mLastChunkRows += fetched;
         }
         if (mTablesLeft.isEmpty()) {
             buf.put("done", true);
@@ -618,16 +655,53 @@ public class Syncer {
     }
 
 
+    /** @return The number of rows the chunks will contain */
+    private int rowsToChunk() {
+        Pair<String, Object[]> limAndArg = usnLim();
+        int rows = 0;
+        for (String table : mTablesLeft) {
+            rows += mCol.getDb().queryScalar("SELECT count() FROM " + table + " WHERE " + limAndArg.first, limAndArg.second);
+        }
+        return rows;
+    }
+
+
+    /** Called once every row of the table was sent */
+    private void finishTable(String table) {
+        mTablesLeft.removeFirst();
+        mCursor.close();
+        mCursor = null;
+        // if we're the client, mark the objects as having been sent
+        if (!mCol.getServer()) {
+            mCol.getDb().execute("UPDATE " + table + " SET usn=? WHERE usn=-1", mMaxUsn);
+        }
+    }
+
+
     public void applyChunk(JSONObject chunk) {
         if (chunk.has("revlog")) {
-            mergeRevlog(chunk.getJSONArray("revlog"));
+            JSONArray revlog = chunk.getJSONArray("revlog");
+            mergeRevlog(jsonRows(revlog));
         }
         if (chunk.has("cards")) {
-            mergeCards(chunk.getJSONArray("cards"));
+            JSONArray cards = chunk.getJSONArray("cards");
+            mCol.log("cards", cards);
+            mergeCards(jsonRows(cards));
         }
         if (chunk.has("notes")) {
-            mergeNotes(chunk.getJSONArray("notes"));
+            JSONArray notes = chunk.getJSONArray("notes");
+            mCol.log("notes", notes);
+            mergeNotes(jsonRows(notes));
+        }
+    }
+
+
+    private static List<Object[]> jsonRows(JSONArray data) {
+        List<Object[]> rows = new ArrayList<>(data.length());
+        for (JSONArray r : data.jsonArrayIterable()) {
+            rows.add(Utils.jsonArray2Objects(r));
         }
+        return rows;
     }
 
 
@@ -845,23 +919,19 @@ public class Syncer {
      * Cards/notes/revlog ********************************************************************
      */
 
-    private void mergeRevlog(JSONArray logs) {
-        for (JSONArray log: logs.jsonArrayIterable()) {
-            try {
-                mCol.getDb().execute("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)",
-                        Utils.jsonArray2Objects(log));
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
+    private void mergeRevlog(List<Object[]> logs) {
+        try {
+            mCol.getDb().executeMany("INSERT OR IGNORE INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", logs);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
-
     }
 
 
-    private ArrayList<Object[]> newerRows(JSONArray data, String table, int modIdx) {
-        long[] ids = new long[data.length()];
-        for (int i = 0; i < data.length(); i++) {
-            ids[i] = data.getJSONArray(i).getLong(0);
+    private ArrayList<Object[]> newerRows(List<Object[]> data, String table, int modIdx) {
+        long[] ids = new long[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            ids[i] = ((Number) data.get(i)[0]).longValue();
         }
         Pair<String, Object[]> limAndArg = usnLim();
         Map<Long, Long> lmods = new HashMap<>(mCol
@@ -878,29 +948,37 @@ public class Syncer {
                 lmods.put(cur.getLong(0), cur.getLong(1));
             }
         }
-        ArrayList<Object[]> update = new ArrayList<>(data.length());
-        for (JSONArray r: data.jsonArrayIterable()) {
-            if (!lmods.containsKey(r.getLong(0)) || lmods.get(r.getLong(0)) < r.getLong(modIdx)) {
-                update.add(Utils.jsonArray2Objects(r));
+        ArrayList<Object[]> update = new ArrayList<>(data.size());
+        for (Object[] r: data) {
+            Long lmod = lmods.get(((Number) r[0]).longValue());
+            if (lmod == null || lmod < ((Number) r[modIdx]).longValue()) {
+                update.add(r);
             }
         }
-        mCol.log(table, data);
         return update;
     }
 
 
-    private void mergeCards(JSONArray cards) {
-        for (Object[] r : newerRows(cards, "cards", 4)) {
-            mCol.getDb().execute("INSERT OR REPLACE INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", r);
+    private void mergeCards(List<Object[]> cards) {
+        ArrayList<Object[]> newer = newerRows(cards, "cards", 4);
+        if (newer.isEmpty()) {
+            return;
         }
+        mCol.getDb().executeMany("INSERT OR REPLACE INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", newer);
     }
 
 
-    private void mergeNotes(JSONArray notes) {
-        for (Object[] n : newerRows(notes, "notes", 4)) {
-            mCol.getDb().execute("INSERT OR REPLACE INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", n);
-            mCol.updateFieldCache(new long[]{((Number) n[0]).longValue()});
+    private void mergeNotes(List<Object[]> notes) {
+        ArrayList<Object[]> newer = newerRows(notes, "notes", 4);
+        if (newer.isEmpty()) {
+            return;
+        }
+        mCol.getDb().executeMany("INSERT OR REPLACE INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", newer);
+        long[] nids = new long[newer.size()];
+        for (int i = 0; i < nids.length; i++) {
+            nids[i] = ((Number) newer.get(i)[0]).longValue();
         }
+        mCol.updateFieldCache(nids);
     }
 
 
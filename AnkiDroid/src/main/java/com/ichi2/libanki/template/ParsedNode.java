@@ -5,6 +5,7 @@ import android.util.Pair;
 
 import com.ichi2.anki.R;
 import com.ichi2.libanki.Utils;
+import com.ichi2.utils.BoundedLruCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,7 +14,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -47,10 +47,21 @@ public abstract class ParsedNode {
     public abstract void render_into(Map<String, String> fields, Set<String> nonempty_fields, StringBuilder builder) throws TemplateError;
 
 
+    /** Number of templates whose node is kept. Cloze templates are rendered from a different template for each ord. */
+    public static final int PARSE_INNER_CACHE_CAPACITY = 512;
+
     /**
-     * Associate to each template its node, or the error it generates
+     * Associate to each template its node, or the error it generates.
+     * Thread safe, as cards are rendered on several threads. Nodes are never modified once parsed.
+     * Invalidated when a note type is saved.
      */
-    private static WeakHashMap<String, Pair<ParsedNode, TemplateError>> parse_inner_cache = new WeakHashMap<>();
+    private static final BoundedLruCache<String, Pair<ParsedNode, TemplateError>> parse_inner_cache = new BoundedLruCache<>(PARSE_INNER_CACHE_CAPACITY);
+
+
+    /** The cache of parsed templates, so that its hits, misses and evictions can be read */
+    public static BoundedLruCache<String, Pair<ParsedNode, TemplateError>> getParseInnerCache() {
+        return parse_inner_cache;
+    }
 
     /**
      * @param template A question or answer template
@@ -58,8 +69,9 @@ public abstract class ParsedNode {
      * @throws TemplateError if the template is not valid
      */
     public static @NonNull ParsedNode parse_inner(@NonNull String template) throws TemplateError{
-        if (!parse_inner_cache.containsKey(template)) {
-            Pair<ParsedNode, TemplateError> res;
+        Pair<ParsedNode, TemplateError> res = parse_inner_cache.get(template);
+        if (res == null) {
+            // two threads may parse the same template, and each get its own node
             try {
                 ParsedNode node = parse_inner(new Tokenizer(template));
                 res = new Pair<>(node, null);
@@ -68,7 +80,6 @@ public abstract class ParsedNode {
             }
             parse_inner_cache.put(template, res);
         }
-        Pair<ParsedNode, TemplateError> res = parse_inner_cache.get(template);
         if (res.first != null) {
             return res.first;
         }
@@ -0,0 +1,87 @@
+package com.ichi2.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A map keeping at most a given number of entries, the least recently used entry being evicted first. Thread safe.
+ * <p>
+ * Contrary to a WeakHashMap, entries are only removed when the cache is full or invalidated, and not each time the
+ * garbage collector runs. Counts hits, misses and evictions.
+ */
+public class BoundedLruCache<K, V> {
+    private final int mCapacity;
+    private final Map<K, V> mCache;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+
+    public BoundedLruCache(int capacity) {
+        mCapacity = capacity;
+        mCache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<K, V> eldest) {
+                if (size() > mCapacity) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /** @return The value of the key, null if it is not in the cache */
+    @Nullable
+    public synchronized V get(@NonNull K key) {
+        V value = mCache.get(key);
+        if (value != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return value;
+    }
+
+
+    public synchronized void put(@NonNull K key, @NonNull V value) {
+        mCache.put(key, value);
+    }
+
+
+    /** Forgets every entry, as what they were computed from changed. */
+    public synchronized void invalidate() {
+        mCache.clear();
+    }
+
+
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+
+    /** @return The number of entries removed because the cache was full */
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+}
@@ -26,17 +26,23 @@ import android.util.Pair;
 import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteQuery;
 import androidx.sqlite.db.SupportSQLiteStatement;
 
-/** Detects any database modifications and notifies the sync status of the application */
+/**
+ * Detects any database modifications and notifies the sync status of the application. Also counts them, so that query
+ * results can be cached until the database is modified.
+ */
 public class DatabaseChangeDecorator implements SupportSQLiteDatabase {
 
     private static final String[] MOD_SQLS = new String[] { "insert", "update", "delete" };
 
     private final SupportSQLiteDatabase mWrapped;
+    /** Number of modifying statements executed on this connection */
+    private final AtomicLong mModificationCount = new AtomicLong();
 
 
     public DatabaseChangeDecorator(SupportSQLiteDatabase wrapped) {
@@ -53,17 +59,40 @@ public class DatabaseChangeDecorator implements SupportSQLiteDatabase {
     }
 
     private void checkForChanges(String sql) {
-        if (!needsComplexCheck()) {
+        if (!isModification(sql)) {
             return;
         }
+        mModificationCount.incrementAndGet();
+        if (needsComplexCheck()) {
+            markDataAsChanged();
+        }
+    }
+
+
+    private boolean isModification(String sql) {
         String lower = sql.toLowerCase(Locale.ROOT);
         String upper = sql.toUpperCase(Locale.ROOT);
         for (String modString : MOD_SQLS) {
             if (startsWithIgnoreCase(lower, upper, modString)) {
-                markDataAsChanged();
-                break;
+                return true;
             }
         }
+        return false;
+    }
+
+
+    private void markModified() {
+        mModificationCount.incrementAndGet();
+        markDataAsChanged();
+    }
+
+
+    /**
+     * @return A number which changes each time a statement modifying the database is executed on this connection,
+     * including statements compiled by {@link #compileStatement(String)}.
+     */
+    public long getModificationCount() {
+        return mModificationCount.get();
     }
 
 
@@ -75,8 +104,13 @@ public class DatabaseChangeDecorator implements SupportSQLiteDatabase {
 
     public SupportSQLiteStatement compileStatement(String sql) {
         SupportSQLiteStatement supportSQLiteStatement = mWrapped.compileStatement(sql);
-        checkForChanges(sql); //technically a little hasty - as the statement hasn't been executed.
-        return supportSQLiteStatement;
+        if (!isModification(sql)) {
+            return supportSQLiteStatement;
+        }
+        if (needsComplexCheck()) {
+            markDataAsChanged(); //technically a little hasty - as the statement hasn't been executed.
+        }
+        return new CountingStatement(supportSQLiteStatement);
     }
 
 
@@ -182,21 +216,21 @@ public class DatabaseChangeDecorator implements SupportSQLiteDatabase {
 
     public long insert(String table, int conflictAlgorithm, ContentValues values) throws SQLException {
         long insert = mWrapped.insert(table, conflictAlgorithm, values);
-        markDataAsChanged();
+        markModified();
         return insert;
     }
 
 
     public int delete(String table, String whereClause, Object[] whereArgs) {
         int delete = mWrapped.delete(table, whereClause, whereArgs);
-        markDataAsChanged();
+        markModified();
         return delete;
     }
 
 
     public int update(String table, int conflictAlgorithm, ContentValues values, String whereClause, Object[] whereArgs) {
         int update = mWrapped.update(table, conflictAlgorithm, values, whereClause, whereArgs);
-        markDataAsChanged();
+        markModified();
         return update;
     }
 
@@ -280,5 +314,81 @@ public class DatabaseChangeDecorator implements SupportSQLiteDatabase {
     public SupportSQLiteDatabase getWrapped() {
         return mWrapped;
     }
+
+
+    /** A modifying statement, counted each time it is executed */
+    private class CountingStatement implements SupportSQLiteStatement {
+        private final SupportSQLiteStatement mStatement;
+
+
+        private CountingStatement(SupportSQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+
+        public void execute() {
+            mStatement.execute();
+            mModificationCount.incrementAndGet();
+        }
+
+
+        public int executeUpdateDelete() {
+            int changed = mStatement.executeUpdateDelete();
+            mModificationCount.incrementAndGet();
+            return changed;
+        }
+
+
+        public long executeInsert() {
+            long rowId = mStatement.executeInsert();
+            mModificationCount.incrementAndGet();
+            return rowId;
+        }
+
+
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+
+        public String simpleQueryForString() {
+            return mStatement.simpleQueryForString();
+        }
+
+
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+
+        public void close() throws IOException {
+            mStatement.close();
+        }
+    }
 }
 
@@ -0,0 +1,91 @@
+package com.ichi2.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A growable array of longs, so that large lists of ids don't need a boxed Long for each element.
+ * Not thread safe.
+ */
+public class LongArrayList {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mValues;
+    private int mSize;
+
+
+    public LongArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    public LongArrayList(int capacity) {
+        mValues = new long[Math.max(capacity, 1)];
+    }
+
+
+    public void add(long value) {
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mValues.length * 2);
+        }
+        mValues[mSize++] = value;
+    }
+
+
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return mValues[index];
+    }
+
+
+    public int size() {
+        return mSize;
+    }
+
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+
+    /** Reverses the order of the elements, in place. */
+    public void reverse() {
+        for (int i = 0, j = mSize - 1; i < j; i++, j--) {
+            long tmp = mValues[i];
+            mValues[i] = mValues[j];
+            mValues[j] = tmp;
+        }
+    }
+
+
+    /** @return A new list with the first length elements */
+    @NonNull
+    public LongArrayList copyOf(int length) {
+        length = Math.min(length, mSize);
+        LongArrayList copy = new LongArrayList(length);
+        System.arraycopy(mValues, 0, copy.mValues, 0, length);
+        copy.mSize = length;
+        return copy;
+    }
+
+
+    @NonNull
+    public long[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+
+
+    @NonNull
+    public List<Long> toList() {
+        List<Long> list = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            list.add(mValues[i]);
+        }
+        return list;
+    }
+}
@@ -28,6 +28,7 @@ import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowActivity;
 import org.robolectric.shadows.ShadowApplication;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -96,6 +97,20 @@ public class CardBrowserTest extends RobolectricTest {
         assertThat(browser.isShowingSelectNone(), is(true));
     }
 
+    @Test
+    public void selectAllDoesNotCreateTheRowsOfTheCards() {
+        CardBrowser browser = getBrowserWithNotes(300);
+        int last = (int) browser.cardCount() - 1;
+        assertThat(browser.hasCreatedRowAtPosition(last), is(false));
+
+        selectMenuItem(browser, R.id.action_select_all);
+        advanceRobolectricLooperWithSleep();
+
+        assertThat(browser.checkedCardCount(), is(300));
+        assertThat(browser.hasCheckedCardAtPosition(last), is(true));
+        assertThat(browser.hasCreatedRowAtPosition(last), is(false));
+    }
+
     @Test
     public void selectNoneIsVisibleWhenSelectingOne() {
         CardBrowser browser = getBrowserWithMultipleNotes();
@@ -529,6 +544,25 @@ public class CardBrowserTest extends RobolectricTest {
         assertThat("Results should only be from the selected deck", cardBrowser.getCardCount(), is(1));
     }
 
+    @Test
+    public void pageOfCardsIsLoadedInOneGo() {
+        Card card = addNoteUsingBasicModel("Hello", "World").firstCard();
+        List<CardBrowser.CardCache> cards = Arrays.asList(new CardBrowser.CardCache(card.getId(), getCol(), 0),
+                new CardBrowser.CardCache(123456789L, getCol(), 1));
+
+        List<Long> missing = CardBrowser.CardCache.loadPage(getCol(), cards, 0, 0);
+
+        assertThat("cards which don't exist are reported", missing, is(Collections.singletonList(123456789L)));
+        CardBrowser.CardCache loaded = cards.get(0);
+        assertThat(loaded.isLoaded(), is(true));
+        assertThat(cards.get(1).isLoaded(), is(false));
+        assertThat(loaded.getColumnHeaderText(CardBrowser.Column.SFLD), is("Hello"));
+        assertThat(loaded.getColumnHeaderText(CardBrowser.Column.NOTE_TYPE), is("Basic"));
+        assertThat(loaded.getColumnHeaderText(CardBrowser.Column.CARD), is("Card 1"));
+        assertThat(loaded.getColumnHeaderText(CardBrowser.Column.DUE), is("1"));
+        assertThat(loaded.getColumnHeaderText(CardBrowser.Column.QUESTION), is("Hello"));
+    }
+
     /** PR #8553 **/
     @Test
     public void checkDisplayOrderPersistence() {
@@ -16,15 +16,22 @@
 
 package com.ichi2.anki;
 
+import com.ichi2.utils.LongArrayList;
+
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 
 import androidx.annotation.NonNull;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 public class CardBrowser_CardCollectionTest {
 
@@ -42,6 +49,35 @@ public class CardBrowser_CardCollectionTest {
     }
 
 
+    @Test
+    public void rowsAreCreatedWhenAccessed() {
+        LongArrayList ids = new LongArrayList();
+        for (long id = 0; id < 1000; id++) {
+            ids.add(id + 10);
+        }
+        List<Long> created = new ArrayList<>();
+        CardBrowser.CardCollection<Positioned> cardCollection = new CardBrowser.CardCollection<>();
+        cardCollection.replaceWith(ids, (id, position) -> {
+            created.add(id);
+            return new Positioned(position);
+        });
+
+        assertThat(cardCollection.size(), is(1000));
+        assertThat(cardCollection.getId(999), is(1009L));
+        assertThat(cardCollection.getIfCreated(999), is(nullValue()));
+        assertThat(cardCollection.get(999).getPosition(), is(999));
+        assertThat(cardCollection.get(999), is(sameInstance(cardCollection.get(999))));
+        assertThat(created, is(Collections.singletonList(1009L)));
+
+        cardCollection.reverse();
+
+        assertThat(cardCollection.getId(0), is(1009L));
+        assertThat(cardCollection.getIfCreated(0).getPosition(), is(0));
+        assertThat(cardCollection.get(1).getPosition(), is(1));
+        assertThat(created, is(Arrays.asList(1009L, 1008L)));
+    }
+
+
     @NonNull
     protected CardBrowser.CardCollection<Positioned> createCollection(Positioned... toInsert) {
         CardBrowser.CardCollection<Positioned> cardCollection = new CardBrowser.CardCollection<>();
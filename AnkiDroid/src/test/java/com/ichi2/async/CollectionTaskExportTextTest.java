@@ -0,0 +1,63 @@
+package com.ichi2.async;
+
+import android.util.Pair;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CollectionTaskExportTextTest extends AbstractCollectionTaskTest {
+
+    @Test
+    public void cardsAreExportedWithTheProgressOfTheTask() throws IOException {
+        addNoteUsingBasicModel("foo", "bar");
+        addNoteUsingBasicModel("baz", "qux");
+        File exportedFile = new File(Files.createTempDirectory("AnkiDroid-test_export_task").toFile(), "export.txt");
+        List<Integer> progress = new ArrayList<>();
+        List<Pair<Boolean, String>> results = new ArrayList<>();
+
+        TaskManager.launchCollectionTask(new CollectionTask.ExportCardsAsText(exportedFile.getAbsolutePath(), null, false),
+                new TaskListener<Integer, Pair<Boolean, String>>() {
+                    @Override
+                    public void onPreExecute() {
+                    }
+
+
+                    @Override
+                    public void onProgressUpdate(Integer value) {
+                        progress.add(value);
+                    }
+
+
+                    @Override
+                    public void onPostExecute(Pair<Boolean, String> result) {
+                        results.add(result);
+                    }
+                });
+
+        assertThat(progress, is(Collections.singletonList(2)));
+        assertThat(results.get(0).second, is(exportedFile.getAbsolutePath()));
+        assertThat(new String(Files.readAllBytes(exportedFile.toPath())), is("foo\tbar\nbaz\tqux\n"));
+    }
+
+
+    @Test
+    public void notesAreExported() throws IOException {
+        addNoteUsingBasicModel("foo", "bar");
+        File exportedFile = new File(Files.createTempDirectory("AnkiDroid-test_export_task").toFile(), "export.txt");
+
+        Pair<Boolean, String> result = execute(new CollectionTask.ExportNotesAsText(exportedFile.getAbsolutePath(), null,
+                false, false, false));
+
+        assertThat(result.second, is(exportedFile.getAbsolutePath()));
+        assertThat(new String(Files.readAllBytes(exportedFile.toPath())), is("foo\tbar"));
+    }
+}
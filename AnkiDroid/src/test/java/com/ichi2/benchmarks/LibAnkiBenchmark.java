@@ -0,0 +1,172 @@
+package com.ichi2.benchmarks;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Model;
+import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sched.AbstractSched;
+import com.ichi2.libanki.sync.Syncer;
+import com.ichi2.testutils.libanki.LargeCollectionGenerator;
+import com.ichi2.utils.JSONArray;
+import com.ichi2.utils.JSONObject;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameter;
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of libanki hot paths, on collections of the sizes given by {@link MicroBenchmark#sizes()}.
+ *
+ * Skipped unless run with -Pbenchmark:
+ * gradlew AnkiDroid:testDebugUnitTest --tests "com.ichi2.benchmarks.*" -Pbenchmark -PbenchmarkSizes=10000,100000
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class LibAnkiBenchmark extends RobolectricTest {
+
+    private static final String HTML_FIELD = "<div>The <b>quick</b> brown <i>fox</i> jumps<br>over the <span style=\"color: red\">lazy</span> dog"
+            + "<img src=\"fox.jpg\"> [sound:fox.mp3]&nbsp;&amp; runs away</div>";
+
+    @Parameter
+    public int cardCount;
+
+    @Parameters(name = "{0} cards")
+    public static java.util.Collection<Object[]> initParameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (int size : MicroBenchmark.sizes()) {
+            parameters.add(new Object[] {size});
+        }
+        return parameters;
+    }
+
+
+    @Before
+    @Override
+    public void setUp() {
+        super.setUp();
+        Assume.assumeTrue("Benchmarks are only run with -Pbenchmark", MicroBenchmark.ENABLED);
+        // 1.5 cards per note on average
+        new LargeCollectionGenerator(getCol())
+                .withSeed(cardCount)
+                .withNotes(cardCount * 2 / 3)
+                .withDecks(Math.min(3000, Math.max(1, cardCount / 200)))
+                .withRevlog(cardCount * 5)
+                .generate();
+    }
+
+
+    @Test
+    public void findCards() throws Exception {
+        Collection col = getCol();
+        benchmark("Finder.findCards(text)").run(() -> col.findCards("tango"));
+        benchmark("Finder.findCards(field)").run(() -> col.findCards("front:*7"));
+        benchmark("Finder.findCards(deck, is:due)").run(() -> col.findCards("deck:Deck* is:due"));
+        benchmark("Finder.findCards(all, sorted)").run(() -> col.findCards("deck:*", true));
+    }
+
+
+    @Test
+    public void deckDueList() throws Exception {
+        AbstractSched sched = getCol().getSched();
+        benchmark("SchedV2.deckDueList").run(sched::deckDueList);
+    }
+
+
+    @Test
+    public void getCardAndAnswerCard() throws Exception {
+        Collection col = getCol();
+        AbstractSched sched = col.getSched();
+        benchmark("SchedV2.getCard+answerCard").run(50, () -> {
+            col.reset();
+            return null;
+        }, () -> {
+            Card card = sched.getCard();
+            if (card != null) {
+                sched.answerCard(card, Consts.BUTTON_THREE);
+            }
+            return card;
+        });
+    }
+
+
+    @Test
+    public void renderQA() throws Exception {
+        Collection col = getCol();
+        Model model = col.getModels().byName("Basic");
+        String[] fields = new String[] {HTML_FIELD, "{{c1::not a cloze}} " + HTML_FIELD};
+        benchmark("Collection._renderQA").run(1000, null,
+                () -> col._renderQA(1, model, 1, 0, "tag", fields, 0));
+    }
+
+
+    @Test
+    public void utils() throws Exception {
+        String flds = Utils.joinFields(new String[] {HTML_FIELD, HTML_FIELD, "back"});
+        benchmark("Utils.stripHTML").run(10000, null, () -> Utils.stripHTML(HTML_FIELD));
+        benchmark("Utils.splitFields").run(10000, null, () -> Utils.splitFields(flds));
+        benchmark("Utils.fieldChecksum").run(10000, null, () -> Utils.fieldChecksum(HTML_FIELD));
+    }
+
+
+    @Test
+    public void syncChunks() throws Exception {
+        Collection col = getCol();
+        // As a server, chunks contain every row with usn >= minUsn and sent rows are not marked. Generated rows have
+        // usn -1.
+        col.setServer(true);
+        Syncer syncer = new Syncer(col, null, null);
+        syncer.start(-1, false, emptyGraves());
+        List<JSONObject> chunks = new ArrayList<>();
+        benchmark("Syncer.chunk").run(() -> {
+            chunks.clear();
+            // prepares the chunks, as the server does once the changes were exchanged
+            syncer.mergeChanges(new JSONObject(), noChanges());
+            JSONObject chunk;
+            do {
+                chunk = syncer.chunk();
+                chunks.add(chunk);
+            } while (!chunk.getBoolean("done"));
+            return chunks.size();
+        });
+        benchmark("Syncer.applyChunk").run(() -> {
+            for (JSONObject chunk : chunks) {
+                syncer.applyChunk(chunk);
+            }
+            return null;
+        });
+    }
+
+
+    private MicroBenchmark benchmark(String name) {
+        return new MicroBenchmark(name, cardCount);
+    }
+
+
+    private static JSONObject noChanges() {
+        JSONObject changes = new JSONObject();
+        changes.put("models", new JSONArray());
+        JSONArray decks = new JSONArray();
+        decks.put(new JSONArray());
+        decks.put(new JSONArray());
+        changes.put("decks", decks);
+        changes.put("tags", new JSONArray());
+        return changes;
+    }
+
+
+    private static JSONObject emptyGraves() {
+        JSONObject graves = new JSONObject();
+        graves.put("cards", new JSONArray());
+        graves.put("notes", new JSONArray());
+        graves.put("decks", new JSONArray());
+        return graves;
+    }
+}
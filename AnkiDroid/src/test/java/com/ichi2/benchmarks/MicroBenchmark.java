@@ -0,0 +1,125 @@
+package com.ichi2.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Minimal harness for the benchmarks of this package.
+ *
+ * JMH can't be used: libanki lives in the application module and needs Robolectric's sandbox to run on the JVM, which
+ * JMH's forked JVMs don't provide. So each benchmark is run in the test JVM: a few warmup iterations, then measured
+ * iterations whose average, min and max times per operation are logged, and the average returned.
+ *
+ * Benchmarks are skipped unless Gradle is run with -Pbenchmark, see {@link #ENABLED}.
+ */
+public class MicroBenchmark {
+
+    /** Set by Gradle when run with -Pbenchmark */
+    public static final boolean ENABLED = Boolean.getBoolean("ankidroid.benchmark");
+
+    /** File to which results are appended as CSV lines, set by Gradle with -PbenchmarkOutput=path. Optional. */
+    private static final String OUTPUT = System.getProperty("ankidroid.benchmark.output");
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /** Results of the operations, kept so that the JIT can't discard their computation */
+    private static Object sSink;
+
+    private final String mName;
+    private final int mSize;
+
+
+    public interface Operation {
+        /**
+         * Runs the benchmarked code once.
+         * @return Anything computed by the code, consumed so that the computation is not optimised away
+         */
+        @Nullable Object run() throws Exception;
+    }
+
+
+    /**
+     * @param name Name of the benchmarked method
+     * @param size Number of cards in the collection the benchmark is run on, 0 if not relevant
+     */
+    public MicroBenchmark(@NonNull String name, int size) {
+        mName = name;
+        mSize = size;
+    }
+
+
+    /**
+     * @param operationsPerIteration Number of times op is run per iteration
+     * @param setUp Run before each iteration, not measured. May be null.
+     * @return The average time of an operation, in nanoseconds
+     */
+    public long run(int operationsPerIteration, @Nullable Operation setUp, @NonNull Operation op) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operationsPerIteration, setUp, op);
+        }
+        List<Long> nanosPerOp = new ArrayList<>(MEASURED_ITERATIONS);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            nanosPerOp.add(iteration(operationsPerIteration, setUp, op) / operationsPerIteration);
+        }
+        return report(nanosPerOp);
+    }
+
+
+    /** @return The average time of an operation, in nanoseconds */
+    public long run(@NonNull Operation op) throws Exception {
+        return run(1, null, op);
+    }
+
+
+    private long iteration(int operationsPerIteration, @Nullable Operation setUp, @NonNull Operation op) throws Exception {
+        if (setUp != null) {
+            sSink = setUp.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < operationsPerIteration; i++) {
+            sSink = op.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    /** @return The average time of an operation */
+    private long report(@NonNull List<Long> nanosPerOp) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        for (long nanos : nanosPerOp) {
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+            total += nanos;
+        }
+        long average = total / nanosPerOp.size();
+        Timber.i("Benchmark %s [%d cards]: %.3f ms/op (min %.3f, max %.3f)", mName, mSize, average / 1e6, min / 1e6, max / 1e6);
+        if (OUTPUT != null) {
+            try (Writer writer = new FileWriter(new File(OUTPUT), true)) {
+                writer.write(String.format(Locale.US, "%s,%d,%d,%d,%d\n", mName, mSize, average, min, max));
+            }
+        }
+        return average;
+    }
+
+
+    /** @return The collection sizes to benchmark, set by Gradle with -PbenchmarkSizes=10000,100000 */
+    public static List<Integer> sizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : System.getProperty("ankidroid.benchmark.sizes", "10000").split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+        return sizes;
+    }
+}
@@ -19,6 +19,7 @@ package com.ichi2.libanki;
 import com.ichi2.anki.RobolectricTest;
 import com.ichi2.anki.exception.ImportExportException;
 import com.ichi2.libanki.exception.EmptyMediaException;
+import com.ichi2.utils.JSONObject;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -33,14 +34,19 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
 
 import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 
 @RunWith(AndroidJUnit4.class)
@@ -111,6 +117,58 @@ public class AnkiPackageExporterTest extends RobolectricTest {
     }
 
 
+    @Test
+    public void compressedMediaIsStored() throws IOException, ImportExportException {
+        File text = addTempFileToMediaAndNote(".txt");
+        File sound = addTempFileToMediaAndNote(".MP3");
+
+        AnkiPackageExporter exporter = getExporterForDeckWithMedia();
+        Path tempExportDir = Files.createTempDirectory("AnkiDroid-compressedMediaIsStored-export");
+        File exportedFile = new File(tempExportDir.toFile(), "export.apkg");
+        exporter.exportInto(exportedFile.getAbsolutePath(), getTargetContext());
+
+        Path unzipDirectory = unzipFilesTo(tempExportDir, exportedFile);
+        JSONObject media = new JSONObject(new String(Files.readAllBytes(unzipDirectory.resolve("media"))));
+        try (org.apache.commons.compress.archivers.zip.ZipFile zip = new org.apache.commons.compress.archivers.zip.ZipFile(exportedFile)) {
+            for (String entry : media) {
+                String name = media.getString(entry);
+                int expectedMethod = name.equals(sound.getName()) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+                assertEquals(name, expectedMethod, zip.getEntry(entry).getMethod());
+            }
+        }
+        assertThat(media.names().length(), is(2));
+        assertThat(media.toString(), containsString(text.getName()));
+        // no temporary file of the deflating threads is left next to the archive
+        for (String name : tempExportDir.toFile().list()) {
+            assertThat(name, not(startsWith("parallelscatter")));
+        }
+    }
+
+
+    @Test
+    public void failedExportLeavesNoTemporaryFile() throws IOException {
+        Path tempExportDir = Files.createTempDirectory("AnkiDroid-failedExportLeavesNoTemporaryFile-export");
+        File text = addTempFileToMediaAndNote(".txt");
+        File missing = new File(tempExportDir.toFile(), "missing.txt");
+
+        // the missing file is only opened when the media are deflated
+        ZipFile failedZip = new ZipFile(new File(tempExportDir.toFile(), "failed.apkg").getAbsolutePath());
+        failedZip.writeMedia(text, "0");
+        failedZip.writeMedia(missing, "1");
+        Assert.assertThrows(IOException.class, failedZip::finishMedia);
+        failedZip.close();
+
+        // an error before the media were written
+        ZipFile interruptedZip = new ZipFile(new File(tempExportDir.toFile(), "interrupted.apkg").getAbsolutePath());
+        interruptedZip.writeMedia(text, "0");
+        interruptedZip.close();
+
+        for (String name : tempExportDir.toFile().list()) {
+            assertThat(name, not(startsWith("parallelscatter")));
+        }
+    }
+
+
     @Test
     public void stripHTML_will_remove_html_with_unicode_whitespace() {
         Exporter exporter = getExporterForDeckWithMedia();
@@ -167,7 +225,12 @@ public class AnkiPackageExporterTest extends RobolectricTest {
 
 
     private File addTempFileToMediaAndNote() throws IOException {
-        File temp = File.createTempFile("AnkiDroid-missingFileInExportDoesNotThrowException", ".txt");
+        return addTempFileToMediaAndNote(".txt");
+    }
+
+
+    private File addTempFileToMediaAndNote(String suffix) throws IOException {
+        File temp = File.createTempFile("AnkiDroid-missingFileInExportDoesNotThrowException", suffix);
         PrintWriter writer = new PrintWriter(temp);
         writer.println("unit test data");
         writer.close();
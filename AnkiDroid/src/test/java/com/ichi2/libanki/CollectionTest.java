@@ -1,6 +1,8 @@
 package com.ichi2.libanki;
 
+import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.RobolectricTest;
+import com.ichi2.async.ProgressSenderAndCancelListener;
 import com.ichi2.utils.JSONObject;
 
 import org.junit.Ignore;
@@ -9,7 +11,10 @@ import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
+import androidx.annotation.Nullable;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -209,4 +214,85 @@ public class CollectionTest extends RobolectricTest {
         long cid = addNoteUsingBasicModel("foo", "bar").firstCard().getId();
         assertEquals( new ArrayList<>(Collections.singleton(cid)), col.filterToValidCards(new long[]{cid, cid + 1}));
     }
+
+
+    @Test
+    public void emptyCidsReportsEachCardOnce() {
+        addNoteUsingBasicModel("foo", "bar");
+        addNoteUsingBasicAndReversedModel("foo", "bar");
+        addNoteUsingModelName("Cloze", "{{c1::Hello}} {{c2::World}}", "Extra");
+        Collection col = getCol();
+        int[] processed = new int[1];
+        List<Long> cids = col.emptyCids(new ProgressSenderAndCancelListener<Integer>() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+
+            @Override
+            public void doProgress(@Nullable Integer value) {
+                processed[0] += value;
+            }
+        });
+        assertTrue(cids.isEmpty());
+        assertEquals(col.cardCount(), processed[0]);
+    }
+
+
+    @Test
+    public void batchRenderingIsInOrderAndMatchesRenderingEachCard() {
+        addNoteUsingBasicAndReversedModel("foo", "bar");
+        addNoteUsingModelName("Cloze", "{{c1::Hello}} {{c2::World}}", "Extra");
+        addNoteUsingBasicModel("[latex]x[/latex]", "{{c1::no cloze}}");
+        Collection col = getCol();
+        List<Card> cards = new ArrayList<>();
+        List<Collection.RenderRequest> requests = new ArrayList<>();
+        for (long cid : col.findCards("")) {
+            Card card = col.getCard(cid);
+            cards.add(card);
+            requests.add(card._renderRequest(false, false));
+        }
+        assertEquals(5, cards.size());
+
+        List<HashMap<String, String>> rendered = col.renderQA(requests);
+        for (int i = 0; i < cards.size(); i++) {
+            assertEquals(cards.get(i)._getQA(true), rendered.get(i));
+        }
+    }
+
+
+    @Test
+    public void renderThreadsStopWhenTheCollectionIsClosed() throws InterruptedException {
+        AnkiDroidApp.getSharedPrefs(getTargetContext()).edit().putBoolean("convertFenText", true).apply();
+        addNoteUsingBasicAndReversedModel("foo", "bar");
+        addNoteUsingBasicModel("[fen]8/8/8/8/8/8/8/8 w - - 0 1[/fen]", "back");
+        Collection col = getCol();
+        List<Collection.RenderRequest> requests = new ArrayList<>();
+        for (long cid : col.findCards("")) {
+            requests.add(col.getCard(cid)._renderRequest(false, false));
+        }
+        // the preference is read before the cards are rendered by other threads
+        StringBuilder questions = new StringBuilder();
+        for (HashMap<String, String> rendered : col.renderQA(requests)) {
+            questions.append(rendered.get("q"));
+        }
+        assertThat(questions.toString(), containsString("chess_board"));
+        List<Thread> renderThreads = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("CardRenderer-")) {
+                renderThreads.add(thread);
+            }
+        }
+
+        col.close();
+
+        for (Thread thread : renderThreads) {
+            thread.join(5000);
+            assertFalse(thread.getName(), thread.isAlive());
+        }
+        // and new threads render once the collection is reopened
+        col.reopen();
+        assertEquals(3, col.renderQA(requests).size());
+    }
 }
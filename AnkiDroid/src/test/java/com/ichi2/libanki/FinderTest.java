@@ -428,4 +428,74 @@ public class FinderTest extends RobolectricTest {
         assertEquals(0, col.findDupes("Front").size());
     }
 
+
+    @Test
+    public void fieldSearchComparesTheWholeFieldInTheQuery() throws ConfirmModSchemaException {
+        Collection col = getCol();
+        addNoteUsingBasicModel("dog", "cat");
+        addNoteUsingBasicModel("Dog_1", "100%");
+        addNoteUsingBasicModel("back", "x*y");
+        // a note type where Back is the third field
+        Models models = col.getModels();
+        Model model = models.copy(models.byName("Basic"));
+        JSONObject extra = models.newField("Extra");
+        extra.put("ord", JSONObject.NULL);
+        models.addField(model, extra);
+        models.moveField(model, extra, 0);
+        models.save(model);
+        addNoteUsingModelName(model.getString("name"), "cat", "front", "cat");
+
+        assertEquals(2, col.findNotes("back:cat").size());
+        assertEquals(2, col.findNotes("back:CAT").size());
+        assertEquals(2, col.findNotes("back:c*").size());
+        assertEquals(0, col.findNotes("back:ca").size());
+        assertEquals(1, col.findNotes("extra:cat").size());
+        assertEquals(0, col.findNotes("front:cat").size());
+        assertEquals(1, col.findNotes("front:dog_1").size());
+        // % is literal and _ matches a character
+        assertEquals(1, col.findNotes("back:100%").size());
+        assertEquals(0, col.findNotes("back:1%").size());
+        assertEquals(1, col.findNotes("back:1_0%").size());
+        assertEquals(1, col.findNotes("back:x*y").size());
+        assertEquals(4, col.findNotes("back:*").size());
+        assertEquals(2, col.findNotes("-back:c*").size());
+
+        // the matching notes are not part of the compiled query, which can be reused
+        addNoteUsingBasicModel("bird", "cat");
+        assertEquals(3, col.findNotes("back:cat").size());
+        SearchQueryCache cache = col.getSearchQueryCache();
+        long hits = cache.getHits();
+        addNoteUsingBasicModel("fish", "cat");
+        assertEquals(4, col.findNotes("back:cat").size());
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+
+    @Test
+    public void compiledSearchesAreReusedUntilDecksOrModelsChange() throws Exception {
+        Collection col = getCol();
+        addNoteUsingBasicModel("foo", "bar");
+        SearchQueryCache cache = col.getSearchQueryCache();
+        cache.invalidate();
+        long hits = cache.getHits();
+        assertEquals(1, col.findCards("deck:Default front:foo").size());
+        assertEquals(1, col.findCards("deck:Default front:foo").size());
+        assertEquals(hits + 1, cache.getHits());
+        assertThat(cache.getExecutions(), greaterThan(1L));
+
+        // the deck and field names are compiled to ids and ordinals
+        col.getDecks().rename(col.getDecks().get(1), "Renamed");
+        assertEquals(0, col.findCards("deck:Default front:foo").size());
+        assertEquals(1, col.findCards("deck:Renamed front:foo").size());
+        Model model = col.getModels().byName("Basic");
+        col.getModels().renameField(model, model.getJSONArray("flds").getJSONObject(0), "Question");
+        col.getModels().save(model);
+        assertEquals(0, col.findCards("deck:Renamed front:foo").size());
+        assertEquals(1, col.findCards("deck:Renamed question:foo").size());
+
+        // searches depending on the day are compiled each time
+        int size = cache.size();
+        col.findCards("added:1");
+        assertEquals(size, cache.size());
+    }
 }
@@ -0,0 +1,101 @@
+package com.ichi2.libanki;
+
+import com.ichi2.utils.JSONObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LazyJsonMapTest {
+    private static final String JSON = "{\"1\": {\"id\": 1, \"name\": \"Default\", \"dyn\": 0, \"terms\": [[\"}\", 1]]},"
+            + " \"2\": {\"desc\": \"a \\\"quoted\\\" {brace\", \"id\": 2, \"name\": \"A::\\u00e9\", \"dyn\": 1}}";
+
+
+    @Test
+    public void objectsAreOnlyParsedWhenAccessed() {
+        List<Long> parsed = new ArrayList<>();
+        LazyJsonMap<Deck> decks = new LazyJsonMap<>(JSON, json -> {
+            parsed.add(json.getLong("id"));
+            return new Deck(json);
+        });
+        assertEquals(2, decks.size());
+        assertThat(decks.keySet(), containsInAnyOrder(1L, 2L));
+        assertEquals("Default", decks.getString(1, "name"));
+        assertEquals("A::é", decks.getString(2, "name"));
+        assertEquals(1, decks.getInt(2, "dyn", 0));
+        assertNull(decks.getString(3, "name"));
+        assertTrue(parsed.isEmpty());
+
+        Deck deck = decks.get(2L);
+        assertEquals("a \"quoted\" {brace", deck.getString("desc"));
+        assertSame(deck, decks.get(2L));
+        assertThat(parsed, is(Collections.singletonList(2L)));
+        // projections read the parsed object
+        deck.put("name", "renamed");
+        assertEquals("renamed", decks.getString(2, "name"));
+    }
+
+
+    @Test
+    public void unparsedObjectsAreWrittenAsRead() {
+        LazyJsonMap<Deck> decks = new LazyJsonMap<>(JSON, Deck::new);
+        decks.get(1L).put("name", "changed");
+        decks.put(3L, new Deck("{\"id\": 3, \"name\": \"new\"}"));
+        decks.remove(2L);
+        String json = decks.toJson();
+        assertTrue(json, json.contains("\"1\":{"));
+        assertFalse(json, json.contains("\"2\":"));
+
+        JSONObject written = new JSONObject(json);
+        assertEquals(2, written.length());
+        assertEquals("changed", written.getJSONObject("1").getString("name"));
+        assertEquals("new", written.getJSONObject("3").getString("name"));
+        assertEquals("}", written.getJSONObject("1").getJSONArray("terms").getJSONArray(0).getString(0));
+    }
+
+
+    @Test
+    public void objectsModifiedInPlaceAreMarkedAsChanged() {
+        LazyJsonMap<Deck> decks = new LazyJsonMap<>(JSON, Deck::new);
+        decks.get(1L);
+        decks.get(2L).put("name", "renamed");
+        decks.markModified();
+        // the JSON of deck 1 was written with spaces, but is the same
+        assertThat(decks.getChanged(), containsInAnyOrder(2L));
+
+        decks.clearChanged();
+        decks.markModified();
+        assertTrue(decks.getChanged().isEmpty());
+        decks.get(2L).put("dyn", 0);
+        decks.markModified();
+        assertThat(decks.getChanged(), containsInAnyOrder(2L));
+    }
+
+
+    @Test
+    public void unexpectedJsonIsParsedImmediately() {
+        List<Long> parsed = new ArrayList<>();
+        LazyJsonMap<Deck> decks = new LazyJsonMap<>("{1: {id: 1, name: 'Default'}}", json -> {
+            parsed.add(json.getLong("id"));
+            return new Deck(json);
+        });
+        assertThat(parsed, is(Collections.singletonList(1L)));
+        assertEquals("Default", decks.getString(1, "name"));
+        assertEquals("Default", decks.get(1L).getString("name"));
+    }
+}
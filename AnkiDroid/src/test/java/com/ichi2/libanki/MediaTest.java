@@ -1,14 +1,27 @@
 package com.ichi2.libanki;
 
 import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.exception.EmptyMediaException;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static com.ichi2.testutils.AnkiAssert.assertEqualsArrayList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class MediaTest extends RobolectricTest {
@@ -56,6 +69,91 @@ public class MediaTest extends RobolectricTest {
         assertEquals("<img src=\"foo%20bar.jpg\">", col.getMedia().escapeImages("<img src=\"foo bar.jpg\">"));
     }
 
+    @Test
+    public void test_changes() throws IOException {
+        Collection col = getCol();
+        Media media = col.getMedia();
+        assertEquals(0, added(media).size());
+        // add a file behind our back
+        File foo = new File(media.dir(), "foo.jpg");
+        write(foo, "hello");
+        File bar = new File(media.dir(), "bar.jpg");
+        write(bar, "bar");
+        assertTrue(media.needScan());
+        media.findChanges(true);
+        assertEqualsArrayList(new String[] {"bar.jpg", "foo.jpg"}, added(media));
+        assertEquals(0, removed(media).size());
+        assertEquals(2, media.getDb().queryScalar("select count() from dirindex"));
+        // files whose size, mtime and inode are unchanged are not checksummed again
+        media.getDb().execute("update media set csum = 'unchanged'");
+        write(foo, "world!");
+        media.findChanges(true);
+        assertEquals("unchanged", media.getDb().queryString("select csum from media where fname = 'bar.jpg'"));
+        assertEquals(Utils.fileChecksum(foo), media.getDb().queryString("select csum from media where fname = 'foo.jpg'"));
+        // removed files are logged and leave the index
+        assertTrue(bar.delete());
+        media.findChanges(true);
+        assertEqualsArrayList(new String[] {"bar.jpg"}, removed(media));
+        assertEquals(1, media.getDb().queryScalar("select count() from dirindex"));
+    }
+
+
+    @Test
+    public void mediaWrittenByAnkiDroidDoesNotNeedAScan() throws IOException, EmptyMediaException {
+        Collection col = getCol();
+        Media media = col.getMedia();
+        File folder = new File(media.dir());
+        write(new File(folder, "scanned.jpg"), "scanned");
+        media.findChanges(true);
+        // a folder which changed later, when the scan took less than a second
+        assertTrue(folder.setLastModified(folder.lastModified() - 60000));
+        media.findChanges(true);
+        assertFalse(media.needScan());
+
+        File source = new File(getTargetContext().getCacheDir(), "added.jpg");
+        write(source, "added");
+        assertEquals("added.jpg", media.addFile(source));
+        assertFalse("Media added by AnkiDroid", media.needScan());
+
+        assertTrue(folder.setLastModified(folder.lastModified() - 60000));
+        media.findChanges(true);
+        File zip = new File(getTargetContext().getCacheDir(), "download.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("0"));
+            out.write("downloaded".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("_meta"));
+            out.write("{\"0\": \"downloaded.jpg\"}".getBytes(StandardCharsets.UTF_8));
+        }
+        List<Object[]> downloaded = new ArrayList<>();
+        assertEquals(1, media.extractFilesFromZip(new ZipFile(zip), downloaded));
+        media.addMediaEntries(downloaded);
+        assertTrue(new File(folder, "downloaded.jpg").exists());
+        assertFalse("Media downloaded by a sync", media.needScan());
+
+        // files added by other apps are still found
+        assertTrue(folder.setLastModified(folder.lastModified() - 60000));
+        media.findChanges(true);
+        write(new File(folder, "other.jpg"), "other");
+        assertTrue(media.needScan());
+    }
+
+
+    private static List<String> added(Media media) {
+        return media.getDb().queryStringList("select fname from media where csum is not null and dirty = 1 order by fname");
+    }
+
+
+    private static List<String> removed(Media media) {
+        return media.getDb().queryStringList("select fname from media where csum is null order by fname");
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     /* TODO: file
      @Test public void test_deckIntegration(){
      Collection col = getCol();
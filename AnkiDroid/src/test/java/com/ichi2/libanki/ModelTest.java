@@ -3,6 +3,8 @@ package com.ichi2.libanki;
 import com.ichi2.anki.R;
 import com.ichi2.anki.RobolectricTest;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
+import com.ichi2.libanki.template.ParsedNode;
+import com.ichi2.libanki.template.TemplateError;
 import com.ichi2.utils.JSONArray;
 import com.ichi2.utils.JSONObject;
 
@@ -34,6 +36,8 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -574,4 +578,22 @@ public class ModelTest extends RobolectricTest {
         assertListEquals(Arrays.asList(0, 1), Models.availOrds(reverse, new String[]{"Foo", "Bar"}, Models.AllowEmpty.TRUE));
         assertListEquals(Arrays.asList(1), Models.availOrds(reverse, new String[]{"  \t ", "Bar"}, Models.AllowEmpty.TRUE));
     }
+
+
+    @Test
+    public void templateCachesAreInvalidatedWhenANoteTypeIsSaved() throws TemplateError {
+        Models mm = getCol().getModels();
+        Model cloze = mm.byName("Cloze");
+        String question = cloze.getJSONArray("tmpls").getJSONObject(0).getString("qfmt");
+        ParsedNode node = ParsedNode.parse_inner(question);
+        Models.getNamesOfFieldsContainingCloze(question);
+        long hits = ParsedNode.getParseInnerCache().getHits();
+        assertSame(node, ParsedNode.parse_inner(question));
+        assertEquals(hits + 1, ParsedNode.getParseInnerCache().getHits());
+
+        mm.save(cloze);
+        assertEquals(0, ParsedNode.getParseInnerCache().size());
+        assertEquals(0, Models.getNamesOfFieldsContainingClozeCache().size());
+        assertNotSame(node, ParsedNode.parse_inner(question));
+    }
 }
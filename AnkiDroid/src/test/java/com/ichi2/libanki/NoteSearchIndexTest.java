@@ -0,0 +1,83 @@
+package com.ichi2.libanki;
+
+import com.ichi2.anki.RobolectricTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteSearchIndexTest extends RobolectricTest {
+    private static final List<String> QUERIES = Arrays.asList("dog", "DOG", "do*ca", "<b>", "fro_t:cat", "front:*ca*",
+            "back:house", "\"a dog\"", "-cat", "nothing");
+
+
+    private void addNotes() {
+        addNoteUsingBasicModel("a dog", "house");
+        addNoteUsingBasicModel("cat", "<b>Dog</b> house");
+        addNoteUsingBasicModel("Doggy and cat", "");
+        addNoteUsingBasicModel("fish", "cattle");
+    }
+
+
+    @Test
+    public void searchesAreTheSameWithTheIndex() {
+        Collection col = getCol();
+        addNotes();
+        List<List<Long>> withoutIndex = search(col);
+        // the index requires FTS5 in the SQLite used by the tests
+        assumeThat(col.getSearchIndex().rebuild(), is(true));
+        assertTrue(col.getSearchIndex().isUsable());
+        assertEquals(withoutIndex, search(col));
+
+        // changes are recorded in the index
+        Note note = addNoteUsingBasicModel("another dog", "");
+        note.setItem("Back", "cat");
+        note.flush();
+        col.remNotes(new long[] {col.findNotes("fish").get(0)});
+        Finder.findReplace(col, col.findNotes(""), "house", "home");
+        assertEquals(1, col.findNotes("back:cat").size());
+        assertEquals(0, col.findNotes("fish").size());
+        assertEquals(2, col.findNotes("home").size());
+        assertEquals(0, col.findNotes("house").size());
+    }
+
+
+    @Test
+    public void indexIsNotUsedOnceTheCollectionChangedElsewhere() {
+        Collection col = getCol();
+        addNotes();
+        assumeThat(col.getSearchIndex().rebuild(), is(true));
+        col.save();
+        // as a full sync would
+        col.getDb().execute("update col set mod = mod + 1");
+        col.load();
+        col.getSearchIndex().open();
+        assertFalse(col.getSearchIndex().isUsable());
+        addNoteUsingBasicModel("dog", "");
+        assertEquals(3, col.findNotes("dog").size());
+        // until the index is rebuilt
+        assertTrue(col.getSearchIndex().rebuild());
+        assertTrue(col.getSearchIndex().isUsable());
+        assertEquals(3, col.findNotes("dog").size());
+    }
+
+
+    private static List<List<Long>> search(Collection col) {
+        List<List<Long>> results = new ArrayList<>(QUERIES.size());
+        for (String query : QUERIES) {
+            results.add(col.findNotes(query));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,281 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.ichi2.anki.BackupManager;
+import com.ichi2.anki.CollectionHelper;
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.testutils.BackupManagerTestUtilities;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.ZipFile;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RegistryChangesTest extends RobolectricTest {
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        // backups copy the collection file
+        return false;
+    }
+
+
+    @Test
+    public void onlyChangedObjectsAreWritten() {
+        Collection col = getCol();
+        long did = addDeck("Foo");
+        Model model = col.getModels().byName("Basic");
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        assertTrue(col.getRegistryChanges().isEmpty());
+        String decks = col.loadColumn("decks");
+        String models = col.loadColumn("models");
+
+        Deck deck = col.getDecks().get(did);
+        deck.put("collapsed", true);
+        col.getDecks().save(deck);
+        model.put("name", "Renamed");
+        col.getModels().save(model);
+        col.save();
+
+        // the col table is left as it is
+        assertEquals(decks, col.loadColumn("decks"));
+        assertEquals(models, col.loadColumn("models"));
+        assertFalse(col.getRegistryChanges().isEmpty());
+        assertEquals(1, col.getRegistryChanges().read(RegistryChanges.DECKS).size());
+        assertThat(col.getRegistryChanges().read(RegistryChanges.MODELS).get(model.getLong("id")), containsString("Renamed"));
+
+        // and the changes are applied when loading
+        Decks loadedDecks = new Decks(col);
+        loadedDecks.load(decks, col.getDb().queryString("select dconf from col"));
+        assertTrue(loadedDecks.get(did).getBoolean("collapsed"));
+        assertEquals(did, loadedDecks.byName("Foo").getLong("id"));
+        Models loadedModels = new Models(col);
+        loadedModels.load(models);
+        assertEquals("Renamed", loadedModels.get(model.getLong("id")).getString("name"));
+    }
+
+
+    @Test
+    public void objectsModifiedInPlaceAreWrittenWithTheNextSave() {
+        Collection col = getCol();
+        long modified = addDeck("Modified");
+        long saved = addDeck("Saved");
+        Model basic = col.getModels().byName("Basic");
+        Model cloze = col.getModels().byName("Cloze");
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+
+        // changed in place, but only other objects are saved
+        col.getDecks().get(modified).put("collapsed", true);
+        col.getDecks().getConf(1).getJSONObject("new").put("perDay", 77);
+        cloze.put("name", "Renamed");
+        col.getDecks().save(col.getDecks().get(saved));
+        col.getModels().save(basic);
+        col.save();
+
+        assertTrue(col.getRegistryChanges().read(RegistryChanges.DECKS).containsKey(modified));
+        assertTrue(col.getRegistryChanges().read(RegistryChanges.DCONF).containsKey(1L));
+        Decks loadedDecks = new Decks(col);
+        loadedDecks.load(col.loadColumn("decks"), col.getDb().queryString("select dconf from col"));
+        assertTrue(loadedDecks.get(modified).getBoolean("collapsed"));
+        assertEquals(77, loadedDecks.getConf(1).getJSONObject("new").getInt("perDay"));
+        Models loadedModels = new Models(col);
+        loadedModels.load(col.loadColumn("models"));
+        assertEquals("Renamed", loadedModels.get(cloze.getLong("id")).getString("name"));
+
+        // and are not written again once they were
+        col.getDecks().save(col.getDecks().get(saved));
+        col.getDecks().flush();
+        col.getDb().execute("delete from " + RegistryChanges.TABLE);
+        col.getDecks().save(col.getDecks().get(saved));
+        col.getDecks().flush();
+        assertEquals(1, col.getRegistryChanges().read(RegistryChanges.DECKS).size());
+        assertTrue(col.getRegistryChanges().read(RegistryChanges.DCONF).isEmpty());
+    }
+
+
+    @Test
+    public void changesAreFoldedIntoTheColTable() {
+        Collection col = getCol();
+        long did = addDeck("Foo");
+        col.getDecks().foldChanges();
+        col.save();
+        assertThat(col.getDb().queryString("select decks from col"), containsString("Foo"));
+        col.getDecks().rem(did);
+        col.save();
+        // only recorded as removed
+        assertThat(col.getDb().queryString("select decks from col"), containsString("Foo"));
+        assertTrue(col.getRegistryChanges().read(RegistryChanges.DECKS).containsKey(did));
+
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        assertTrue(col.getRegistryChanges().isEmpty());
+        assertFalse(col.getDb().queryString("select decks from col").contains("Foo"));
+        assertNull(col.getDecks().byName("Foo"));
+    }
+
+
+    @Test
+    public void changesAreFoldedOnceTheyWerePendingForTheInterval() {
+        Collection col = getCol();
+        long did = addDeck("Foo");
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        Deck deck = col.getDecks().get(did);
+        deck.put("collapsed", true);
+        col.getDecks().save(deck);
+        col.save();
+        assertFalse(col.getRegistryChanges().isEmpty());
+
+        getCollectionTime().addMs(RegistryChanges.FOLD_INTERVAL_MS);
+        col.save();
+
+        assertTrue(col.getRegistryChanges().isEmpty());
+        assertEquals(0, col.getDb().queryScalar("select count() from sqlite_master where name = ?", RegistryChanges.TABLE));
+        assertThat(col.getDb().queryString("select decks from col"), containsString("\"collapsed\":true"));
+    }
+
+
+    @Test
+    public void backupOfAnOpenCollectionContainsTheNewDeck() throws Exception {
+        Collection col = getCol();
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        long did = addDeck("Foo");
+        col.save();
+        // only recorded as a change
+        assertTrue(col.getRegistryChanges().read(RegistryChanges.DECKS).containsKey(did));
+        assertFalse(col.getDb().queryString("select decks from col").contains("Foo"));
+
+        try {
+            BackupManagerTestUtilities.setupSpaceForBackup(getTargetContext());
+            assertTrue(BackupManager.performBackupInBackground(col));
+        } finally {
+            BackupManagerTestUtilities.reset();
+        }
+        File backup = extractBackup(new File(col.getPath()));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(backup.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            try (Cursor cur = db.rawQuery("select decks from col", null)) {
+                assertTrue(cur.moveToFirst());
+                assertThat(cur.getString(0), containsString("Foo"));
+            }
+            try (Cursor cur = db.rawQuery("select name from sqlite_master where name = ?", new String[] {RegistryChanges.TABLE})) {
+                assertFalse("the changes table is not shipped", cur.moveToFirst());
+            }
+        } finally {
+            db.close();
+        }
+        // the collection is still usable
+        assertEquals(did, col.getDecks().byName("Foo").getLong("id"));
+    }
+
+
+    @Test
+    public void fullUploadDoesNotSendTheChangesTable() {
+        Collection col = getCol();
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        addDeck("Foo");
+        col.save();
+        assertFalse(col.getRegistryChanges().isEmpty());
+        String path = col.getPath();
+
+        // what a full upload does before sending the file
+        col.beforeUpload();
+
+        assertCollectionFileIsComplete(path, "Foo");
+    }
+
+
+    @Test
+    public void closingWithoutSavingFoldsTheWrittenChanges() {
+        Collection col = getCol();
+        col.getModels().foldChanges();
+        col.getDecks().foldChanges();
+        col.save();
+        addDeck("Foo");
+        col.save();
+        // not saved, so not kept
+        addDeck("Bar");
+        String path = col.getPath();
+
+        col.close(false);
+
+        assertCollectionFileIsComplete(path, "Foo");
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try (Cursor cur = db.rawQuery("select decks from col", null)) {
+            assertTrue(cur.moveToFirst());
+            assertFalse(cur.getString(0).contains("Bar"));
+        } finally {
+            db.close();
+        }
+    }
+
+
+    /** Asserts that the collection file has no changes table, and that its col table contains the deck */
+    private static void assertCollectionFileIsComplete(String path, String deckName) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            try (Cursor cur = db.rawQuery("select decks from col", null)) {
+                assertTrue(cur.moveToFirst());
+                assertThat(cur.getString(0), containsString(deckName));
+            }
+            try (Cursor cur = db.rawQuery("select name from sqlite_master where name = ?", new String[] {RegistryChanges.TABLE})) {
+                assertFalse("the changes table is not shipped", cur.moveToFirst());
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+
+    /** @return The collection file of the backup of colFile, once it was completely written */
+    private static File extractBackup(File colFile) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        while (true) {
+            File[] backups = BackupManager.getBackups(colFile);
+            if (backups.length > 0) {
+                // the zip can only be read once it was closed
+                try (ZipFile zip = new ZipFile(backups[0])) {
+                    File extracted = File.createTempFile("backup", ".anki2");
+                    try (InputStream in = zip.getInputStream(zip.getEntry(CollectionHelper.COLLECTION_FILENAME))) {
+                        Files.copy(in, extracted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return extracted;
+                } catch (IOException e) {
+                    // still being written
+                }
+            }
+            if (System.currentTimeMillis() - start > 5000) {
+                throw new IllegalStateException("No complete backup");
+            }
+            Thread.sleep(50);
+        }
+    }
+}
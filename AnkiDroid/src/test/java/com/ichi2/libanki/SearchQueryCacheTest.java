@@ -0,0 +1,33 @@
+package com.ichi2.libanki;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SearchQueryCacheTest {
+
+    @Test
+    public void leastRecentlyUsedSearchIsEvicted() {
+        SearchQueryCache cache = new SearchQueryCache();
+        for (int i = 0; i < SearchQueryCache.CAPACITY; i++) {
+            cache.put("q" + i, search(i));
+        }
+        // q0 becomes the most recently used
+        assertNotNull(cache.get("q0"));
+        cache.put("new", search(-1));
+        assertEquals(SearchQueryCache.CAPACITY, cache.size());
+        assertNotNull(cache.get("q0"));
+        assertNull(cache.get("q1"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.invalidate();
+        assertEquals(0, cache.size());
+    }
+
+
+    private static SearchQueryCache.CompiledSearch search(int i) {
+        return new SearchQueryCache.CompiledSearch("select " + i, new String[0], false);
+    }
+}
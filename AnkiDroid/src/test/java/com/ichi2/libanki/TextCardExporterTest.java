@@ -14,6 +14,7 @@
 package com.ichi2.libanki;
 
 import com.ichi2.anki.RobolectricTest;
+import com.ichi2.async.ProgressSenderAndCancelListener;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -25,12 +26,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
+import androidx.annotation.Nullable;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 
 @RunWith(AndroidJUnit4.class)
 public class TextCardExporterTest extends RobolectricTest {
@@ -87,4 +93,39 @@ public class TextCardExporterTest extends RobolectricTest {
         String expected = "foo\tbar\nbaz\tqux\n";
         assertEquals(expected, content);
     }
+
+
+    @Test
+    public void progressIsSentPerBatchAndCancelledExportIsDeleted() throws IOException {
+        Path tempExportDir = Files.createTempDirectory("AnkiDroid-test_export_textcard");
+        File exportedFile = new File(tempExportDir.toFile(), "export.txt");
+        List<Integer> progress = new ArrayList<>();
+        TextCardExporter exporter = new TextCardExporter(col, false);
+
+        exporter.doExport(exportedFile.getAbsolutePath(), new ProgressSenderAndCancelListener<Integer>() {
+            @Override
+            public void doProgress(@Nullable Integer value) {
+                progress.add(value);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        assertEquals("foo\tbar\nbaz\tqux\n", new String(Files.readAllBytes(exportedFile.toPath())));
+        assertEquals(Collections.singletonList(2), progress);
+
+        assertThrows(CancellationException.class, () -> exporter.doExport(exportedFile.getAbsolutePath(), new ProgressSenderAndCancelListener<Integer>() {
+            @Override
+            public void doProgress(@Nullable Integer value) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+        assertFalse(exportedFile.exists());
+    }
 }
@@ -17,6 +17,8 @@
 package com.ichi2.libanki;
 
 import com.ichi2.anki.TestUtils;
+import com.ichi2.utils.JSONArray;
+import com.ichi2.utils.JSONObject;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -41,6 +43,8 @@ import org.junit.runner.RunWith;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static com.ichi2.libanki.Utils.nonEmptyFields;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
 
 
@@ -154,4 +158,38 @@ public class UtilsTest {
                     "", Utils.stripHTML(s));
         }
     }
+
+
+    @Test
+    public void writtenJsonIsTheSameAsOrgJson() {
+        StringBuilder allControls = new StringBuilder();
+        for (char c = 0; c <= 0x9f; c++) {
+            allControls.append(c);
+        }
+        JSONObject conf = new JSONObject()
+                .put("name", "A/B </script> \"quoted\" \\ back\\/slash")
+                .put("controls", "\t\b\n\r\f\u0000\u001f\u007f\u2028\u2029 é \uD83D\uDE00")
+                .put("allControls", allControls.toString())
+                .put("separators \u2028\u2029\u0001", "line\u2028paragraph\u2029")
+                .put("int", 3)
+                .put("long", 1600000000000L)
+                .put("double", 2.5)
+                .put("integralDouble", 2.0)
+                .put("negativeZero", -0.0)
+                .put("true", true)
+                .put("null", JSONObject.NULL)
+                .put("empty", new JSONObject())
+                .put("new", new JSONArray("[1, 2.0, \"a/b\", []]"));
+        conf.put("nested", new JSONObject().put("conf", new JSONObject(conf.toString())));
+        JSONArray array = new JSONArray();
+        array.put(conf);
+        array.put(JSONObject.NULL);
+        array.put(false);
+
+        assertEquals(conf.toString().replaceAll("\\\\/", "/"), Utils.jsonToString(conf));
+        assertEquals(array.toString().replaceAll("\\\\/", "/"), Utils.jsonToString(array));
+        // as org.json does, the line and paragraph separators are not escaped
+        assertThat(Utils.jsonToString(conf), containsString("\"line\u2028paragraph\u2029\""));
+        assertThat(Utils.jsonToString(conf), containsString("\"separators \u2028\u2029\\u0001\""));
+    }
 }
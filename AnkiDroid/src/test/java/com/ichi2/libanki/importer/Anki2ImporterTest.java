@@ -0,0 +1,147 @@
+package com.ichi2.libanki.importer;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.anki.exception.ImportExportException;
+import com.ichi2.libanki.AnkiPackageExporter;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.exception.EmptyMediaException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class Anki2ImporterTest extends RobolectricTest {
+
+    @Override
+    protected boolean useInMemoryDatabase() {
+        return false;
+    }
+
+
+    @Test
+    public void mediaAndRevlogAreImported() throws Exception {
+        Collection col = getCol();
+        File first = addMediaNote("first", "1");
+        File second = addMediaNote("second", "2");
+        Card card = col.getSched().getCard();
+        col.getSched().answerCard(card, Consts.BUTTON_THREE);
+        String apkg = exportAndRemoveEverything();
+
+        new AnkiPackageImporter(col, apkg).run();
+
+        assertThat(Files.readAllLines(first.toPath()).get(0), is("1"));
+        assertThat(Files.readAllLines(second.toPath()).get(0), is("2"));
+        assertTrue(isDirtyInMediaDb(first));
+        assertTrue(isDirtyInMediaDb(second));
+        assertThat(col.getDb().queryScalar("select count() from revlog"), is(1));
+        assertThat(col.getDb().queryScalar("select count() from revlog where cid = ?", card.getId()), is(1));
+        assertFalse(getMediaTmpDir().exists());
+
+        // the notes are already there, so nothing is imported again
+        new AnkiPackageImporter(col, apkg).run();
+        assertThat(col.getDb().queryScalar("select count() from revlog"), is(1));
+    }
+
+
+    @Test
+    public void failedMediaCopyCancelsTheImport() throws Exception {
+        Collection col = getCol();
+        File media = addMediaNote("media", "content");
+        String apkg = exportAndRemoveEverything();
+
+        AnkiPackageImporter importer = new AnkiPackageImporter(col, apkg) {
+            @Override
+            protected BufferedInputStream _srcMediaData(String fname) {
+                // only read by the media workers, as the file is missing from the destination
+                return new BufferedInputStream(new InputStream() {
+                    @Override
+                    public int read() {
+                        throw new IllegalStateException("Copy failed");
+                    }
+                });
+            }
+        };
+        assertThrows(ImportExportException.class, importer::run);
+
+        assertThat(col.noteCount(), is(0));
+        assertFalse(media.exists());
+        assertFalse(getMediaTmpDir().exists());
+    }
+
+
+    @Test
+    public void mediaLeftByAnInterruptedImportIsMarkedAsAdded() throws Exception {
+        Collection col = getCol();
+        File media = addMediaNote("media", "content");
+        String apkg = exportAndRemoveEverything();
+        // moved to the media folder, but the media db transaction was rolled back
+        writeFile(media, "content");
+
+        new AnkiPackageImporter(col, apkg).run();
+
+        assertThat(col.noteCount(), is(1));
+        assertTrue(isDirtyInMediaDb(media));
+    }
+
+
+    private File addMediaNote(String name, String content) throws IOException, EmptyMediaException {
+        File temp = File.createTempFile(name, ".txt");
+        writeFile(temp, content);
+        String fname = getCol().getMedia().addFile(temp);
+        temp.delete();
+        addNoteUsingBasicModel(String.format("<img src=\"%s\">", fname), "Back");
+        return new File(getCol().getMedia().dir(), fname);
+    }
+
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println(content);
+        }
+    }
+
+
+    /** @return An apkg of the collection, which is then emptied of its notes, revlog and media */
+    private String exportAndRemoveEverything() throws IOException, ImportExportException {
+        Collection col = getCol();
+        File apkg = new File(Files.createTempDirectory("AnkiDroid-Anki2ImporterTest").toFile(), "export.apkg");
+        new AnkiPackageExporter(col, true, true).exportInto(apkg.getAbsolutePath(), getTargetContext());
+
+        col.remNotes(Utils.toPrimitive(col.getDb().queryLongList("select id from notes")));
+        col.getDb().execute("delete from revlog");
+        for (File file : new File(col.getMedia().dir()).listFiles()) {
+            assertTrue(file.delete());
+        }
+        col.getMedia().getDb().execute("delete from media");
+        col.getMedia().getDb().execute("delete from dirindex");
+        return apkg.getAbsolutePath();
+    }
+
+
+    private boolean isDirtyInMediaDb(File file) {
+        return getCol().getMedia().getDb().queryScalar("select dirty from media where fname = ? and csum is not null", file.getName()) == 1;
+    }
+
+
+    private File getMediaTmpDir() {
+        return new File(new File(getCol().getPath()).getParent(), "tmpimportmedia");
+    }
+}
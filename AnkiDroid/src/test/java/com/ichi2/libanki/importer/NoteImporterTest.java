@@ -0,0 +1,150 @@
+package com.ichi2.libanki.importer;
+
+import com.ichi2.anki.R;
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.importer.NoteImporter.ForeignNote;
+import com.ichi2.libanki.importer.NoteImporter.ImportMode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/** Imports of more notes than a batch, with duplicates in different batches */
+@RunWith(AndroidJUnit4.class)
+public class NoteImporterTest extends RobolectricTest {
+    /** More than a batch of notes */
+    private static final int NOTE_COUNT = 1500;
+
+
+    @Test
+    public void updateModeUpdatesOnceAndReportsDuplicatesAcrossBatches() {
+        Note existing = addNoteUsingBasicModel("existing", "old");
+
+        List<String> log = importNotes(ImportMode.UPDATE_MODE, notesWithDuplicates());
+
+        existing.load();
+        assertThat(existing.getItem("Back"), is("new 10"));
+        // the existing note and the other notes of the source
+        assertThat(getCol().noteCount(), is(NOTE_COUNT));
+        assertThat(log, hasItem(appearedTwice("existing")));
+        assertThat(log, hasItem(appearedTwice("front 5")));
+    }
+
+
+    @Test
+    public void ignoreModeKeepsExistingNotesAndReportsDuplicatesAcrossBatches() {
+        Note existing = addNoteUsingBasicModel("existing", "old");
+
+        List<String> log = importNotes(ImportMode.IGNORE_MODE, notesWithDuplicates());
+
+        existing.load();
+        assertThat(existing.getItem("Back"), is("old"));
+        // the existing note and the other notes of the source
+        assertThat(getCol().noteCount(), is(NOTE_COUNT));
+        assertThat(log, hasItem(appearedTwice("existing")));
+        assertThat(log, hasItem(appearedTwice("front 5")));
+    }
+
+
+    @Test
+    public void addModeAddsDuplicatesAcrossBatches() {
+        Note existing = addNoteUsingBasicModel("existing", "old");
+
+        List<String> log = importNotes(ImportMode.ADD_MODE, notesWithDuplicates());
+
+        existing.load();
+        assertThat(existing.getItem("Back"), is("old"));
+        // every note of the source, including the two duplicates
+        assertThat(getCol().noteCount(), is(1 + NOTE_COUNT + 2));
+        assertThat(log, not(hasItem(appearedTwice("existing"))));
+        assertThat(log, not(hasItem(appearedTwice("front 5"))));
+    }
+
+
+    @Test
+    public void existingNoteWithAFutureIdIsNotTakenForAnImportedOne() {
+        Collection col = getCol();
+        Note existing = addNoteUsingBasicModel("existing", "old");
+        // in the range of ids given to the notes of the import, which start from the current time
+        long futureId = col.getTime().intTimeMS() + NOTE_COUNT * 2 / 3;
+        col.getDb().execute("update notes set id = ? where id = ?", futureId, existing.getId());
+        col.getDb().execute("update cards set nid = ? where nid = ?", futureId, existing.getId());
+        List<ForeignNote> notes = new ArrayList<>();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes.add(note("front " + i, "new " + i));
+        }
+        // after the note which would have had the same id
+        notes.add(note("existing", "new"));
+
+        List<String> log = importNotes(ImportMode.UPDATE_MODE, notes);
+
+        assertThat(col.noteCount(), is(1 + NOTE_COUNT));
+        assertThat(log, not(hasItem(appearedTwice("existing"))));
+        assertThat(col.getNote(futureId).getItem("Back"), is("new"));
+    }
+
+
+    /**
+     * @return NOTE_COUNT notes with distinct first fields, apart from "existing", in the first and the second batch, and
+     * "front 5", also in the second batch
+     */
+    @NonNull
+    private static List<ForeignNote> notesWithDuplicates() {
+        List<ForeignNote> notes = new ArrayList<>(NOTE_COUNT + 2);
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes.add(note(i == 10 ? "existing" : "front " + i, "new " + i));
+            if (i == 1100) {
+                notes.add(note("existing", "second"));
+                notes.add(note("front 5", "second"));
+            }
+        }
+        return notes;
+    }
+
+
+    @NonNull
+    private static ForeignNote note(String front, String back) {
+        ForeignNote note = new ForeignNote();
+        note.mFields.add(front);
+        note.mFields.add(back);
+        return note;
+    }
+
+
+    private String appearedTwice(String front) {
+        return getTargetContext().getString(R.string.note_importer_error_appeared_twice, front);
+    }
+
+
+    private List<String> importNotes(ImportMode mode, List<ForeignNote> notes) {
+        NoteImporter importer = new NoteImporter(getCol(), "") {
+            @Override
+            protected int fields() {
+                return 2;
+            }
+
+
+            @NonNull
+            @Override
+            protected List<ForeignNote> foreignNotes() {
+                return notes;
+            }
+        };
+        importer.initMapping();
+        importer.setImportMode(mode);
+        importer.run();
+        return importer.getLog();
+    }
+}
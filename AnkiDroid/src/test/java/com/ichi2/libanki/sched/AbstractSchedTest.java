@@ -52,8 +52,10 @@ import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 // Note: These tests can't be run individually but can from the class-level
 // gradlew AnkiDroid:testDebug --tests "com.ichi2.libanki.sched.AbstractSchedTest.*"
@@ -159,6 +161,48 @@ public class AbstractSchedTest extends RobolectricTest {
         assertThat(queue.size(), is(nbCard - 5));
     }
 
+    @Test
+    public void testLargeCardQueue() {
+        SchedV2 sched = (SchedV2) getCol().getSched();
+        SimpleCardQueue queue = new SimpleCardQueue(sched);
+        final int nbCard = 50000;
+        for (long cid = 1; cid <= nbCard; cid++) {
+            queue.add(cid);
+        }
+        assertThat(queue.size(), is(nbCard));
+        for (long cid = 1; cid <= nbCard; cid += 2) {
+            assertTrue(queue.remove(cid));
+        }
+        assertThat(queue.size(), is(nbCard / 2));
+        assertFalse(queue.remove(1));
+        for (long cid = 2; cid <= nbCard; cid += 2) {
+            assertTrue(queue.remove(cid));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testLrnCardQueueOrder() {
+        SchedV2 sched = (SchedV2) getCol().getSched();
+        LrnCardQueue queue = new LrnCardQueue(sched);
+        queue.add(30, 3);
+        queue.add(50, 5);
+        queue.add(10, 1);
+        queue.add(40, 4);
+        queue.sort();
+        assertEquals(10, queue.getFirstDue());
+        queue.insertSorted(20, 2);
+        queue.insertSorted(5, 6);
+        assertThat(queue.size(), is(6));
+        long[] expectedDues = new long[] {5, 10, 20, 30, 40, 50};
+        long[] cids = new long[] {6, 1, 2, 3, 4, 5};
+        for (int i = 0; i < cids.length; i++) {
+            assertEquals(expectedDues[i], queue.getFirstDue());
+            assertTrue(queue.remove(cids[i]));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
     @Test
     public void siblingCorrectlyBuried() {
         // #6903
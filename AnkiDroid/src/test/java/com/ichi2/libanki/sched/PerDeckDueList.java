@@ -0,0 +1,75 @@
+package com.ichi2.libanki.sched;
+
+import android.text.TextUtils;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Deck;
+import com.ichi2.libanki.Decks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The deck due list as SchedV2 computed it before it counted the cards of every deck in a single query: with three
+ * queries per deck. The result of {@link SchedV2#deckDueList()} is checked against it.
+ */
+public class PerDeckDueList {
+
+    private PerDeckDueList() {
+        // only static methods
+    }
+
+
+    @NonNull
+    public static List<DeckDueTreeNode> compute(@NonNull SchedV2 sched) {
+        Collection col = sched.mCol;
+        sched._checkDay();
+        col.getDecks().checkIntegrity();
+        List<Deck> decks = col.getDecks().allSorted();
+        HashMap<String, Integer> newLims = new HashMap<>(decks.size());
+        ArrayList<DeckDueTreeNode> deckNodes = new ArrayList<>(decks.size());
+        Decks.Node childMap = col.getDecks().childMap();
+        for (Deck deck : decks) {
+            String deckName = deck.getString("name");
+            long did = deck.getLong("id");
+            String p = Decks.parent(deckName);
+            // new
+            int nlim = sched._deckNewLimitSingle(deck, false);
+            if (!TextUtils.isEmpty(p)) {
+                Integer parentLim = newLims.get(Decks.normalizeName(p));
+                assertNotNull("Deck " + deckName + " has no parent " + p, parentLim);
+                nlim = Math.min(nlim, parentLim);
+            }
+            int _new = sched._newForDeck(did, nlim);
+            // learning
+            int lrn = lrnForDeck(sched, did);
+            // reviews, the limit of the parents is not taken into account by V2
+            int rlim = sched._deckRevLimitSingle(deck, false);
+            int rev = sched._revForDeck(did, rlim, childMap);
+            deckNodes.add(new DeckDueTreeNode(col, deckName, did, rev, lrn, _new));
+            newLims.put(Decks.normalizeName(deckName), nlim);
+        }
+        return deckNodes;
+    }
+
+
+    private static int lrnForDeck(@NonNull SchedV2 sched, long did) {
+        Collection col = sched.mCol;
+        int cnt = col.getDb().queryScalar(
+                "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
+                        + " AND queue = " + Consts.QUEUE_TYPE_LRN + " AND due < ?"
+                        + " LIMIT ?)",
+                did, (sched.getTime().intTime() + col.getConf().getInt("collapseTime")), sched.mReportLimit);
+        return cnt + col.getDb().queryScalar(
+                "SELECT count() FROM (SELECT null FROM cards WHERE did = ?"
+                        + " AND queue = " + Consts.QUEUE_TYPE_DAY_LEARN_RELEARN + " AND due <= ?"
+                        + " LIMIT ?)",
+                did, sched.mToday, sched.mReportLimit);
+    }
+}
@@ -46,6 +46,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import androidx.sqlite.db.SupportSQLiteStatement;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static com.ichi2.libanki.Consts.CARD_TYPE_LRN;
@@ -1430,6 +1431,140 @@ public class SchedV2Test extends RobolectricTest {
     }
 
 
+    @Test
+    public void test_deckDueListMatchesPerDeckCounts() throws Exception {
+        Collection col = getColV2();
+        long parent = addDeck("Parent");
+        long child = addDeck("Parent::Child");
+        long grandChild = addDeck("Parent::Child::GrandChild");
+        long[] dids = new long[] {1, parent, child, grandChild};
+        // limit new cards of the parent, so that the limit applies to its descendants
+        DeckConfig conf = col.getDecks().confForDid(parent);
+        DeckConfig parentConf = col.getDecks().getConf(col.getDecks().confId("parentConf", conf.toString()));
+        parentConf.getJSONObject("new").put("perDay", 3);
+        parentConf.getJSONObject("rev").put("perDay", 4);
+        col.getDecks().updateConf(parentConf);
+        col.getDecks().setConf(col.getDecks().get(parent), parentConf.getLong("id"));
+        for (int i = 0; i < 24; i++) {
+            Note note = col.newNote();
+            note.setItem("Front", Integer.toString(i));
+            note.model().put("did", dids[i % dids.length]);
+            col.addNote(note);
+            Card c = note.cards().get(0);
+            switch (i % 3) {
+                case 1:
+                    c.setType(CARD_TYPE_REV);
+                    c.setQueue(QUEUE_TYPE_REV);
+                    c.setDue(col.getSched().getToday() - i);
+                    c.flush();
+                    break;
+                case 2:
+                    c.setType(CARD_TYPE_LRN);
+                    c.setQueue(QUEUE_TYPE_DAY_LEARN_RELEARN);
+                    c.setDue(col.getSched().getToday());
+                    c.flush();
+                    break;
+                default:
+                    // stays new
+            }
+        }
+        col.reset();
+        assertDeckDueListMatchesPerDeck((SchedV2) col.getSched());
+    }
+
+
+    @Test
+    public void test_deckDueListCacheIsUpdatedByScheduler() throws Exception {
+        Collection col = getColV2();
+        long child = addDeck("Default::Child");
+        for (int i = 0; i < 6; i++) {
+            Note note = col.newNote();
+            note.setItem("Front", Integer.toString(i));
+            note.model().put("did", i % 2 == 0 ? 1 : child);
+            col.addNote(note);
+        }
+        col.reset();
+        SchedV2 sched = (SchedV2) col.getSched();
+        // fills the cache
+        sched.deckDueList(null);
+
+        Card card = sched.getCard();
+        sched.answerCard(card, Consts.BUTTON_THREE);
+        assertDeckDueListMatchesPerDeck(sched);
+
+        card = sched.getCard();
+        sched.buryCards(new long[] {card.getId()});
+        assertDeckDueListMatchesPerDeck(sched);
+
+        card = sched.getCard();
+        sched.suspendCards(new long[] {card.getId()});
+        assertDeckDueListMatchesPerDeck(sched);
+
+        card = sched.getCard();
+        sched.answerCard(card, Consts.BUTTON_ONE);
+        col.undo();
+        assertDeckDueListMatchesPerDeck(sched);
+
+        sched.unburyCards();
+        assertDeckDueListMatchesPerDeck(sched);
+
+        long dyn = addDynamicDeck("Filtered");
+        sched.rebuildDyn(dyn);
+        assertDeckDueListMatchesPerDeck(sched);
+        sched.emptyDyn(dyn);
+        assertDeckDueListMatchesPerDeck(sched);
+
+        // changes made outside of the scheduler are also taken into account
+        addNoteUsingBasicModel("outside", "scheduler");
+        assertDeckDueListMatchesPerDeck(sched);
+    }
+
+
+    @Test
+    public void test_deckDueListCacheIsRefreshedByWritesOnTheConnection() throws Exception {
+        Collection col = getColV2();
+        for (int i = 0; i < 4; i++) {
+            addNoteUsingBasicModel(Integer.toString(i), "back");
+        }
+        col.reset();
+        SchedV2 sched = (SchedV2) col.getSched();
+        List<Long> cids = col.getDb().queryLongList("SELECT id FROM cards");
+        // fills the cache
+        sched.deckDueList(null);
+
+        col.getDb().getDatabase().execSQL("UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + " WHERE id = ?",
+                new Object[] {cids.get(0)});
+        assertDeckDueListMatchesPerDeck(sched);
+
+        // counted when executed, not when compiled
+        try (SupportSQLiteStatement statement = col.getDb().getDatabase().compileStatement(
+                "UPDATE cards SET queue = " + Consts.QUEUE_TYPE_SUSPENDED + " WHERE id = ?")) {
+            sched.deckDueList(null);
+            statement.bindLong(1, cids.get(1));
+            statement.executeUpdateDelete();
+            assertDeckDueListMatchesPerDeck(sched);
+        }
+        assertEquals(2, sched.deckDueList(null).get(0).getNewCount());
+    }
+
+
+    private void assertDeckDueListMatchesPerDeck(SchedV2 sched) {
+        List<DeckDueTreeNode> aggregated = sched.deckDueList(null);
+        List<DeckDueTreeNode> perDeck = PerDeckDueList.compute(sched);
+        assertNotNull(aggregated);
+        assertEquals(perDeck.size(), aggregated.size());
+        for (int i = 0; i < perDeck.size(); i++) {
+            DeckDueTreeNode expected = perDeck.get(i);
+            DeckDueTreeNode actual = aggregated.get(i);
+            assertEquals(expected.getFullDeckName(), actual.getFullDeckName());
+            assertEquals(expected.getDid(), actual.getDid());
+            assertEquals(expected.getNewCount(), actual.getNewCount());
+            assertEquals(expected.getLrnCount(), actual.getLrnCount());
+            assertEquals(expected.getRevCount(), actual.getRevCount());
+        }
+    }
+
+
     @Test
     public void test_deckTree() throws Exception {
         Collection col = getColV2();
@@ -0,0 +1,67 @@
+package com.ichi2.libanki.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkSizerTest {
+
+    @Test
+    public void budgetGrowsAtMostTwiceOnFastNetworks() {
+        ChunkSizer sizer = new ChunkSizer();
+        sizer.onLatencySample(50);
+        assertEquals(ChunkSizer.INITIAL_BUDGET, sizer.getBudget());
+        // 64 KB in 60 ms: the network could send much more in 2 s
+        sizer.onChunkSent(sizer.getBudget(), 60);
+        assertEquals(2 * ChunkSizer.INITIAL_BUDGET, sizer.getBudget());
+        for (int i = 0; i < 20; i++) {
+            sizer.onChunkSent(sizer.getBudget(), 60);
+        }
+        assertEquals(ChunkSizer.MAX_BUDGET, sizer.getBudget());
+    }
+
+
+    @Test
+    public void budgetShrinksOnSlowNetworks() {
+        ChunkSizer sizer = new ChunkSizer();
+        sizer.onLatencySample(100);
+        // 64 KB in 8 s: 8 bytes per ms
+        sizer.onChunkSent(sizer.getBudget(), 8100);
+        assertEquals(ChunkSizer.MIN_BUDGET, sizer.getBudget());
+    }
+
+
+    @Test
+    public void budgetTargetsTheRoundTripDuration() {
+        ChunkSizer sizer = new ChunkSizer();
+        sizer.onLatencySample(100);
+        // 64 KB in 1 s plus latency: 2 s round trips allow to send 1.9 s worth of data
+        sizer.onChunkSent(64000, 1100);
+        assertEquals(64 * 1900, sizer.getBudget());
+    }
+
+
+    @Test
+    public void highLatencyLeadsToLongerRoundTrips() {
+        ChunkSizer sizer = new ChunkSizer();
+        sizer.onLatencySample(1000);
+        // Round trips should last 4 latencies, so 3 s of transfer
+        sizer.onChunkSent(64000, 2000);
+        assertEquals(2 * ChunkSizer.INITIAL_BUDGET, sizer.getBudget());
+        sizer = new ChunkSizer();
+        sizer.onLatencySample(1000);
+        // 64 KB in 10 s plus latency, 3 s worth of data is below the minimum
+        sizer.onChunkSent(64000, 11000);
+        assertEquals(ChunkSizer.MIN_BUDGET, sizer.getBudget());
+    }
+
+
+    @Test
+    public void smallChunksAreIgnored() {
+        ChunkSizer sizer = new ChunkSizer();
+        sizer.onLatencySample(100);
+        sizer.onChunkSent(1000, 5000);
+        assertEquals(ChunkSizer.INITIAL_BUDGET, sizer.getBudget());
+        assertEquals(100, sizer.getLatencyMs());
+    }
+}
@@ -0,0 +1,115 @@
+package com.ichi2.libanki.sync;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.async.Connection;
+import com.ichi2.libanki.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaSyncerTest extends RobolectricTest {
+
+    @Test
+    public void zipsAreClosedWhenExtractionFails() throws Exception {
+        Collection col = getCol();
+        ZipServer server = new ZipServer(col);
+        MediaSyncer syncer = new MediaSyncer(col, server, new SilentConnection());
+        List<String> fnames = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            fnames.add("file" + i + ".txt");
+        }
+
+        try {
+            syncer._downloadFiles(fnames);
+            fail("The second zip has no name for its file");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        List<ZipFile> downloaded = server.getZips();
+        assertTrue("the error happens after the first zip", downloaded.size() >= 2);
+        for (ZipFile zip : downloaded) {
+            assertTrue(zip.getName() + " is closed", isClosed(zip));
+        }
+        Thread.sleep(300);
+        assertEquals("the downloads stopped", downloaded.size(), server.getZips().size());
+        assertTrue(new File(col.getMedia().dir(), "file0.txt").exists());
+    }
+
+
+    private static boolean isClosed(ZipFile zip) {
+        try {
+            zip.size();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+
+
+    /** Sends one file per zip. Only the first zip can be extracted, the others lack the name of their file. */
+    private static class ZipServer extends RemoteMediaServer {
+        private final Collection mCol;
+        private final List<ZipFile> mZips = Collections.synchronizedList(new ArrayList<>());
+
+
+        ZipServer(Collection col) {
+            super(col, "", null, new HostNum(null));
+            mCol = col;
+        }
+
+
+        @Override
+        public ZipFile downloadFiles(List<String> top, String zipName) {
+            try {
+                File file = new File(new File(mCol.getPath()).getParentFile(), zipName);
+                boolean valid = mZips.isEmpty();
+                try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+                    zip.putNextEntry(new ZipEntry("_meta"));
+                    String meta = valid ? "{\"0\": \"" + top.get(0) + "\"}" : "{}";
+                    zip.write(meta.getBytes(StandardCharsets.UTF_8));
+                    zip.putNextEntry(new ZipEntry("0"));
+                    zip.write(top.get(0).getBytes(StandardCharsets.UTF_8));
+                }
+                ZipFile zipFile = new ZipFile(file, ZipFile.OPEN_READ | ZipFile.OPEN_DELETE);
+                mZips.add(zipFile);
+                return zipFile;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+
+        List<ZipFile> getZips() {
+            synchronized (mZips) {
+                return new ArrayList<>(mZips);
+            }
+        }
+    }
+
+
+    private static class SilentConnection extends Connection {
+        @Override
+        public void publishProgress(String message) {
+            // no UI
+        }
+    }
+}
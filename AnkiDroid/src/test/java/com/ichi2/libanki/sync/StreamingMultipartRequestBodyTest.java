@@ -0,0 +1,171 @@
+package com.ichi2.libanki.sync;
+
+import com.ichi2.libanki.sync.StreamingMultipartRequestBody.Payload;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import okio.Buffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingMultipartRequestBodyTest {
+    private static final String HEADER = "--b\r\n"
+            + "Content-Disposition: form-data; name=\"k\"\r\n\r\nkey\r\n"
+            + "--b\r\n"
+            + "Content-Disposition: form-data; name=\"c\"\r\n\r\n1\r\n"
+            + "--b\r\n"
+            + "Content-Disposition: form-data; name=\"data\"; filename=\"data\"\r\nContent-Type: application/octet-stream\r\n\r\n";
+    private static final String FOOTER = "\r\n--b--\r\n";
+
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+
+    @Test
+    public void payloadIsGzippedBetweenHeaderAndFooter() throws IOException {
+        byte[] payload = payload();
+        AtomicLong counted = new AtomicLong();
+        StreamingMultipartRequestBody body = new StreamingMultipartRequestBody("b", postVars(1),
+                Payload.of(payload), 6, counted::addAndGet);
+        assertThat(body.contentType().toString(), is("multipart/form-data; boundary=b"));
+
+        byte[] written = write(body);
+
+        assertEquals(written.length, counted.get());
+        assertEquals("Gzipped body is sent with a Content-Length", written.length, body.contentLength());
+        assertArrayEquals(payload, gunzip(written));
+    }
+
+
+    @Test
+    public void largeGzippedFileIsCompressedAgainWithTheSameLength() throws IOException {
+        byte[] payload = new byte[StreamingMultipartRequestBody.COMPRESSED_BUFFER_LIMIT * 2];
+        new Random(1).nextBytes(payload);
+        File file = mFolder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(payload);
+        }
+        StreamingMultipartRequestBody body = new StreamingMultipartRequestBody("b", postVars(1),
+                Payload.of(file), 6, num -> { });
+        long length = body.contentLength();
+        assertThat("Compressed payload is not kept in memory", length,
+                greaterThan((long) StreamingMultipartRequestBody.COMPRESSED_BUFFER_LIMIT));
+
+        byte[] written = write(body);
+
+        assertEquals(length, written.length);
+        assertArrayEquals(payload, gunzip(written));
+    }
+
+
+    @Test
+    public void bodyCanBeWrittenAgainForRetries() throws IOException {
+        File file = mFolder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(payload());
+        }
+        for (int comp : new int[] {0, 6}) {
+            StreamingMultipartRequestBody body = new StreamingMultipartRequestBody("b", postVars(comp == 0 ? 0 : 1),
+                    Payload.of(file), comp, num -> { });
+            assertFalse("OkHttp may retry or follow redirects", body.isOneShot());
+            byte[] first = write(body);
+            assertArrayEquals(first, write(body));
+            assertEquals(first.length, body.contentLength());
+        }
+    }
+
+
+    @Test
+    public void uncompressedPayloadHasAKnownLength() throws IOException {
+        byte[] payload = payload();
+        StreamingMultipartRequestBody body = new StreamingMultipartRequestBody("b", postVars(0),
+                Payload.of(payload), 0, num -> { });
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        assertEquals(sink.size(), body.contentLength());
+        String expectedHeader = HEADER.replace("name=\"c\"\r\n\r\n1", "name=\"c\"\r\n\r\n0");
+        assertEquals(expectedHeader + new String(payload, StandardCharsets.ISO_8859_1) + FOOTER,
+                new String(sink.readByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+
+    @Test
+    public void bodyWithoutPayload() throws IOException {
+        StreamingMultipartRequestBody body = new StreamingMultipartRequestBody("b", postVars(0), null, 0, num -> { });
+        assertFalse(body.isOneShot());
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        assertEquals(sink.size(), body.contentLength());
+        assertEquals("--b\r\n"
+                + "Content-Disposition: form-data; name=\"k\"\r\n\r\nkey\r\n"
+                + "--b\r\n"
+                + "Content-Disposition: form-data; name=\"c\"\r\n\r\n0\r\n"
+                + "--b--\r\n", sink.readUtf8());
+    }
+
+
+    private static Map<String, Object> postVars(int comp) {
+        Map<String, Object> postVars = new LinkedHashMap<>();
+        postVars.put("k", "key");
+        postVars.put("c", comp);
+        return postVars;
+    }
+
+
+    private static byte[] payload() {
+        byte[] payload = new byte[200000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 251);
+        }
+        return payload;
+    }
+
+
+    private static byte[] write(StreamingMultipartRequestBody body) throws IOException {
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        return sink.readByteArray();
+    }
+
+
+    /** The payload of a body with a gzipped payload */
+    private static byte[] gunzip(byte[] written) throws IOException {
+        String text = new String(written, StandardCharsets.ISO_8859_1);
+        assertTrue(text.startsWith(HEADER));
+        assertTrue(text.endsWith(FOOTER));
+        byte[] gzipped = new byte[written.length - HEADER.length() - FOOTER.length()];
+        System.arraycopy(written, HEADER.length(), gzipped, 0, gzipped.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+}
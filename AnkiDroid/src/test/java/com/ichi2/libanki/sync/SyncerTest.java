@@ -0,0 +1,73 @@
+package com.ichi2.libanki.sync;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Collection;
+import com.ichi2.utils.JSONArray;
+import com.ichi2.utils.JSONObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SyncerTest extends RobolectricTest {
+
+    @Test
+    public void chunksHaveAtMostTheRowsOfAnkiChunks() throws Exception {
+        Collection col = getCol();
+        for (int i = 0; i < 300; i++) {
+            addNoteUsingBasicModel("front " + i, "back");
+        }
+        // As a server, chunks contain every row with usn >= minUsn. The added rows have usn -1.
+        col.setServer(true);
+        Syncer syncer = new Syncer(col, null, null);
+        syncer.start(-1, false, emptyGraves());
+        syncer.mergeChanges(new JSONObject(), noChanges());
+
+        int chunks = 0;
+        int notes = 0;
+        JSONObject chunk;
+        do {
+            chunk = syncer.chunk();
+            chunks++;
+            int rows = 0;
+            for (String table : new String[] {"revlog", "cards", "notes"}) {
+                if (chunk.has(table)) {
+                    rows += chunk.getJSONArray(table).length();
+                }
+            }
+            assertTrue(rows + " rows in a chunk", rows <= ChunkSizer.MAX_ROWS);
+            if (chunk.has("notes")) {
+                notes += chunk.getJSONArray("notes").length();
+            }
+        } while (!chunk.getBoolean("done"));
+
+        assertEquals(300, notes);
+        assertTrue("600 rows need at least 3 chunks", chunks >= 3);
+    }
+
+
+    private static JSONObject noChanges() {
+        JSONObject changes = new JSONObject();
+        changes.put("models", new JSONArray());
+        JSONArray decks = new JSONArray();
+        decks.put(new JSONArray());
+        decks.put(new JSONArray());
+        changes.put("decks", decks);
+        changes.put("tags", new JSONArray());
+        return changes;
+    }
+
+
+    private static JSONObject emptyGraves() {
+        JSONObject graves = new JSONObject();
+        graves.put("cards", new JSONArray());
+        graves.put("notes", new JSONArray());
+        graves.put("decks", new JSONArray());
+        return graves;
+    }
+}
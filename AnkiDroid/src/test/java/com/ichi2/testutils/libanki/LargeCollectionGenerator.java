@@ -0,0 +1,278 @@
+package com.ichi2.testutils.libanki;
+
+import com.ichi2.anki.exception.FilteredAncestor;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.Model;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+import timber.log.Timber;
+
+/**
+ * Fills a collection with synthetic notes, decks, cards and review history, to reproduce the behaviour of very large
+ * collections on the JVM.
+ *
+ * The content, including the ids and guids of notes, cards and review log entries, only depends on the seed and the
+ * requested sizes; ids are counted from a fixed time, due dates are relative to the current day. Decks are created
+ * through {@link
+ * com.ichi2.libanki.Decks#id(String)}. For each note type, a sample note is added through {@link
+ * Collection#addNote(Note)} to know which cards it generates; the bulk of the notes, cards and revlog entries are then
+ * inserted with {@link com.ichi2.libanki.DB#executeMany(String, List)} in batches, as adding hundreds of thousands of
+ * notes one by one would take hours.
+ *
+ * Distributions are chosen to look like a long used collection: about 40% of the cards are new, 5% in learning, 5%
+ * suspended and the others in review, with log-normal intervals and ease factors around the starting one.
+ */
+public class LargeCollectionGenerator {
+    private static final int BATCH_SIZE = 10000;
+    private static final long DAY_MS = 86400000L;
+    /** Id of the first note, a fixed time in the past, so that ids don't depend on the clock. Cards follow their note. */
+    private static final long FIRST_NOTE_ID = 1500000000000L;
+    /** Id of the first review log entry, a few years after the first note */
+    private static final long FIRST_REVLOG_ID = FIRST_NOTE_ID + 3L * 365 * DAY_MS;
+    private static final String[] MODELS = new String[] {"Basic", "Basic (and reversed card)"};
+    private static final String[] WORDS = new String[] {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot",
+            "golf", "hotel", "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo",
+            "sierra", "tango", "uniform", "victor", "whiskey", "x-ray", "yankee", "zulu"};
+
+    private final Collection mCol;
+    private long mSeed = 0;
+    private int mNotes = 1000;
+    private int mDecks = 10;
+    private int mRevlog = 0;
+
+
+    public LargeCollectionGenerator(@NonNull Collection col) {
+        mCol = col;
+    }
+
+
+    public LargeCollectionGenerator withSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+
+    public LargeCollectionGenerator withNotes(int notes) {
+        mNotes = notes;
+        return this;
+    }
+
+
+    /** Number of generated decks, nested up to five levels deep. Parents created by libanki are not counted. */
+    public LargeCollectionGenerator withDecks(int decks) {
+        mDecks = decks;
+        return this;
+    }
+
+
+    /** Number of review log entries, spread over the cards which are not new. */
+    public LargeCollectionGenerator withRevlog(int revlog) {
+        mRevlog = revlog;
+        return this;
+    }
+
+
+    public void generate() {
+        Random random = new Random(mSeed);
+        long start = mCol.getTime().intTimeMS();
+        List<Long> dids = generateDecks(random);
+        List<Long> reviewedCids = generateNotes(random, dids);
+        generateRevlog(random, reviewedCids);
+        mCol.save();
+        mCol.reset();
+        Timber.i("Generated %d notes, %d decks and %d revlog entries in %d ms", mNotes, mDecks, mRevlog,
+                mCol.getTime().intTimeMS() - start);
+    }
+
+
+    private @NonNull List<Long> generateDecks(@NonNull Random random) {
+        List<String> names = new ArrayList<>(mDecks);
+        List<Long> dids = new ArrayList<>(mDecks);
+        for (int i = 0; i < mDecks; i++) {
+            String name = "Deck " + i;
+            // nest below a random existing deck, unless it is already deep
+            if (!names.isEmpty() && random.nextInt(4) != 0) {
+                String parent = names.get(random.nextInt(names.size()));
+                if (parent.split(Decks.DECK_SEPARATOR).length < 5) {
+                    name = parent + Decks.DECK_SEPARATOR + name;
+                }
+            }
+            names.add(name);
+            try {
+                dids.add(mCol.getDecks().id(name));
+            } catch (FilteredAncestor filteredAncestor) {
+                throw new IllegalStateException(filteredAncestor);
+            }
+        }
+        return dids;
+    }
+
+
+    /** @return The ids of the cards which have been reviewed */
+    private @NonNull List<Long> generateNotes(@NonNull Random random, @NonNull List<Long> dids) {
+        // ords of the cards generated for each model, known from a sample note
+        List<Model> models = new ArrayList<>(MODELS.length);
+        List<int[]> modelOrds = new ArrayList<>(MODELS.length);
+        for (String name : MODELS) {
+            Model model = mCol.getModels().byName(name);
+            Note sample = new Note(mCol, model);
+            sample.setField(0, "sample");
+            sample.setField(1, "sample");
+            mCol.addNote(sample);
+            List<Card> cards = sample.cards();
+            int[] ords = new int[cards.size()];
+            for (int i = 0; i < ords.length; i++) {
+                ords[i] = cards.get(i).getOrd();
+            }
+            mCol.remNotes(new long[] {sample.getId()});
+            models.add(model);
+            modelOrds.add(ords);
+        }
+
+        int today = mCol.getSched().getToday();
+        long now = mCol.getTime().intTime();
+        // ids are creation times in milliseconds
+        long id = FIRST_NOTE_ID;
+        List<Long> reviewedCids = new ArrayList<>();
+        List<Object[]> notes = new ArrayList<>(BATCH_SIZE);
+        List<Object[]> cards = new ArrayList<>(BATCH_SIZE);
+        int newPosition = 0;
+        for (int n = 0; n < mNotes; n++) {
+            int m = random.nextInt(models.size());
+            long nid = id++;
+            String front = words(random, 1 + random.nextInt(4)) + " " + n;
+            String back = "<div>" + words(random, 3 + random.nextInt(20)) + "</div>";
+            String tags = random.nextInt(3) == 0 ? " " + WORDS[random.nextInt(WORDS.length)] + " " : "";
+            notes.add(new Object[] {nid, guid(random), models.get(m).getLong("id"), nid / 1000, -1, tags,
+                    Utils.joinFields(new String[] {front, back}), front, Utils.fieldChecksum(front), 0, ""});
+            long did = dids.get(random.nextInt(dids.size()));
+            for (int ord : modelOrds.get(m)) {
+                long cid = id++;
+                Object[] card = generateCard(random, cid, nid, did, ord, today, now, newPosition);
+                if ((int) card[6] == Consts.CARD_TYPE_NEW) {
+                    newPosition++;
+                } else {
+                    reviewedCids.add(cid);
+                }
+                cards.add(card);
+            }
+            if (notes.size() >= BATCH_SIZE) {
+                flush(notes, cards);
+            }
+        }
+        flush(notes, cards);
+        return reviewedCids;
+    }
+
+
+    private @NonNull Object[] generateCard(@NonNull Random random, long cid, long nid, long did, int ord, int today, long now, int newPosition) {
+        int type;
+        int queue;
+        long due;
+        int ivl = 0;
+        int factor = 0;
+        int reps = 0;
+        int lapses = 0;
+        int left = 0;
+        int p = random.nextInt(100);
+        if (p < 40) {
+            type = Consts.CARD_TYPE_NEW;
+            queue = Consts.QUEUE_TYPE_NEW;
+            due = newPosition;
+        } else {
+            factor = Math.max(1300, Math.min(3500, (int) (Consts.STARTING_FACTOR + random.nextGaussian() * 250)));
+            reps = 1 + random.nextInt(30);
+            lapses = random.nextInt(1 + reps / 5);
+            if (p < 45) {
+                type = Consts.CARD_TYPE_LRN;
+                if (random.nextBoolean()) {
+                    queue = Consts.QUEUE_TYPE_LRN;
+                    due = now + random.nextInt(3600) - 600;
+                } else {
+                    queue = Consts.QUEUE_TYPE_DAY_LEARN_RELEARN;
+                    due = today + random.nextInt(3) - 1;
+                }
+                left = 1001;
+            } else {
+                type = Consts.CARD_TYPE_REV;
+                queue = p < 50 ? Consts.QUEUE_TYPE_SUSPENDED : Consts.QUEUE_TYPE_REV;
+                // log-normal, median of about 20 days
+                ivl = Math.max(1, Math.min(36500, (int) Math.exp(3 + 1.3 * random.nextGaussian())));
+                due = today - ivl / 4 + random.nextInt(ivl + 1);
+            }
+        }
+        return new Object[] {cid, nid, did, ord, cid / 1000, -1, type, queue, due, ivl, factor, reps, lapses, left, 0, 0, 0, ""};
+    }
+
+
+    private void flush(@NonNull List<Object[]> notes, @NonNull List<Object[]> cards) {
+        if (!notes.isEmpty()) {
+            mCol.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+            notes.clear();
+        }
+        if (!cards.isEmpty()) {
+            mCol.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+            cards.clear();
+        }
+    }
+
+
+    private void generateRevlog(@NonNull Random random, @NonNull List<Long> reviewedCids) {
+        if (reviewedCids.isEmpty() || mRevlog == 0) {
+            return;
+        }
+        // one entry every few seconds
+        long id = FIRST_REVLOG_ID;
+        List<Object[]> revlog = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < mRevlog; i++) {
+            id += 1 + random.nextInt(9999);
+            long cid = reviewedCids.get(random.nextInt(reviewedCids.size()));
+            // ease is mostly good
+            int e = random.nextInt(100);
+            int ease = e < 10 ? Consts.BUTTON_ONE : (e < 20 ? Consts.BUTTON_TWO : (e < 90 ? Consts.BUTTON_THREE : Consts.BUTTON_FOUR));
+            int type = random.nextInt(10) == 0 ? Consts.REVLOG_LRN : Consts.REVLOG_REV;
+            int lastIvl = type == Consts.REVLOG_LRN ? -600 : Math.max(1, (int) Math.exp(2.5 + 1.3 * random.nextGaussian()));
+            int ivl = ease == Consts.BUTTON_ONE ? -600 : Math.max(1, (int) (Math.abs(lastIvl) * (1.2 + random.nextDouble() * 1.5)));
+            int factor = Math.max(1300, Math.min(3500, (int) (Consts.STARTING_FACTOR + random.nextGaussian() * 250)));
+            int time = 1000 + random.nextInt(20000);
+            revlog.add(new Object[] {id, cid, -1, ease, ivl, lastIvl, factor, time, type});
+            if (revlog.size() >= BATCH_SIZE) {
+                mCol.getDb().executeMany("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", revlog);
+                revlog.clear();
+            }
+        }
+        if (!revlog.isEmpty()) {
+            mCol.getDb().executeMany("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", revlog);
+        }
+    }
+
+
+    /**
+     * Utils.guid64 uses its own unseeded Random, and only draws an int.
+     * @return A guid of 61 random bits, in base 36
+     */
+    private static @NonNull String guid(@NonNull Random random) {
+        return Long.toString(random.nextLong() >>> 3, 36);
+    }
+
+
+    private static @NonNull String words(@NonNull Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
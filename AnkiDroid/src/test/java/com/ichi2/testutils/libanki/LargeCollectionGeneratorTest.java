@@ -0,0 +1,79 @@
+package com.ichi2.testutils.libanki;
+
+import com.ichi2.anki.RobolectricTest;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sched.DeckDueTreeNode;
+import com.ichi2.libanki.sched.PerDeckDueList;
+import com.ichi2.libanki.sched.SchedV2;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LargeCollectionGeneratorTest extends RobolectricTest {
+
+    @Test
+    public void generatesConsistentCollection() {
+        Collection col = getCol();
+        int decksBefore = col.getDecks().allNames().size();
+        new LargeCollectionGenerator(col).withSeed(42).withNotes(600).withDecks(40).withRevlog(2000).generate();
+
+        assertEquals(600, col.noteCount());
+        assertTrue("Some notes have two cards", col.cardCount() > 600);
+        assertEquals(2000, col.getDb().queryScalar("SELECT count() FROM revlog"));
+        assertEquals(decksBefore + 40, col.getDecks().allNames().size());
+        assertEquals("Every card belongs to an existing note", 0,
+                col.getDb().queryScalar("SELECT count() FROM cards WHERE nid NOT IN (SELECT id FROM notes)"));
+        assertEquals("Every review belongs to an existing card", 0,
+                col.getDb().queryScalar("SELECT count() FROM revlog WHERE cid NOT IN (SELECT id FROM cards)"));
+        for (long did : col.getDb().queryLongList("SELECT DISTINCT did FROM cards")) {
+            assertNotNull(col.getDecks().get(did, false));
+        }
+        assertNotNull("The collection can be reviewed", col.getSched().getCard());
+    }
+
+
+    @Test
+    public void deckDueListIsConsistent() {
+        Collection col = getCol();
+        new LargeCollectionGenerator(col).withSeed(7).withNotes(1000).withDecks(100).generate();
+        SchedV2 sched = (SchedV2) col.getSched();
+        List<DeckDueTreeNode> grouped = sched.deckDueList();
+        List<DeckDueTreeNode> perDeck = PerDeckDueList.compute(sched);
+        assertEquals(perDeck.size(), grouped.size());
+        for (int i = 0; i < perDeck.size(); i++) {
+            assertEquals(perDeck.get(i).toString(), grouped.get(i).toString());
+        }
+    }
+
+
+    @Test
+    public void contentOnlyDependsOnTheSeed() {
+        Collection col = getCol();
+        new LargeCollectionGenerator(col).withSeed(3).withNotes(200).withDecks(10).withRevlog(300).generate();
+        List<String> notes = generatedRows(col);
+        // removes everything but the decks, which are found again by name
+        col.remNotes(Utils.collection2Array(col.getDb().queryLongList("SELECT id FROM notes")));
+        col.getDb().execute("DELETE FROM revlog");
+
+        new LargeCollectionGenerator(col).withSeed(3).withNotes(200).withDecks(10).withRevlog(300).generate();
+        assertEquals(notes, generatedRows(col));
+    }
+
+
+    private static List<String> generatedRows(Collection col) {
+        List<String> rows = col.getDb().queryStringList("SELECT id || guid || mid || flds || tags FROM notes ORDER BY id");
+        rows.addAll(col.getDb().queryStringList("SELECT id || nid || did || ord || type || ivl FROM cards ORDER BY id"));
+        rows.addAll(col.getDb().queryStringList("SELECT id || cid || ease || ivl FROM revlog ORDER BY id"));
+        return rows;
+    }
+}
@@ -0,0 +1,39 @@
+package com.ichi2.utils;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BoundedLruCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        BoundedLruCache<String, Integer> cache = new BoundedLruCache<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // "b" is now the least recently used
+        assertThat(cache.get("a"), is(1));
+        cache.put("c", 3);
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), is(1));
+        assertThat(cache.get("c"), is(3));
+        assertThat(cache.getHits(), is(3L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+
+    @Test
+    public void invalidateForgetsEveryEntry() {
+        BoundedLruCache<String, Integer> cache = new BoundedLruCache<>(2);
+        cache.put("a", 1);
+        cache.invalidate();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.getEvictions(), is(0L));
+    }
+}
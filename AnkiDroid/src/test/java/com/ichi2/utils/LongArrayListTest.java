@@ -0,0 +1,57 @@
+package com.ichi2.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+
+public class LongArrayListTest {
+
+    @Test
+    public void growsAsElementsAreAdded() {
+        LongArrayList list = new LongArrayList(1);
+        for (long i = 0; i < 100; i++) {
+            list.add(i * 2);
+        }
+        assertThat(list.size(), is(100));
+        assertThat(list.get(99), is(198L));
+        assertThat(list.toArray().length, is(100));
+    }
+
+
+    @Test
+    public void reverseIsInPlace() {
+        LongArrayList list = listOf(1, 2, 3, 4, 5);
+        list.reverse();
+        assertArrayEquals(new long[] {5, 4, 3, 2, 1}, list.toArray());
+        assertThat(list.toList(), is(Arrays.asList(5L, 4L, 3L, 2L, 1L)));
+    }
+
+
+    @Test
+    public void copyIsNotAffectedByTheOriginal() {
+        LongArrayList list = listOf(1, 2, 3);
+        LongArrayList copy = list.copyOf(2);
+        list.add(4);
+        list.reverse();
+        assertArrayEquals(new long[] {1, 2}, copy.toArray());
+    }
+
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getIsBoundedBySize() {
+        listOf(1, 2).get(2);
+    }
+
+
+    private static LongArrayList listOf(long... values) {
+        LongArrayList list = new LongArrayList();
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}